@@ -0,0 +1,146 @@
+package com.strumenta.rpg.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Provides the source members used by the benchmarks.
+ * Besides the CUS300 sample shipped with the repository, it generates
+ * synthetic members that stress the pipeline in different ways:
+ * <ul>
+ *     <li>STATEMENTS: thousands of flat statements;</li>
+ *     <li>NESTING: deeply nested IF and DOU blocks;</li>
+ *     <li>FANOUT: a few shared subroutines called from many places, each calling other subroutines.</li>
+ * </ul>
+ */
+public final class BenchmarkMembers {
+
+    /**
+     * The number of statement blocks of the STATEMENTS member.
+     */
+    public static final int STATEMENT_BLOCKS = 2000;
+    /**
+     * The nesting depth of the NESTING member.
+     */
+    public static final int NESTING_DEPTH = 100;
+    /**
+     * The number of EXSR of the main procedure of the FANOUT member.
+     */
+    public static final int FANOUT_CALLS = 1000;
+    /**
+     * The number of shared subroutines of the FANOUT member.
+     */
+    public static final int FANOUT_SUBROUTINES = 20;
+
+    private static final String HEADER = """
+     FCUSTOMER  UF   E           K Disk
+     D TOTAL           S              9P 2 INZ(0)
+     D CNT             S              9P 2 INZ(0)
+      /free
+""";
+
+    private BenchmarkMembers() {
+    }
+
+    /**
+     * Retrieves the source file of a benchmark member, generating it if it is synthetic.
+     *
+     * @param member The name of the member: CUS300, STATEMENTS, NESTING or FANOUT.
+     * @return The source file of the member.
+     * @throws IOException If the synthetic member cannot be written.
+     */
+    public static File file(String member) throws IOException {
+        switch (member) {
+            case "CUS300":
+                return Paths.get(System.getProperty("benchmark.samples", "rpgle/qrpglesrc"), "CUS300.rpgle").toFile();
+            case "STATEMENTS":
+                return write(member, statements(STATEMENT_BLOCKS));
+            case "NESTING":
+                return write(member, nesting(NESTING_DEPTH));
+            case "FANOUT":
+                return write(member, fanout(FANOUT_CALLS, FANOUT_SUBROUTINES));
+            default:
+                throw new IllegalArgumentException(String.format("Unknown benchmark member '%s'", member));
+        }
+    }
+
+    /**
+     * Creates a temporary directory for the output of the benchmarks.
+     *
+     * @return The output directory.
+     * @throws IOException If the directory cannot be created.
+     */
+    public static File outputDir() throws IOException {
+        File dir = Files.createTempDirectory("rpg-benchmark-out").toFile();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static File write(String member, String source) throws IOException {
+        Path dir = Files.createTempDirectory("rpg-benchmark");
+        Path file = dir.resolve(member + ".rpgle");
+        Files.writeString(file, source, StandardCharsets.UTF_8);
+        file.toFile().deleteOnExit();
+        dir.toFile().deleteOnExit();
+        return file.toFile();
+    }
+
+    private static String statements(int blocks) {
+        StringBuilder source = new StringBuilder(HEADER);
+        line(source, 0, "Setll *Loval CUSTOMER;");
+        for (int i = 0; i < blocks; i++) {
+            line(source, 0, "CNT = CNT + 1;");
+            line(source, 0, "Read CUSTOMER;");
+            line(source, 0, "If NOT %EOF(CUSTOMER);");
+            line(source, 1, "TOTAL = TOTAL + CNT;");
+            line(source, 1, "Update CUSTOMER;");
+            line(source, 0, "EndIf;");
+        }
+        return source.toString();
+    }
+
+    private static String nesting(int depth) {
+        StringBuilder source = new StringBuilder(HEADER);
+        line(source, 0, "Setll *Loval CUSTOMER;");
+        for (int i = 0; i < depth; i++) {
+            line(source, i, i % 2 == 0 ? "Dou NOT %EOF(CUSTOMER);" : "If CNT > " + i + ";");
+            line(source, i + 1, "Read CUSTOMER;");
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            line(source, i, i % 2 == 0 ? "EndDo;" : "EndIf;");
+        }
+        return source.toString();
+    }
+
+    private static String fanout(int calls, int subroutines) {
+        StringBuilder source = new StringBuilder(HEADER);
+        for (int i = 0; i < calls; i++) {
+            line(source, 0, "EXSR val" + (i % subroutines) + ";");
+        }
+        for (int i = 0; i < subroutines; i++) {
+            line(source, 0, "Begsr val" + i + ";");
+            line(source, 1, "Read CUSTOMER;");
+            line(source, 1, "EXSR chk" + i + ";");
+            line(source, 1, "EXSR upd" + i + ";");
+            line(source, 0, "EndSr;");
+            line(source, 0, "Begsr chk" + i + ";");
+            line(source, 1, "If CNT > " + i + ";");
+            line(source, 2, "Setll *Loval CUSTOMER;");
+            line(source, 1, "EndIf;");
+            line(source, 0, "EndSr;");
+            line(source, 0, "Begsr upd" + i + ";");
+            line(source, 1, "Update CUSTOMER;");
+            line(source, 0, "EndSr;");
+        }
+        return source.toString();
+    }
+
+    private static void line(StringBuilder source, int indent, String statement) {
+        // Free-form code embedded in a fixed-form member must end by column 80
+        source.append("        ").append("    ".repeat(Math.min(indent, 8))).append(statement).append('\n');
+    }
+}
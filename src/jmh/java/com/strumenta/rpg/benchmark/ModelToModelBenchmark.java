@@ -0,0 +1,57 @@
+package com.strumenta.rpg.benchmark;
+
+import com.strumenta.kolasu.model.Node;
+import com.strumenta.puml.PUMLDiagram;
+import com.strumenta.rpg.NodeCounter;
+import com.strumenta.rpg.transform.ModelToModel;
+import com.strumenta.rpg.transform.SourceToModel;
+import com.strumenta.rpg.transform.TransformContext;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the transformation of a parsed RPG model into the PUML model.
+ * The member is parsed once, in the setup of the trial.
+ * Besides the throughput, the benchmark reports the PUML nodes built per second:
+ * the heap allocated per node is the gc.alloc.rate.norm of the gc profiler divided
+ * by the number of nodes per operation, that is the nodes score over the transform score.
+ */
+@State(Scope.Benchmark)
+public class ModelToModelBenchmark {
+
+    /**
+     * Counts the PUML nodes built by the benchmark.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Nodes {
+        public long nodes;
+    }
+
+    @Param({"CUS300", "STATEMENTS", "NESTING", "FANOUT"})
+    public String member;
+
+    private ModelToModel transformer;
+    private TransformContext context;
+    private Node model;
+    private int nodesPerDiagram;
+
+    @Setup
+    public void setup() throws Exception {
+        transformer = new ModelToModel();
+        context = new TransformContext(BenchmarkMembers.file(member), BenchmarkMembers.outputDir());
+        model = new SourceToModel().transform(null, context);
+        PUMLDiagram diagram = (PUMLDiagram) transformer.transform(model, context);
+        nodesPerDiagram = NodeCounter.count(diagram);
+    }
+
+    @Benchmark
+    public Node transform(Nodes nodes) throws Exception {
+        nodes.nodes += nodesPerDiagram;
+        return transformer.transform(model, context);
+    }
+}
@@ -0,0 +1,44 @@
+package com.strumenta.rpg.benchmark;
+
+import com.strumenta.puml.PUMLCodeGenerator;
+import com.strumenta.puml.PUMLDiagram;
+import com.strumenta.rpg.transform.ModelToModel;
+import com.strumenta.rpg.transform.SourceToModel;
+import com.strumenta.rpg.transform.TransformContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+
+/**
+ * Measures the generation of the PlantUML code of a PUML diagram.
+ * The member is parsed and transformed once, in the setup of the trial.
+ */
+@State(Scope.Benchmark)
+public class PUMLCodeGeneratorBenchmark {
+
+    @Param({"CUS300", "STATEMENTS", "NESTING", "FANOUT"})
+    public String member;
+
+    private PUMLCodeGenerator generator;
+    private PUMLDiagram diagram;
+    private HashMap<String, String> values;
+
+    @Setup
+    public void setup() throws Exception {
+        generator = new PUMLCodeGenerator();
+        TransformContext context = new TransformContext(BenchmarkMembers.file(member), BenchmarkMembers.outputDir());
+        diagram = (PUMLDiagram) new ModelToModel().transform(new SourceToModel().transform(null, context), context);
+        values = new HashMap<>();
+        values.put("client", "client");
+        values.put("module", member);
+    }
+
+    @Benchmark
+    public String generateToString() {
+        return generator.generateToString(diagram, values);
+    }
+}
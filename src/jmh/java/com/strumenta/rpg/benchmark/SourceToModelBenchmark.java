@@ -0,0 +1,34 @@
+package com.strumenta.rpg.benchmark;
+
+import com.strumenta.kolasu.model.Node;
+import com.strumenta.rpg.transform.SourceToModel;
+import com.strumenta.rpg.transform.TransformContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the parsing of a source member into the RPG model.
+ */
+@State(Scope.Benchmark)
+public class SourceToModelBenchmark {
+
+    @Param({"CUS300", "STATEMENTS", "NESTING", "FANOUT"})
+    public String member;
+
+    private SourceToModel transformer;
+    private TransformContext context;
+
+    @Setup
+    public void setup() throws Exception {
+        transformer = new SourceToModel();
+        context = new TransformContext(BenchmarkMembers.file(member), BenchmarkMembers.outputDir());
+    }
+
+    @Benchmark
+    public Node transform() throws Exception {
+        return transformer.transform(null, context);
+    }
+}
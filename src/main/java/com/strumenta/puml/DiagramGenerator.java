@@ -0,0 +1,29 @@
+package com.strumenta.puml;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Generates the code of a diagram in a textual format from a PUML diagram model.
+ * All the generators consume the same model, so a member parsed and transformed once
+ * can be written in several formats.
+ */
+public interface DiagramGenerator {
+
+    /**
+     * Generates the code of a diagram, writing it to the given output as the diagram is walked.
+     *
+     * @param diagram The diagram to generate the code of.
+     * @param values  The values of the placeholders of the diagram: the client and the module.
+     * @param out     The destination of the generated code.
+     * @throws IOException If writing to the output fails.
+     */
+    void generate(PUMLDiagram diagram, Map<String, String> values, Appendable out) throws IOException;
+
+    /**
+     * Retrieves the extension of the files the code is written to.
+     *
+     * @return The extension, with its leading dot.
+     */
+    String getExtension();
+}
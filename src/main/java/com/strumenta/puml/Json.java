@@ -0,0 +1,41 @@
+package com.strumenta.puml;
+
+/**
+ * Helpers to write JSON documents by hand, without a JSON library.
+ */
+public final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Quotes a string as a JSON string literal, escaping the characters JSON requires.
+     *
+     * @param value The string to quote, possibly null.
+     * @return The JSON literal, or {@code null} if the value is null.
+     */
+    public static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
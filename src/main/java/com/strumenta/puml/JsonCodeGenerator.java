@@ -0,0 +1,107 @@
+package com.strumenta.puml;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates a JSON document from a given PUML diagram model, for the tools that analyze
+ * the call structure of the programs rather than display it.
+ * The document is an object with the client and module of the diagram and its statements.
+ * Every statement is an object whose type is one of invoke, if, loop, group, note and ref,
+ * with the properties of the statement and, for the statements with a body, the statements
+ * of the body. The ELSEIF and ELSE branches of an if are listed in its else property.
+ */
+public class JsonCodeGenerator implements DiagramGenerator {
+
+    private static final HashMap<Class<?>, PUMLNodePrinter> nodePrinters = new HashMap<>();
+    static {
+        nodePrinters.put(PUMInvoke.class, (statement, out) -> {
+            PUMInvoke s = (PUMInvoke) statement;
+            out.append(String.format("{\"type\": \"invoke\", \"caller\": %s, \"receiver\": %s, \"method\": %s, \"params\": [",
+                    Json.quote(s.getCaller()), Json.quote(s.getReceiver()), Json.quote(s.getMethod())));
+            for (int i = 0; i < s.getParams().size(); i++) {
+                out.append(i > 0 ? ", " : "").append(Json.quote(s.getParams().get(i)));
+            }
+            out.append("], \"body\": ");
+            statements(s.getBody(), out);
+            out.append('}');
+        });
+        nodePrinters.put(PUMLoop.class, (statement, out) -> {
+            PUMLoop s = (PUMLoop) statement;
+            out.append(String.format("{\"type\": \"loop\", \"kind\": %s, \"condition\": %s, \"body\": ",
+                    Json.quote(s.getType()), Json.quote(s.getCondition())));
+            statements(s.getBody(), out);
+            out.append('}');
+        });
+        nodePrinters.put(PUMLIf.class, (statement, out) -> {
+            PUMLIf s = (PUMLIf) statement;
+            out.append(String.format("{\"type\": \"if\", \"condition\": %s, \"body\": ", Json.quote(s.getCondition())));
+            statements(s.getBody(), out);
+            out.append(", \"else\": ");
+            statements(s.getElseBranches(), out);
+            out.append('}');
+        });
+        nodePrinters.put(PUMLGroup.class, (statement, out) -> {
+            PUMLGroup s = (PUMLGroup) statement;
+            out.append(String.format("{\"type\": \"group\", \"label\": %s, \"body\": ", Json.quote(s.getLabel())));
+            statements(s.getBody(), out);
+            out.append('}');
+        });
+        nodePrinters.put(PUMLRef.class, (statement, out) -> {
+            PUMLRef s = (PUMLRef) statement;
+            out.append(String.format("{\"type\": \"ref\", \"participant\": %s, \"label\": %s}",
+                    Json.quote(s.getParticipant()), Json.quote(s.getLabel())));
+        });
+        nodePrinters.put(PUMLNote.class, (statement, out) -> {
+            PUMLNote s = (PUMLNote) statement;
+            out.append(String.format("{\"type\": \"note\", \"participant\": %s, \"text\": %s}",
+                    Json.quote(s.getParticipant()), Json.quote(s.getText())));
+        });
+    }
+
+    /**
+     * Generates the JSON document of a diagram, writing it to the given output as the diagram is walked.
+     *
+     * @param diagram The PUMLDiagram to generate the document from.
+     * @param values  The client and module of the diagram.
+     * @param out     The destination of the document.
+     * @throws IOException If writing to the output fails.
+     */
+    @Override
+    public void generate(PUMLDiagram diagram, Map<String, String> values, Appendable out) throws IOException {
+        out.append(String.format("{\"client\": %s, \"module\": %s, \"statements\": ",
+                Json.quote(values.get("client")), Json.quote(values.get("module"))));
+        statements(diagram.getStatements(), out);
+        out.append("}\n");
+    }
+
+    /**
+     * Retrieves the extension of the JSON files.
+     *
+     * @return The .json extension.
+     */
+    @Override
+    public String getExtension() {
+        return ".json";
+    }
+
+    /**
+     * Writes statements as a JSON array. Statements without a printer, such as PUMLEmpty,
+     * are left out of the array.
+     */
+    private static void statements(List<? extends PUMLStatement> statements, Appendable out) throws IOException {
+        out.append('[');
+        boolean first = true;
+        for (PUMLStatement statement : statements) {
+            PUMLNodePrinter printer = nodePrinters.get(statement.getClass());
+            if (printer != null) {
+                out.append(first ? "" : ", ");
+                printer.print(statement, out);
+                first = false;
+            }
+        }
+        out.append(']');
+    }
+}
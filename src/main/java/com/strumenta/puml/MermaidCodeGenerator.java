@@ -0,0 +1,230 @@
+package com.strumenta.puml;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a Mermaid sequence diagram from a given PUML diagram model, for the wikis
+ * and documentation sites that render Mermaid rather than PlantUML.
+ * Mermaid participant identifiers cannot contain the dots of the member names, so every
+ * participant is declared first, with an identifier derived from its name and the name
+ * itself as its label. Names that would get the same identifier, such as FILE-A and
+ * FILE_A, are told apart by a numeric suffix. Mermaid has no references: they are drawn
+ * as notes.
+ */
+public class MermaidCodeGenerator implements DiagramGenerator {
+
+    private static final HashMap<Class<?>, PUMLNodePrinter> nodePrinters = new HashMap<>();
+    static {
+        nodePrinters.put(PUMInvoke.class, (statement, out) -> {
+            PUMInvoke s = (PUMInvoke) statement;
+            String args = String.join(" ", s.getParams());
+            line(out, String.format("%s->>%s: %s", id(out, s.getCaller()), id(out, s.getReceiver()), text(String.format("%s %s", s.getMethod(), args).trim())));
+            for (PUMLStatement ps : s.getBody()) {
+                print(ps, out);
+            }
+        });
+        nodePrinters.put(PUMLoop.class, (statement, out) -> {
+            PUMLoop s = (PUMLoop) statement;
+            line(out, String.format("loop %s", text(join(s.getType(), s.getCondition()))));
+            for (PUMLStatement ps : s.getBody()) {
+                print(ps, out);
+            }
+            line(out, "end");
+        });
+        nodePrinters.put(PUMLIf.class, (statement, out) -> {
+            PUMLIf s = (PUMLIf) statement;
+            line(out, String.format("%s IF %s", s.getElseBranches().isEmpty() ? "opt" : "alt", text(s.getCondition())));
+            for (PUMLStatement ps : s.getBody()) {
+                print(ps, out);
+            }
+            for (PUMLGroup branch : s.getElseBranches()) {
+                line(out, String.format("else %s", text(branch.getLabel())));
+                for (PUMLStatement ps : branch.getBody()) {
+                    print(ps, out);
+                }
+            }
+            line(out, "end");
+        });
+        nodePrinters.put(PUMLGroup.class, (statement, out) -> {
+            PUMLGroup s = (PUMLGroup) statement;
+            line(out, String.format("opt %s", text(s.getLabel())));
+            for (PUMLStatement ps : s.getBody()) {
+                print(ps, out);
+            }
+            line(out, "end");
+        });
+        nodePrinters.put(PUMLRef.class, (statement, out) -> {
+            PUMLRef s = (PUMLRef) statement;
+            line(out, String.format("Note over %s: ref %s", id(out, s.getParticipant()), text(s.getLabel())));
+        });
+        nodePrinters.put(PUMLNote.class, (statement, out) -> {
+            PUMLNote s = (PUMLNote) statement;
+            line(out, String.format("Note over %s: %s", id(out, s.getParticipant()), text(s.getText())));
+        });
+    }
+
+    /**
+     * Generates a Mermaid sequence diagram, writing it to the given output as the diagram is walked.
+     *
+     * @param diagram The PUMLDiagram to generate the sequence diagram from.
+     * @param values  The client and module of the diagram, drawn as its first message.
+     * @param out     The destination of the generated code.
+     * @throws IOException If writing to the output fails.
+     */
+    @Override
+    public void generate(PUMLDiagram diagram, Map<String, String> values, Appendable out) throws IOException {
+        Set<String> participants = new LinkedHashSet<>();
+        participants.add(values.get("client"));
+        participants.add(values.get("module"));
+        collect(diagram.getStatements(), participants);
+        participants.remove(null);
+        Output output = new Output(out, ids(participants));
+        line(output, "sequenceDiagram");
+        for (String participant : participants) {
+            String id = id(output, participant);
+            if (participant.equals(id)) {
+                line(output, String.format("participant %s", participant));
+            } else {
+                line(output, String.format("participant %s as %s", id, text(participant)));
+            }
+        }
+        line(output, String.format("%s->>%s: ", id(output, values.get("client")), id(output, values.get("module"))));
+        for (PUMLStatement s : diagram.getStatements()) {
+            print(s, output);
+        }
+    }
+
+    /**
+     * Retrieves the extension of the Mermaid files.
+     *
+     * @return The .mmd extension.
+     */
+    @Override
+    public String getExtension() {
+        return ".mmd";
+    }
+
+    /**
+     * Writes a PUMLStatement to the output.
+     * Statements without a printer, such as PUMLEmpty, produce no output.
+     */
+    private static void print(PUMLStatement statement, Appendable out) throws IOException {
+        PUMLNodePrinter printer = nodePrinters.get(statement.getClass());
+        if (printer != null) {
+            printer.print(statement, out);
+        }
+    }
+
+    /**
+     * Collects the participants of the statements, in the order they appear.
+     */
+    private static void collect(List<? extends PUMLStatement> statements, Set<String> participants) {
+        for (PUMLStatement statement : statements) {
+            if (statement instanceof PUMInvoke s) {
+                participants.add(s.getCaller());
+                participants.add(s.getReceiver());
+                collect(s.getBody(), participants);
+            } else if (statement instanceof PUMLIf s) {
+                collect(s.getBody(), participants);
+                collect(s.getElseBranches(), participants);
+            } else if (statement instanceof PUMLoop s) {
+                collect(s.getBody(), participants);
+            } else if (statement instanceof PUMLGroup s) {
+                collect(s.getBody(), participants);
+            } else if (statement instanceof PUMLNote s) {
+                participants.add(s.getParticipant());
+            } else if (statement instanceof PUMLRef s) {
+                participants.add(s.getParticipant());
+            }
+        }
+    }
+
+    /**
+     * Assigns the Mermaid identifiers of the participants of a diagram: their names, with
+     * the characters other than letters, digits and underscores replaced by underscores,
+     * and a suffix _2, _3, ... for a name whose identifier is already taken.
+     */
+    private static Map<String, String> ids(Set<String> participants) {
+        Map<String, String> ids = new HashMap<>();
+        Set<String> taken = new HashSet<>();
+        for (String participant : participants) {
+            String base = participant.replaceAll("\\W", "_");
+            String id = base;
+            for (int suffix = 2; !taken.add(id); suffix++) {
+                id = base + "_" + suffix;
+            }
+            ids.put(participant, id);
+        }
+        return ids;
+    }
+
+    /**
+     * Retrieves the Mermaid identifier of a participant of the diagram being written.
+     */
+    private static String id(Appendable out, String participant) {
+        return ((Output) out).ids.get(participant);
+    }
+
+    /**
+     * The output of a diagram, carrying the identifiers of its participants to the printers.
+     */
+    private static final class Output implements Appendable {
+        private final Appendable out;
+        private final Map<String, String> ids;
+
+        private Output(Appendable out, Map<String, String> ids) {
+            this.out = out;
+            this.ids = ids;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            out.append(csq);
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            out.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            out.append(c);
+            return this;
+        }
+    }
+
+    /**
+     * Escapes the characters that end a Mermaid statement or start an entity, and the line breaks.
+     */
+    private static String text(String value) {
+        String text = String.valueOf(value);
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '#' -> escaped.append("#35;");
+                case ';' -> escaped.append("#59;");
+                case '\n' -> escaped.append("<br/>");
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String join(String first, String second) {
+        return second == null ? String.valueOf(first) : first + " " + second;
+    }
+
+    private static void line(Appendable out, String line) throws IOException {
+        out.append(line).append('\n');
+    }
+}
@@ -1,19 +1,23 @@
 package com.strumenta.puml;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
  * Represents an invocation statement in a PlantUML diagram.
  * This class models the concept of a method or procedure call, including details
  * about the caller, receiver, method name, parameters, and the body of the invocation.
+ * Most invocations of a diagram, such as the file operations, have no body: the list
+ * holding the body is only allocated when a first statement is added to it, and the
+ * parameters are kept in an immutable list, shared when the list given is already one.
  */
 public class PUMInvoke extends PUMLStatement {
     private final String caller;
     private final String receiver;
     private final String method;
     private final List<String> params;
-    private final List<PUMLStatement> body;
+    private List<PUMLStatement> body;
 
     /**
      * Constructs a PUMInvoke statement with specified caller, receiver, method, and parameters.
@@ -27,8 +31,7 @@ public class PUMInvoke extends PUMLStatement {
         this.caller = caller;
         this.receiver = receiver;
         this.method = method;
-        this.params = new ArrayList<>(params);
-        this.body = new ArrayList<>();
+        this.params = List.copyOf(params);
     }
 
     /**
@@ -61,7 +64,7 @@ public class PUMInvoke extends PUMLStatement {
     /**
      * Retrieves the parameters of the invocation.
      *
-     * @return A list of parameters as strings.
+     * @return An immutable list of parameters as strings.
      */
     public List<String> getParams() {
         return params;
@@ -69,10 +72,41 @@ public class PUMInvoke extends PUMLStatement {
 
     /**
      * Retrieves the body of the invocation, which may contain additional PUML statements.
+     * The list is not to be modified: statements are added with {@link #add(PUMLStatement)}
+     * and {@link #addAll(Collection)}.
      *
-     * @return A list of PUMLStatement objects representing the body of the invocation.
+     * @return A list of PUMLStatement objects representing the body of the invocation,
+     * empty if the invocation has no body.
      */
     public List<PUMLStatement> getBody() {
-        return body;
+        return body != null ? body : List.of();
+    }
+
+    /**
+     * Adds a statement at the end of the body of the invocation.
+     *
+     * @param statement The statement to add.
+     */
+    public void add(PUMLStatement statement) {
+        if (body == null) {
+            body = new ArrayList<>(4);
+        }
+        body.add(statement);
+    }
+
+    /**
+     * Adds statements at the end of the body of the invocation.
+     *
+     * @param statements The statements to add; nothing is allocated when there are none.
+     */
+    public void addAll(Collection<? extends PUMLStatement> statements) {
+        if (statements.isEmpty()) {
+            return;
+        }
+        if (body == null) {
+            body = new ArrayList<>(statements);
+        } else {
+            body.addAll(statements);
+        }
     }
 }
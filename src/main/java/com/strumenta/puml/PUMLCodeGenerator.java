@@ -2,8 +2,7 @@ package com.strumenta.puml;
 
 import org.apache.commons.text.StringSubstitutor;
 
-import java.sql.ClientInfoStatus;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -11,8 +10,11 @@ import java.util.Map;
  * Generates PlantUML (PUML) code from a given PUML diagram model.
  * This class translates PUML diagram components into a textual representation
  * that can be rendered by PlantUML tools.
+ * The code is written to an {@link Appendable} while the diagram is walked, so the
+ * output can be streamed to its destination and the memory used while generating
+ * depends on the depth of the diagram rather than on the size of the output.
  */
-public class PUMLCodeGenerator {
+public class PUMLCodeGenerator implements DiagramGenerator {
     private final String template = """
 @startuml
 'https://plantuml.com/sequence-diagram
@@ -35,40 +37,61 @@ ${client} -> ${module} :
 ${sequence}
 @enduml
             """;
+    private static final String SEQUENCE = "${sequence}\n";
 
 
     private static final HashMap<Class<?>,PUMLNodePrinter> nodePrinters = new HashMap<>();
     static {
-        nodePrinters.put(PUMInvoke.class, (statement) -> {
+        nodePrinters.put(PUMInvoke.class, (statement, out) -> {
             PUMInvoke s = (PUMInvoke)statement;
             String args = String.join(" ", s.getParams());
-            ArrayList<String> sequence = new ArrayList<>();
-            sequence.add(String.format("%s -> %s : %s %s",s.getCaller(),s.getReceiver(),s.getMethod(),args));
+            line(out, String.format("%s -> %s : %s %s",s.getCaller(),s.getReceiver(),s.getMethod(),args));
             for(PUMLStatement ps : s.getBody()) {
-                sequence.add(print(ps));
+                print(ps, out);
             }
-            return String.join("\n",sequence);
         });
 
-        nodePrinters.put(PUMLoop.class, (statement) -> {
+        nodePrinters.put(PUMLoop.class, (statement, out) -> {
             PUMLoop s = (PUMLoop)statement;
-            ArrayList<String> sequence = new ArrayList<>();
-            sequence.add(String.format("loop %s %s",s.getType(),s.getCondition()) );
+            line(out, String.format("loop %s %s",s.getType(),s.getCondition()));
             for(PUMLStatement ps : s.getBody()) {
-                sequence.add(print(ps));
+                print(ps, out);
             }
-            sequence.add("end");
-            return String.join("\n",sequence);
+            line(out, "end");
         });
-        nodePrinters.put(PUMLIf.class, (statement) -> {
+        nodePrinters.put(PUMLIf.class, (statement, out) -> {
             PUMLIf s = (PUMLIf) statement;
-            ArrayList<String> sequence = new ArrayList<>();
-            sequence.add(String.format("group IF %s",s.getCondition()) );
+            if (s.getElseBranches().isEmpty()) {
+                line(out, String.format("group IF %s",s.getCondition()));
+            } else {
+                line(out, String.format("alt IF %s",s.getCondition()));
+            }
+            for(PUMLStatement ps : s.getBody()) {
+                print(ps, out);
+            }
+            for(PUMLGroup branch : s.getElseBranches()) {
+                line(out, String.format("else %s", branch.getLabel()));
+                for(PUMLStatement ps : branch.getBody()) {
+                    print(ps, out);
+                }
+            }
+            line(out, "end");
+        });
+        nodePrinters.put(PUMLGroup.class, (statement, out) -> {
+            PUMLGroup s = (PUMLGroup) statement;
+            line(out, String.format("group %s", s.getLabel()));
             for(PUMLStatement ps : s.getBody()) {
-                sequence.add(print(ps));
+                print(ps, out);
             }
-            sequence.add("end");
-            return String.join("\n",sequence);
+            line(out, "end");
+        });
+        nodePrinters.put(PUMLRef.class, (statement, out) -> {
+            PUMLRef s = (PUMLRef) statement;
+            line(out, String.format("ref over %s : %s", s.getParticipant(), s.getLabel()));
+        });
+        nodePrinters.put(PUMLNote.class, (statement, out) -> {
+            PUMLNote s = (PUMLNote) statement;
+            line(out, String.format("note over %s : %s", s.getParticipant(), s.getText()));
         });
 
         // Add other class-function pairs here
@@ -82,33 +105,63 @@ ${sequence}
      * @return A String representation of the PlantUML sequence diagram.
      */
     public String generateToString(PUMLDiagram diagram, HashMap<String, String> values) {
+        StringBuilder out = new StringBuilder();
+        try {
+            generate(diagram, values, out);
+        } catch (IOException e) {
+            // A StringBuilder never throws IOException
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
 
-        ArrayList<String> sequence = new ArrayList<>();
+    /**
+     * Generates a PlantUML sequence diagram based on the provided PUMLDiagram and values,
+     * writing it to the given output as the diagram is walked.
+     *
+     * @param diagram The PUMLDiagram to generate the sequence diagram from.
+     * @param values A map of values to replace placeholders in the PlantUML template.
+     * @param out The destination of the generated code.
+     * @throws IOException If writing to the output fails.
+     */
+    @Override
+    public void generate(PUMLDiagram diagram, Map<String, String> values, Appendable out) throws IOException {
+        StringSubstitutor sub = new StringSubstitutor(values);
+        int sequence = template.indexOf(SEQUENCE);
+        out.append(sub.replace(template.substring(0, sequence)));
         for(PUMLStatement s : diagram.getStatements()) {
-            String step = print(s);
-            if(!step.isEmpty()) {
-                sequence.add(step);
-            }
+            print(s, out);
         }
-        values.put("sequence",String.join("\n",sequence));
-        StringSubstitutor sub = new StringSubstitutor(values);
-        String resolvedString = sub.replace(template);
+        out.append(sub.replace(template.substring(sequence + SEQUENCE.length())));
+    }
 
-        return resolvedString;
+    /**
+     * Retrieves the extension of the PlantUML files.
+     *
+     * @return The .puml extension.
+     */
+    @Override
+    public String getExtension() {
+        return ".puml";
     }
+
     /**
-     * Converts a PUMLStatement into its string representation.
+     * Writes a PUMLStatement to the output.
+     * Statements without a printer, such as PUMLEmpty, produce no output.
      *
-     * @param statement The PUMLStatement to be converted.
-     * @return A String representing the given PUMLStatement.
+     * @param statement The PUMLStatement to be written.
+     * @param out The destination of the generated code.
+     * @throws IOException If writing to the output fails.
      */
-    private static String print(PUMLStatement statement) {
+    private static void print(PUMLStatement statement, Appendable out) throws IOException {
         PUMLNodePrinter printer = nodePrinters.get(statement.getClass());
         if(printer != null) {
-            return printer.print(statement);
+            printer.print(statement, out);
         }
-        return "";
+    }
 
+    private static void line(Appendable out, String line) throws IOException {
+        out.append(line).append('\n');
     }
 
 }
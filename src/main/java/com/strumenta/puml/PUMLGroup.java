@@ -0,0 +1,42 @@
+package com.strumenta.puml;
+
+import java.util.ArrayList;
+
+/**
+ * Represents a generic group of statements in a PlantUML diagram.
+ * A group is drawn as a labeled frame around its body, and is used for the
+ * blocks of the program that have no more specific representation, such as
+ * the branches of a SELECT or the ELSE of an IF.
+ */
+public class PUMLGroup extends PUMLStatement {
+
+    private final String label;
+    private final ArrayList<PUMLStatement> body = new ArrayList<>();
+
+    /**
+     * Constructs a new PUMLGroup with the specified label.
+     *
+     * @param label the text shown on the frame of the group
+     */
+    public PUMLGroup(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Retrieves the label of the group.
+     *
+     * @return the label of the group
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Retrieves the body of the group, which is a list of PUMLStatements.
+     *
+     * @return the body of the group as an ArrayList of PUMLStatements
+     */
+    public ArrayList<PUMLStatement> getBody() {
+        return body;
+    }
+}
@@ -7,11 +7,14 @@ import java.util.ArrayList;
  * This class encapsulates the concept of an if statement,
  * which includes a condition and a body (then part) that contains
  * a list of PUMLStatements to be executed if the condition is true.
+ * The other branches of the statement, ELSEIF and ELSE, if any, are kept as
+ * groups labeled with their own condition.
  */
 public class PUMLIf extends PUMLStatement {
 
     private final String condition;
     private final ArrayList<PUMLStatement> then = new ArrayList<>();
+    private final ArrayList<PUMLGroup> otherwise = new ArrayList<>();
 
     /**
      * Constructs a new PUMLIf with the specified condition.
@@ -39,4 +42,13 @@ public class PUMLIf extends PUMLStatement {
     public ArrayList<PUMLStatement> getBody() {
         return then;
     }
+
+    /**
+     * Retrieves the branches taken when the condition is false, in order.
+     *
+     * @return the ELSEIF and ELSE branches of the if statement
+     */
+    public ArrayList<PUMLGroup> getElseBranches() {
+        return otherwise;
+    }
 }
\ No newline at end of file
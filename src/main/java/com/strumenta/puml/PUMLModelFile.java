@@ -0,0 +1,298 @@
+package com.strumenta.puml;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Reads and writes a PUML diagram in a compact binary format, so that a diagram
+ * can be rendered again, for example with other rendering options, without
+ * going back to the source it was built from.
+ * The file starts with a magic number and a format version, followed by the
+ * statements of the diagram in depth first order. Every statement is a tag byte
+ * followed by its strings and, for the statements with a body, the number of
+ * statements in the body and the statements themselves. An IF is followed by the
+ * number of its ELSEIF and ELSE branches, each written as a group.
+ * The names of the participants and the methods repeat many times in a diagram,
+ * so every string is written once: the following occurrences refer to it by index.
+ * The counts and lengths read are checked, and nothing is allocated ahead of the data
+ * actually read, so a corrupt or truncated file is rejected without exhausting the memory.
+ */
+public final class PUMLModelFile {
+
+    /**
+     * The extension of the files holding a serialized diagram.
+     */
+    public static final String EXTENSION = ".pumlm";
+
+    private static final int MAGIC = 0x50554D4C;
+    private static final int VERSION = 2;
+
+    private static final byte INVOKE = 1;
+    private static final byte IF = 2;
+    private static final byte LOOP = 3;
+    private static final byte NOTE = 4;
+    private static final byte REF = 5;
+    private static final byte EMPTY = 6;
+    private static final byte GROUP = 7;
+
+    private PUMLModelFile() {
+    }
+
+    /**
+     * Writes a diagram to a stream.
+     *
+     * @param diagram The diagram to write.
+     * @param out     The stream the diagram is written to, which is not closed.
+     * @throws IOException If the stream cannot be written, or the diagram contains
+     *                     a statement that cannot be serialized.
+     */
+    public static void write(PUMLDiagram diagram, OutputStream out) throws IOException {
+        Writer writer = new Writer(new DataOutputStream(out));
+        writer.out.writeInt(MAGIC);
+        writer.out.writeInt(VERSION);
+        writer.statements(diagram.getStatements());
+        writer.out.flush();
+    }
+
+    /**
+     * Reads a diagram from a stream.
+     *
+     * @param in The stream the diagram is read from, which is not closed.
+     * @return The diagram.
+     * @throws IOException If the stream cannot be read or does not contain a diagram
+     *                     in a supported version of the format, or the diagram is corrupt.
+     */
+    public static PUMLDiagram read(InputStream in) throws IOException {
+        Reader reader = new Reader(new DataInputStream(in));
+        try {
+            if (reader.in.readInt() != MAGIC) {
+                throw new IOException("Not a PUML model file");
+            }
+            int version = reader.in.readInt();
+            if (version != VERSION) {
+                throw new IOException(String.format("Unsupported PUML model file version %d", version));
+            }
+            PUMLDiagram diagram = new PUMLDiagram();
+            int count = reader.count();
+            for (int i = 0; i < count; i++) {
+                diagram.add(reader.statement());
+            }
+            return diagram;
+        } catch (EOFException e) {
+            throw new IOException("Corrupt model file: it ends before the diagram does", e);
+        }
+    }
+
+    private static class Writer {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        private Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void statements(List<PUMLStatement> statements) throws IOException {
+            count(statements.size());
+            for (PUMLStatement statement : statements) {
+                statement(statement);
+            }
+        }
+
+        private void statement(PUMLStatement statement) throws IOException {
+            if (statement instanceof PUMInvoke invoke) {
+                out.writeByte(INVOKE);
+                string(invoke.getCaller());
+                string(invoke.getReceiver());
+                string(invoke.getMethod());
+                count(invoke.getParams().size());
+                for (String param : invoke.getParams()) {
+                    string(param);
+                }
+                statements(invoke.getBody());
+            } else if (statement instanceof PUMLIf ifThen) {
+                out.writeByte(IF);
+                string(ifThen.getCondition());
+                statements(ifThen.getBody());
+                count(ifThen.getElseBranches().size());
+                for (PUMLGroup branch : ifThen.getElseBranches()) {
+                    statement(branch);
+                }
+            } else if (statement instanceof PUMLoop loop) {
+                out.writeByte(LOOP);
+                string(loop.getType());
+                string(loop.getCondition());
+                statements(loop.getBody());
+            } else if (statement instanceof PUMLGroup group) {
+                out.writeByte(GROUP);
+                string(group.getLabel());
+                statements(group.getBody());
+            } else if (statement instanceof PUMLNote note) {
+                out.writeByte(NOTE);
+                string(note.getParticipant());
+                string(note.getText());
+            } else if (statement instanceof PUMLRef ref) {
+                out.writeByte(REF);
+                string(ref.getParticipant());
+                string(ref.getLabel());
+            } else if (statement instanceof PUMLEmpty) {
+                out.writeByte(EMPTY);
+            } else {
+                throw new IOException(String.format("Cannot serialize %s", statement.getClass().getName()));
+            }
+        }
+
+        /**
+         * Writes a string: 0 for null, 1 followed by the UTF-8 bytes the first time
+         * a string is met, or its index plus 2 afterwards.
+         */
+        private void string(String value) throws IOException {
+            if (value == null) {
+                count(0);
+                return;
+            }
+            Integer index = strings.get(value);
+            if (index != null) {
+                count(index + 2);
+                return;
+            }
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            count(1);
+            count(bytes.length);
+            out.write(bytes);
+        }
+
+        /**
+         * Writes a non-negative number in 7 bit groups, so small numbers take a single byte.
+         */
+        private void count(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        private PUMLStatement statement() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case INVOKE -> {
+                    String caller = string();
+                    String receiver = string();
+                    String method = string();
+                    int count = count();
+                    List<String> params = new ArrayList<>();
+                    for (int i = 0; i < count; i++) {
+                        params.add(string());
+                    }
+                    PUMInvoke invoke = new PUMInvoke(caller, receiver, method, params);
+                    body(invoke, invoke::add);
+                    return invoke;
+                }
+                case IF -> {
+                    PUMLIf ifThen = new PUMLIf(string());
+                    body(ifThen, ifThen.getBody()::add);
+                    int branches = count();
+                    for (int i = 0; i < branches; i++) {
+                        if (!(statement() instanceof PUMLGroup branch)) {
+                            throw new IOException("Invalid IF branch");
+                        }
+                        branch.setParent(ifThen);
+                        ifThen.getElseBranches().add(branch);
+                    }
+                    return ifThen;
+                }
+                case LOOP -> {
+                    String type = string();
+                    PUMLoop loop = new PUMLoop(type, string());
+                    body(loop, loop.getBody()::add);
+                    return loop;
+                }
+                case GROUP -> {
+                    PUMLGroup group = new PUMLGroup(string());
+                    body(group, group.getBody()::add);
+                    return group;
+                }
+                case NOTE -> {
+                    String participant = string();
+                    return new PUMLNote(participant, string());
+                }
+                case REF -> {
+                    String participant = string();
+                    return new PUMLRef(participant, string());
+                }
+                case EMPTY -> {
+                    return new PUMLEmpty();
+                }
+                default -> throw new IOException(String.format("Invalid statement tag %d", tag));
+            }
+        }
+
+        private void body(PUMLStatement owner, Consumer<PUMLStatement> body) throws IOException {
+            int count = count();
+            for (int i = 0; i < count; i++) {
+                PUMLStatement statement = statement();
+                statement.setParent(owner);
+                body.accept(statement);
+            }
+        }
+
+        private String string() throws IOException {
+            int code = count();
+            if (code == 0) {
+                return null;
+            }
+            if (code > 1) {
+                if (code - 2 >= strings.size()) {
+                    throw new IOException(String.format("Invalid string reference %d", code - 2));
+                }
+                return strings.get(code - 2);
+            }
+            int length = count();
+            byte[] bytes = in.readNBytes(length);
+            if (bytes.length != length) {
+                throw new EOFException();
+            }
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+
+        /**
+         * Reads a number written by {@link Writer#count}, which is never negative.
+         */
+        private int count() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        throw new IOException(String.format("Corrupt model file: invalid count %d", value));
+                    }
+                    return value;
+                }
+            }
+            throw new IOException("Invalid number");
+        }
+    }
+}
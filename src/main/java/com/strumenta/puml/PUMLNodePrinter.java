@@ -1,20 +1,24 @@
 package com.strumenta.puml;
 
+import java.io.IOException;
+
 /**
  * Functional interface for printing PUML nodes.
  * This interface is used for implementing custom printers that
- * can convert PUMLStatement objects into their string representations.
+ * can write PUMLStatement objects to an output as their string representations.
  */
 @FunctionalInterface
 public interface PUMLNodePrinter {
 
     /**
-     * Converts a given PUMLStatement into a string representation.
+     * Writes a given PUMLStatement to the output as a string representation.
      * Implementations of this method should provide a specific format
-     * for the given PUMLStatement suitable for use in PlantUML diagrams.
+     * for the given PUMLStatement suitable for use in PlantUML diagrams,
+     * terminating each line they write with a newline.
      *
      * @param statement The PUMLStatement to be printed.
-     * @return A String representation of the PUMLStatement.
+     * @param out The destination of the string representation.
+     * @throws IOException If writing to the output fails.
      */
-    String print(PUMLStatement statement);
+    void print(PUMLStatement statement, Appendable out) throws IOException;
 }
\ No newline at end of file
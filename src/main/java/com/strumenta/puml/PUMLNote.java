@@ -0,0 +1,42 @@
+package com.strumenta.puml;
+
+/**
+ * Represents a note in a PlantUML diagram.
+ * Notes are used to mark places where the diagram deliberately stops
+ * describing the behavior of the program, for example a recursive call
+ * that is not expanded again.
+ */
+public class PUMLNote extends PUMLStatement {
+
+    private final String participant;
+    private final String text;
+
+    /**
+     * Constructs a new PUMLNote drawn over the given participant.
+     *
+     * @param participant the participant the note is drawn over
+     * @param text        the text of the note
+     */
+    public PUMLNote(String participant, String text) {
+        this.participant = participant;
+        this.text = text;
+    }
+
+    /**
+     * Retrieves the participant the note is drawn over.
+     *
+     * @return the participant of the note
+     */
+    public String getParticipant() {
+        return participant;
+    }
+
+    /**
+     * Retrieves the text of the note.
+     *
+     * @return the text of the note
+     */
+    public String getText() {
+        return text;
+    }
+}
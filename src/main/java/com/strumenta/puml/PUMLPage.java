@@ -0,0 +1,66 @@
+package com.strumenta.puml;
+
+/**
+ * Represents a page of a diagram split by {@link PUMLPaginator}.
+ * A page is a diagram on its own, entered by a message from a caller to a receiver:
+ * for the first page these are the client and the module of the whole diagram,
+ * for the others the invocation whose body was moved to the page.
+ */
+public class PUMLPage {
+
+    private final int number;
+    private final String caller;
+    private final String receiver;
+    private final PUMLDiagram diagram;
+
+    /**
+     * Constructs a new PUMLPage.
+     *
+     * @param number   the number of the page, starting from 1
+     * @param caller   the participant entering the page, or null for the first page
+     * @param receiver the participant entered, or null for the first page
+     * @param diagram  the statements of the page
+     */
+    public PUMLPage(int number, String caller, String receiver, PUMLDiagram diagram) {
+        this.number = number;
+        this.caller = caller;
+        this.receiver = receiver;
+        this.diagram = diagram;
+    }
+
+    /**
+     * Retrieves the number of the page.
+     *
+     * @return the number of the page, starting from 1
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * Retrieves the participant entering the page.
+     *
+     * @return the caller, or null for the first page
+     */
+    public String getCaller() {
+        return caller;
+    }
+
+    /**
+     * Retrieves the participant entered by the page.
+     *
+     * @return the receiver, or null for the first page
+     */
+    public String getReceiver() {
+        return receiver;
+    }
+
+    /**
+     * Retrieves the diagram of the page.
+     *
+     * @return the diagram holding the statements of the page
+     */
+    public PUMLDiagram getDiagram() {
+        return diagram;
+    }
+}
@@ -0,0 +1,283 @@
+package com.strumenta.puml;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits a PUML diagram that is too large to be rendered or read into pages of bounded size.
+ * The budget of a page is a maximum number of messages, counting every statement,
+ * and a maximum nesting depth of the groups, invocation bodies included.
+ * When a diagram exceeds the budget, the bodies of the invocations that do not fit
+ * are moved to pages of their own and replaced by a reference to the page, and the
+ * top level of a page continues on a new page when it is full. A group that is nested
+ * too deeply is moved to a page of its own as a whole. Only a group holding more
+ * messages than the budget without any invocation in it can exceed the budget.
+ * The diagram given is never modified: the pages are built with copies of its statements.
+ */
+public class PUMLPaginator {
+
+    private final int maxMessages;
+    private final int maxDepth;
+
+    /**
+     * Constructs a new PUMLPaginator with the given budget per page.
+     *
+     * @param maxMessages the maximum number of messages of a page
+     * @param maxDepth    the maximum nesting depth of a page
+     */
+    public PUMLPaginator(int maxMessages, int maxDepth) {
+        if (maxMessages < 2 || maxDepth < 1) {
+            throw new IllegalArgumentException("A page must allow at least 2 messages and 1 level of nesting");
+        }
+        this.maxMessages = maxMessages;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Splits a diagram into pages.
+     *
+     * @param diagram the diagram to split
+     * @return the pages, the first one being the entry point; a diagram within the
+     * budget gives a single page holding the diagram itself
+     */
+    public List<PUMLPage> paginate(PUMLDiagram diagram) {
+        Split split = new Split();
+        int messages = 0;
+        int depth = 0;
+        for (PUMLStatement statement : diagram.getStatements()) {
+            messages += split.size(statement);
+            depth = Math.max(depth, split.depth(statement));
+        }
+        if (messages <= maxMessages && depth <= maxDepth) {
+            return List.of(new PUMLPage(1, null, null, diagram));
+        }
+        split.fill(diagram.getStatements(), split.newSheet(null, null), participant(diagram.getStatements()));
+        return split.pages();
+    }
+
+    /**
+     * Finds the participant the top level of a diagram is drawn from.
+     */
+    private static String participant(List<PUMLStatement> statements) {
+        for (PUMLStatement statement : statements) {
+            if (statement instanceof PUMInvoke s) {
+                return s.getCaller();
+            }
+            if (statement instanceof PUMLNote s) {
+                return s.getParticipant();
+            }
+            if (statement instanceof PUMLRef s) {
+                return s.getParticipant();
+            }
+        }
+        return null;
+    }
+
+    private static List<PUMLStatement> body(PUMLStatement statement) {
+        if (statement instanceof PUMInvoke s) {
+            return s.getBody();
+        }
+        if (statement instanceof PUMLIf s) {
+            return s.getBody();
+        }
+        if (statement instanceof PUMLoop s) {
+            return s.getBody();
+        }
+        if (statement instanceof PUMLGroup s) {
+            return s.getBody();
+        }
+        return List.of();
+    }
+
+    /**
+     * Copies a statement without its body.
+     */
+    private static PUMLStatement shell(PUMLStatement statement) {
+        if (statement instanceof PUMInvoke s) {
+            return new PUMInvoke(s.getCaller(), s.getReceiver(), s.getMethod(), s.getParams());
+        }
+        if (statement instanceof PUMLIf s) {
+            return new PUMLIf(s.getCondition());
+        }
+        if (statement instanceof PUMLoop s) {
+            return new PUMLoop(s.getType(), s.getCondition());
+        }
+        if (statement instanceof PUMLGroup s) {
+            return new PUMLGroup(s.getLabel());
+        }
+        if (statement instanceof PUMLNote s) {
+            return new PUMLNote(s.getParticipant(), s.getText());
+        }
+        if (statement instanceof PUMLRef s) {
+            return new PUMLRef(s.getParticipant(), s.getLabel());
+        }
+        return new PUMLEmpty();
+    }
+
+    private static PUMLStatement copy(PUMLStatement statement) {
+        PUMLStatement copy = shell(statement);
+        if (copy instanceof PUMInvoke invoke) {
+            for (PUMLStatement child : body(statement)) {
+                invoke.add(copy(child));
+            }
+        } else {
+            List<PUMLStatement> body = body(copy);
+            for (PUMLStatement child : body(statement)) {
+                body.add(copy(child));
+            }
+        }
+        if (statement instanceof PUMLIf s) {
+            for (PUMLGroup branch : s.getElseBranches()) {
+                ((PUMLIf) copy).getElseBranches().add((PUMLGroup) copy(branch));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Retrieves the statements nested in a statement: its body and, for an IF, the bodies of its other branches.
+     */
+    private static List<PUMLStatement> nested(PUMLStatement statement) {
+        if (statement instanceof PUMLIf s && !s.getElseBranches().isEmpty()) {
+            List<PUMLStatement> nested = new ArrayList<>(s.getBody());
+            for (PUMLGroup branch : s.getElseBranches()) {
+                nested.addAll(branch.getBody());
+            }
+            return nested;
+        }
+        return body(statement);
+    }
+
+    private static String describe(PUMLStatement statement) {
+        if (statement instanceof PUMInvoke s) {
+            return s.getReceiver().equals(s.getMethod()) ? s.getReceiver() : s.getReceiver() + " " + s.getMethod();
+        }
+        if (statement instanceof PUMLIf s) {
+            return "IF " + s.getCondition();
+        }
+        if (statement instanceof PUMLoop s) {
+            return "loop " + s.getType() + " " + s.getCondition();
+        }
+        if (statement instanceof PUMLGroup s) {
+            return s.getLabel();
+        }
+        return "";
+    }
+
+    /**
+     * A page being filled, with the number of messages it already holds.
+     */
+    private static class Sheet {
+        private final PUMLPage page;
+        private int used;
+
+        private Sheet(PUMLPage page) {
+            this.page = page;
+        }
+    }
+
+    /**
+     * The state of the split of one diagram. The sizes and depths of the statements are
+     * cached by identity, as the same subtree can appear several times in a diagram.
+     */
+    private class Split {
+        private final Map<PUMLStatement, Integer> sizes = new IdentityHashMap<>();
+        private final Map<PUMLStatement, Integer> depths = new IdentityHashMap<>();
+        private final List<PUMLPage> pages = new ArrayList<>();
+
+        private int size(PUMLStatement statement) {
+            Integer size = sizes.get(statement);
+            if (size == null) {
+                size = 1;
+                for (PUMLStatement child : nested(statement)) {
+                    size += size(child);
+                }
+                sizes.put(statement, size);
+            }
+            return size;
+        }
+
+        private int depth(PUMLStatement statement) {
+            Integer depth = depths.get(statement);
+            if (depth == null) {
+                List<PUMLStatement> body = nested(statement);
+                depth = 0;
+                for (PUMLStatement child : body) {
+                    depth = Math.max(depth, depth(child));
+                }
+                depth += body.isEmpty() ? 0 : 1;
+                depths.put(statement, depth);
+            }
+            return depth;
+        }
+
+        private Sheet newSheet(String caller, String receiver) {
+            PUMLPage page = new PUMLPage(pages.size() + 1, caller, receiver, new PUMLDiagram());
+            pages.add(page);
+            return new Sheet(page);
+        }
+
+        private List<PUMLPage> pages() {
+            return pages;
+        }
+
+        /**
+         * Fills a page with the top level statements of a diagram or of a moved body,
+         * continuing on new pages when the page is full.
+         */
+        private void fill(List<PUMLStatement> statements, Sheet sheet, String participant) {
+            List<PUMLStatement> target = new ArrayList<>();
+            for (PUMLStatement statement : statements) {
+                if (sheet.used > 0 && sheet.used + size(statement) > maxMessages) {
+                    Sheet next = newSheet(sheet.page.getCaller(), sheet.page.getReceiver());
+                    if (participant != null) {
+                        target.add(new PUMLRef(participant, String.format("continued on page %d", next.page.getNumber())));
+                    }
+                    target.forEach(sheet.page.getDiagram()::add);
+                    target = new ArrayList<>();
+                    sheet = next;
+                }
+                emit(statement, target, sheet, 0, participant);
+            }
+            target.forEach(sheet.page.getDiagram()::add);
+        }
+
+        private void emit(PUMLStatement statement, List<PUMLStatement> target, Sheet sheet, int depth, String participant) {
+            int size = size(statement);
+            boolean fits = sheet.used + size <= maxMessages && depth + depth(statement) <= maxDepth;
+            if (fits || nested(statement).isEmpty()) {
+                target.add(copy(statement));
+                sheet.used += size;
+            } else if (statement instanceof PUMInvoke s) {
+                target.add(shell(s));
+                Sheet page = newSheet(s.getCaller(), s.getReceiver());
+                target.add(new PUMLRef(s.getReceiver(), String.format("%s, see page %d", describe(s), page.page.getNumber())));
+                sheet.used += 2;
+                fill(s.getBody(), page, s.getReceiver());
+            } else if (depth < maxDepth || participant == null) {
+                PUMLStatement group = shell(statement);
+                target.add(group);
+                sheet.used += 1;
+                for (PUMLStatement child : body(statement)) {
+                    emit(child, body(group), sheet, depth + 1, participant);
+                }
+                if (statement instanceof PUMLIf s) {
+                    for (PUMLGroup branch : s.getElseBranches()) {
+                        PUMLGroup copy = new PUMLGroup(branch.getLabel());
+                        ((PUMLIf) group).getElseBranches().add(copy);
+                        for (PUMLStatement child : branch.getBody()) {
+                            emit(child, copy.getBody(), sheet, depth + 1, participant);
+                        }
+                    }
+                }
+            } else {
+                Sheet page = newSheet(participant, participant);
+                target.add(new PUMLRef(participant, String.format("%s, see page %d", describe(statement), page.page.getNumber())));
+                sheet.used += 1;
+                fill(List.of(statement), page, participant);
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.strumenta.puml;
+
+/**
+ * Represents a reference in a PlantUML diagram.
+ * A reference stands for an interaction that is described elsewhere in the
+ * diagram, and is drawn as a {@code ref over} frame on the given participant
+ * instead of repeating the interaction itself.
+ */
+public class PUMLRef extends PUMLStatement {
+
+    private final String participant;
+    private final String label;
+
+    /**
+     * Constructs a new PUMLRef drawn over the given participant.
+     *
+     * @param participant the participant the reference is drawn over
+     * @param label       the text of the reference
+     */
+    public PUMLRef(String participant, String label) {
+        this.participant = participant;
+        this.label = label;
+    }
+
+    /**
+     * Retrieves the participant the reference is drawn over.
+     *
+     * @return the participant of the reference
+     */
+    public String getParticipant() {
+        return participant;
+    }
+
+    /**
+     * Retrieves the text of the reference.
+     *
+     * @return the label of the reference
+     */
+    public String getLabel() {
+        return label;
+    }
+}
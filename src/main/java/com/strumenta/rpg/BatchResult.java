@@ -0,0 +1,118 @@
+package com.strumenta.rpg;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the outcome of a batch run.
+ * Successes and failures are recorded as the workers complete, so all
+ * the methods of this class are safe to call from multiple threads.
+ */
+public class BatchResult {
+    private final List<File> successes = new ArrayList<>();
+    private final List<File> cached = new ArrayList<>();
+    private final Map<File, Integer> partials = new LinkedHashMap<>();
+    private final Map<File, String> failures = new LinkedHashMap<>();
+
+    /**
+     * Records a member that was converted successfully.
+     *
+     * @param inputFile The converted source member.
+     */
+    public synchronized void success(File inputFile) {
+        successes.add(inputFile);
+    }
+
+    /**
+     * Records a member that was converted in tolerant mode despite parsing errors.
+     * Partial members also count as successes.
+     *
+     * @param inputFile The converted source member.
+     * @param issues    The number of parsing issues of the member.
+     */
+    public synchronized void partial(File inputFile, int issues) {
+        successes.add(inputFile);
+        partials.put(inputFile, issues);
+    }
+
+    /**
+     * Records a member that did not change since the previous run, whose diagram was reused.
+     *
+     * @param inputFile The unchanged source member.
+     */
+    public synchronized void cached(File inputFile) {
+        cached.add(inputFile);
+    }
+
+    /**
+     * Records a member whose conversion failed.
+     *
+     * @param inputFile The source member that could not be converted.
+     * @param message   The reason of the failure.
+     */
+    public synchronized void failure(File inputFile, String message) {
+        failures.put(inputFile, message);
+    }
+
+    /**
+     * Retrieves the members that were converted successfully.
+     *
+     * @return An unmodifiable list of the converted members.
+     */
+    public synchronized List<File> getSuccesses() {
+        return Collections.unmodifiableList(new ArrayList<>(successes));
+    }
+
+    /**
+     * Retrieves the members converted despite parsing errors, with their number of issues.
+     *
+     * @return An unmodifiable map from the partial members to their number of issues.
+     */
+    public synchronized Map<File, Integer> getPartials() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(partials));
+    }
+
+    /**
+     * Retrieves the members whose diagram was reused from the cache.
+     *
+     * @return An unmodifiable list of the unchanged members.
+     */
+    public synchronized List<File> getCached() {
+        return Collections.unmodifiableList(new ArrayList<>(cached));
+    }
+
+    /**
+     * Retrieves the members whose conversion failed, with the reason of each failure.
+     *
+     * @return An unmodifiable map from the failed members to their error messages.
+     */
+    public synchronized Map<File, String> getFailures() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    /**
+     * Prints a summary of the run: the totals followed by one line per failure.
+     * Members reused from the cache are reported as cache hits, the converted
+     * and the failed ones as cache misses.
+     *
+     * @param out The stream the summary is printed to.
+     */
+    public synchronized void printSummary(PrintStream out) {
+        out.printf("Processed %d members: %d succeeded, %d unchanged, %d failed%n",
+                successes.size() + cached.size() + failures.size(), successes.size(), cached.size(), failures.size());
+        if (!partials.isEmpty()) {
+            out.printf("%d members were converted partially, see their .issues.json files%n", partials.size());
+        }
+        if (!cached.isEmpty()) {
+            out.printf("Cache: %d hits, %d misses%n", cached.size(), successes.size() + failures.size());
+        }
+        for (Map.Entry<File, String> failure : failures.entrySet()) {
+            out.printf("  FAILED %s: %s%n", failure.getKey().getPath(), failure.getValue());
+        }
+    }
+}
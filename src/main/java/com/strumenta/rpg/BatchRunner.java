@@ -0,0 +1,189 @@
+package com.strumenta.rpg;
+
+import com.strumenta.rpg.transform.ModelToSource;
+import com.strumenta.rpg.transform.TransformContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a Pipeline over many source members using a pool of worker threads.
+ * The same Pipeline instance is shared by all the workers: each member gets
+ * its own TransformContext, and the output of every member is written to the
+ * same output directory.
+ */
+public class BatchRunner {
+    private final Pipeline pipeline;
+    private final int threads;
+    private DiagramCache cache;
+    private Runnable warmUp;
+
+    /**
+     * Constructs a BatchRunner that runs the given pipeline on a pool of workers.
+     *
+     * @param pipeline The pipeline to run for each member.
+     * @param threads  The number of worker threads.
+     */
+    public BatchRunner(Pipeline pipeline, int threads) {
+        this.pipeline = pipeline;
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the cache used to skip the members that did not change since the previous run.
+     * The index of the cache is saved at the end of every run.
+     *
+     * @param cache The diagram cache, or null to convert every member.
+     */
+    public void setCache(DiagramCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets the warm-up every worker runs on its own thread before converting its first
+     * member, such as {@link com.strumenta.rpg.transform.SourceToModel#warmUp}, which
+     * only warms up the parsers of the thread running it.
+     *
+     * @param warmUp The warm-up of the workers, or null for none.
+     */
+    public void setWarmUp(Runnable warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * Runs the pipeline on every input file and waits for all of them to complete.
+     * A failing member does not stop the run: its error is recorded in the result.
+     *
+     * @param inputFiles The source members to convert.
+     * @param outputDir  The directory where the generated files are written.
+     * @return The successes and failures of the run.
+     * @throws InterruptedException If the run is interrupted while waiting for the workers.
+     * @throws IOException If the index of the cache cannot be saved.
+     */
+    public BatchResult run(List<File> inputFiles, File outputDir) throws InterruptedException, IOException {
+        BatchResult result = new BatchResult();
+        ExecutorService executor = WorkerThreads.newPool(threads, warmUp);
+        try {
+            for (File inputFile : inputFiles) {
+                executor.submit(() -> process(inputFile, outputDir, result));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        if (cache != null) {
+            cache.save();
+        }
+        return result;
+    }
+
+    /**
+     * Converts a single member, unless the cache tells it did not change, and records the outcome.
+     */
+    private void process(File inputFile, File outputDir, BatchResult result) {
+        try {
+            String key = null;
+            if (cache != null) {
+                key = cache.key(inputFile);
+                if (cache.isFresh(inputFile, outputDir, key)) {
+                    result.cached(inputFile);
+                    return;
+                }
+                cache.invalidate(inputFile);
+            }
+            TransformContext context = new TransformContext(inputFile, outputDir);
+            pipeline.run(context);
+            if (cache != null) {
+                cache.store(inputFile, key);
+            }
+            if (context.getIssues().isEmpty()) {
+                result.success(inputFile);
+            } else {
+                result.partial(inputFile, context.getIssues().size());
+            }
+        } catch (Exception e) {
+            result.failure(inputFile, String.valueOf(e.getMessage()));
+        } catch (StackOverflowError e) {
+            result.failure(inputFile, e.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Tells whether an input specification refers to many members,
+     * that is, whether it is a directory or a glob pattern.
+     *
+     * @param input The value of the input option.
+     * @return True if the input must be processed in batch mode.
+     */
+    public static boolean isBatchInput(String input) {
+        return isGlob(input) || new File(input).isDirectory();
+    }
+
+    /**
+     * Collects the source members matching an input specification.
+     * A directory selects all the regular files it contains; a glob such as
+     * {@code qrpglesrc/*.rpgle} or {@code src/**.rpgle} selects the matching files
+     * below the directory that precedes the first wildcard.
+     * Two members with the same name, ignoring case, would write the same output
+     * files, so they are rejected.
+     *
+     * @param input A directory or a glob pattern.
+     * @return The matching files, sorted by path.
+     * @throws IOException If the directory cannot be read, or if two members have the same name.
+     */
+    public static List<File> collectInputs(String input) throws IOException {
+        Path root;
+        PathMatcher matcher;
+        int maxDepth;
+        if (isGlob(input)) {
+            Path pattern = Paths.get(input);
+            int wildcard = 0;
+            while (wildcard < pattern.getNameCount() && !isGlob(pattern.getName(wildcard).toString())) {
+                wildcard++;
+            }
+            root = wildcard == 0 ? Paths.get(pattern.isAbsolute() ? pattern.getRoot().toString() : ".")
+                    : (pattern.isAbsolute() ? pattern.getRoot().resolve(pattern.subpath(0, wildcard)) : pattern.subpath(0, wildcard));
+            String glob = pattern.subpath(wildcard, pattern.getNameCount()).toString().replace(File.separatorChar, '/');
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            maxDepth = glob.contains("**") ? Integer.MAX_VALUE : pattern.getNameCount() - wildcard;
+        } else {
+            root = Paths.get(input);
+            matcher = path -> true;
+            maxDepth = 1;
+        }
+        Path base = root;
+        List<File> inputs;
+        try (Stream<Path> paths = Files.walk(root, maxDepth)) {
+            inputs = paths.filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(base.relativize(path)))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+        Map<String, File> names = new HashMap<>();
+        for (File inputFile : inputs) {
+            File other = names.putIfAbsent(ModelToSource.memberName(inputFile).toUpperCase(Locale.ROOT), inputFile);
+            if (other != null) {
+                throw new IOException(String.format("Members %s and %s would write the same output files", other, inputFile));
+            }
+        }
+        return inputs;
+    }
+
+    private static boolean isGlob(String input) {
+        return input.chars().anyMatch(c -> c == '*' || c == '?' || c == '[' || c == '{');
+    }
+}
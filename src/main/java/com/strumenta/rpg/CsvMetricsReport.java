@@ -0,0 +1,91 @@
+package com.strumenta.rpg;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A PipelineListener that writes the metrics of every stage to a CSV file,
+ * one line per file and stage, and keeps per-file totals to report the
+ * slowest members of a run.
+ */
+public class CsvMetricsReport implements PipelineListener, Closeable, Flushable {
+    private final BufferedWriter writer;
+    private final Map<File, Long> totals = new HashMap<>();
+    private final Map<File, StageMetrics> slowestStages = new HashMap<>();
+
+    /**
+     * Constructs a CsvMetricsReport writing to the given file, and writes the header line.
+     *
+     * @param path The CSV file to write.
+     * @throws IOException If the file cannot be created.
+     */
+    public CsvMetricsReport(Path path) throws IOException {
+        writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        writer.write("file,stage,wall_ms,allocated_bytes,nodes");
+        writer.newLine();
+    }
+
+    @Override
+    public synchronized void stageCompleted(StageMetrics metrics) {
+        try {
+            writer.write(String.format(Locale.ROOT, "\"%s\",%s,%.3f,%d,%d", metrics.getInputFile().getPath().replace("\"", "\"\""),
+                    metrics.getStage(), metrics.getWallNanos() / 1e6, metrics.getAllocatedBytes(), metrics.getNodes()));
+            writer.newLine();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        totals.merge(metrics.getInputFile(), metrics.getWallNanos(), Long::sum);
+        StageMetrics slowest = slowestStages.get(metrics.getInputFile());
+        if (slowest == null || slowest.getWallNanos() < metrics.getWallNanos()) {
+            slowestStages.put(metrics.getInputFile(), metrics);
+        }
+    }
+
+    /**
+     * Prints the members that took the longest, each with its slowest stage.
+     *
+     * @param out   The stream the report is printed to.
+     * @param limit The maximum number of members to print.
+     */
+    public synchronized void printSlowest(PrintStream out, int limit) {
+        List<File> slowest = totals.keySet().stream()
+                .sorted(Comparator.comparing(totals::get).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+        for (File file : slowest) {
+            StageMetrics stage = slowestStages.get(file);
+            out.printf("  %s: %.1f ms (slowest stage %s: %.1f ms)%n", file.getPath(), totals.get(file) / 1e6,
+                    stage.getStage(), stage.getWallNanos() / 1e6);
+        }
+    }
+
+    /**
+     * Writes the lines buffered so far to the file, so that the report of a long-running
+     * watch can be read between two runs.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
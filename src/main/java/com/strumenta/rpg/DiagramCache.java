@@ -0,0 +1,215 @@
+package com.strumenta.rpg;
+
+import com.strumenta.puml.DiagramGenerator;
+import com.strumenta.puml.PUMLCodeGenerator;
+import com.strumenta.rpg.transform.ArchiveSink;
+import com.strumenta.rpg.transform.ModelToImage;
+import com.strumenta.rpg.transform.ModelToSource;
+import net.sourceforge.plantuml.FileFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent cache of the generated diagrams, used to skip the members that did not change.
+ * Each member is keyed by a SHA-256 hash of its source, of the DDS and copybooks it depends on,
+ * of the version of the tool and of the generator options. When the key of a member matches
+ * the one recorded by the previous run, and its diagram still exists, the whole pipeline
+ * can be skipped and the existing diagram reused.
+ * The index is a properties file mapping the absolute path of each member to its key.
+ * All the methods can be called concurrently by the workers of a batch run.
+ */
+public class DiagramCache {
+
+    /**
+     * The hash of a dependency, with the modification time and size of the file it was computed from.
+     */
+    private static final class DependencyHash {
+        private final FileTime modified;
+        private final long size;
+        private final String hash;
+
+        private DependencyHash(FileTime modified, long size, String hash) {
+            this.modified = modified;
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+
+    private final Path indexFile;
+    private final SourceDependencies dependencies;
+    private final String fingerprint;
+    private final Map<String, String> index = new ConcurrentHashMap<>();
+    private final Map<Path, DependencyHash> dependencyHashes = new ConcurrentHashMap<>();
+    private FileFormat imageFormat;
+    private ArchiveSink archive;
+    private List<DiagramGenerator> formats = List.of(new PUMLCodeGenerator());
+
+    /**
+     * Constructs a DiagramCache, loading the index of the previous run if it exists.
+     *
+     * @param indexFile    The file the index is stored in.
+     * @param dependencies The resolver of the DDS and copybooks of the members.
+     * @param options      A description of the generator options that affect the output.
+     * @throws IOException If the existing index cannot be read.
+     */
+    public DiagramCache(Path indexFile, SourceDependencies dependencies, String options) throws IOException {
+        this.indexFile = indexFile;
+        this.dependencies = dependencies;
+        this.fingerprint = toolVersion() + "\n" + options;
+        if (Files.isRegularFile(indexFile)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(indexFile)) {
+                properties.load(in);
+            }
+            for (String member : properties.stringPropertyNames()) {
+                index.put(member, properties.getProperty(member));
+            }
+        }
+    }
+
+    /**
+     * Computes the key of a member from its current content and dependencies.
+     * The hash of a dependency is computed again when its modification time or size
+     * changed, so a cache kept across runs, as in watch mode, sees the changed copybooks.
+     *
+     * @param inputFile The source member.
+     * @return The hex encoded key of the member.
+     * @throws IOException If the member or one of its dependencies cannot be read.
+     */
+    public String key(File inputFile) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+        digest.update(Files.readAllBytes(inputFile.toPath()));
+        for (Path dependency : dependencies.of(inputFile)) {
+            BasicFileAttributes attributes = Files.readAttributes(dependency, BasicFileAttributes.class);
+            DependencyHash hash = dependencyHashes.get(dependency);
+            if (hash == null || !hash.modified.equals(attributes.lastModifiedTime()) || hash.size != attributes.size()) {
+                hash = new DependencyHash(attributes.lastModifiedTime(), attributes.size(),
+                        hex(sha256().digest(Files.readAllBytes(dependency))));
+                dependencyHashes.put(dependency, hash);
+            }
+            digest.update(dependency.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(hash.hash.getBytes(StandardCharsets.UTF_8));
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Tells whether the diagram of a member is up to date, that is, whether the member
+     * was converted with the same key and its diagram still exists.
+     *
+     * @param inputFile  The source member.
+     * @param outputFile The output file or directory of the run.
+     * @param key        The current key of the member.
+     * @return True if the conversion of the member can be skipped.
+     */
+    public boolean isFresh(File inputFile, File outputFile, String key) {
+        if (!key.equals(index.get(inputFile.getAbsolutePath()))) {
+            return false;
+        }
+        File diagramFile = ModelToSource.outputFile(inputFile, outputFile);
+        for (DiagramGenerator format : formats) {
+            File formatFile = ModelToSource.formatFile(diagramFile, format);
+            if (archive != null ? !archive.contains(formatFile.getName()) : !formatFile.isFile()) {
+                return false;
+            }
+        }
+        return imageFormat == null || ModelToImage.imageFile(diagramFile, imageFormat).isFile();
+    }
+
+    /**
+     * Declares the files the diagram of a member is written to, which must all exist
+     * for the diagram to be up to date. By default only the PlantUML code is written.
+     *
+     * @param imageFormat The format of the rendered images, or null if the diagrams are not rendered.
+     * @param formats     The generators of the formats the code of the diagrams is written in,
+     *                    empty if only the images are written.
+     */
+    public void setOutputs(FileFormat imageFormat, List<DiagramGenerator> formats) {
+        this.imageFormat = imageFormat;
+        this.formats = List.copyOf(formats);
+    }
+
+    /**
+     * Declares the archive the diagrams are written to, in which case the files of the
+     * diagram of a member must be entries of the archive rather than files on disk.
+     *
+     * @param archive The archive of the diagrams, or null if they are written to files.
+     */
+    public void setArchive(ArchiveSink archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Records the key of a member that was converted successfully.
+     *
+     * @param inputFile The source member.
+     * @param key       The key the member was converted with.
+     */
+    public void store(File inputFile, String key) {
+        index.put(inputFile.getAbsolutePath(), key);
+    }
+
+    /**
+     * Forgets a member, so that it is converted again by the next run.
+     *
+     * @param inputFile The source member.
+     */
+    public void invalidate(File inputFile) {
+        index.remove(inputFile.getAbsolutePath());
+    }
+
+    /**
+     * Writes the index to its file, replacing the previous one.
+     *
+     * @throws IOException If the index cannot be written.
+     */
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(index);
+        Path parent = indexFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "RPGtoPUML diagram cache");
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String toolVersion() {
+        String version = DiagramCache.class.getPackage().getImplementationVersion();
+        return version != null ? version : "dev";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,304 @@
+package com.strumenta.rpg;
+
+import com.strumenta.rpg.transform.ModelToModel;
+import com.strumenta.rpg.transform.SourceToModel;
+import com.strumenta.rpg.transform.SubroutineExpansion;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Serves the conversion of members to PlantUML over HTTP, on the loopback interface
+ * unless another address is set, so that an editor can regenerate the diagram of a member on every save without
+ * paying for the start of the JVM and the warm-up of the parser each time.
+ * The parsers and transformers stay loaded for the lifetime of the server, and the
+ * requests are handled by a fixed pool of threads, each keeping its own parsers.
+ * The members are converted by a {@link DiagramService} per combination of options.
+ * <p>
+ * The diagram of a member is requested at {@code /diagram}:
+ * <ul>
+ *     <li>{@code POST /diagram?name=CUS300.rpgle} with the source text as the UTF-8 body;
+ *     the name selects the parser by its extension and names the module of the diagram;</li>
+ *     <li>{@code GET /diagram?path=qrpglesrc/CUS300.rpgle} to convert a member read from disk,
+ *     the path being resolved against the root directory of the server, see {@link #setRoot}.</li>
+ * </ul>
+ * The parameters {@code subroutine-refs=true} and {@code max-depth=N} override the way
+ * subroutine calls are drawn for the request; the depth goes from 0 to the default depth
+ * of the server or {@link ModelToModel#DEFAULT_MAX_DEPTH}, whichever is larger. The reply
+ * is the PlantUML code, or the error message with status 400 for an invalid request, 403
+ * for a path outside the root directory, or for any path when the server has none, 413
+ * for a body larger than {@link #MAX_BODY_SIZE} and 422 for a member that cannot be
+ * converted. Nothing is written to disk.
+ */
+public class DiagramServer {
+
+    /**
+     * The maximum size in bytes of the source text sent in the body of a request.
+     */
+    public static final int MAX_BODY_SIZE = 1024 * 1024;
+
+    /**
+     * Creates the transformers of the RPG models for the options of the requests.
+     */
+    public interface TransformerFactory {
+        /**
+         * Creates a transformer drawing the subroutine calls in the given way.
+         *
+         * @param expansion How the calls to a subroutine are drawn.
+         * @param maxDepth  The maximum number of nested subroutine expansions.
+         * @return The configured transformer.
+         * @throws IOException If the resources of the transformer cannot be read.
+         */
+        ModelToModel create(SubroutineExpansion expansion, int maxDepth) throws IOException;
+    }
+
+    private final SourceToModel sourceToModel;
+    private final TransformerFactory factory;
+    private final SubroutineExpansion expansion;
+    private final int maxDepth;
+    private final int depthLimit;
+    private final Map<String, DiagramService> services = new HashMap<>();
+    private HttpServer server;
+    private ExecutorService executor;
+    private Runnable warmUp;
+    private Path root;
+    private InetAddress address = InetAddress.getLoopbackAddress();
+
+    /**
+     * Constructs a DiagramServer.
+     *
+     * @param sourceToModel The transformer parsing the members.
+     * @param factory       The factory of the transformers of the RPG models.
+     * @param expansion     How the calls to a subroutine are drawn when the request does not tell.
+     * @param maxDepth      The maximum number of nested subroutine expansions when the request does not tell.
+     */
+    public DiagramServer(SourceToModel sourceToModel, TransformerFactory factory, SubroutineExpansion expansion, int maxDepth) {
+        this.sourceToModel = sourceToModel;
+        this.factory = factory;
+        this.expansion = expansion;
+        this.maxDepth = maxDepth;
+        this.depthLimit = Math.max(maxDepth, ModelToModel.DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Sets the warm-up every thread handling the requests runs when it starts, such as
+     * {@link SourceToModel#warmUp}, which only warms up the parsers of its own thread.
+     *
+     * @param warmUp The warm-up of the threads, or null for none.
+     */
+    public void setWarmUp(Runnable warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * Sets the directory the members requested by path are read from. A requested path is
+     * resolved against it and rejected if it leads outside of it, symbolic links included.
+     * Without a root directory, members can only be sent in the body of the requests.
+     *
+     * @param root The root directory, or null to refuse the requests by path.
+     * @throws IOException If the directory does not exist.
+     */
+    public void setRoot(File root) throws IOException {
+        this.root = root != null ? root.toPath().toRealPath() : null;
+    }
+
+    /**
+     * Sets the address the server listens on. The default, the loopback interface, only
+     * accepts the requests of the local machine.
+     *
+     * @param address The address to listen on.
+     */
+    public void setAddress(InetAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Starts listening on the address of the server, the loopback interface by default.
+     * The server runs until {@link #stop()} is called.
+     *
+     * @param port    The port to listen on, or 0 for any free port.
+     * @param threads The number of threads handling the requests.
+     * @return The port the server listens on.
+     * @throws IOException If the server cannot listen on the port.
+     */
+    public int start(int port, int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        executor = WorkerThreads.newPool(threads, warmUp);
+        server.setExecutor(executor);
+        server.createContext("/diagram", this::handle);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server, waiting at most a second for the requests being handled.
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Converts a member given by its source text, or read from disk if the text is null.
+     *
+     * @param inputFile  The member; only its name is used when the text is given.
+     * @param source     The source text of the member, or null to read it from the file.
+     * @param expansion  How the calls to a subroutine are drawn.
+     * @param maxDepth   The maximum number of nested subroutine expansions.
+     * @return The PlantUML code of the diagram of the member.
+     * @throws Exception If the member cannot be parsed or transformed.
+     */
+    public String convert(File inputFile, String source, SubroutineExpansion expansion, int maxDepth) throws Exception {
+        CharSequence text = source != null ? source : sourceToModel.getLoader().load(inputFile.toPath());
+        return service(expansion, maxDepth).generate(inputFile.getName(), text);
+    }
+
+    /**
+     * Retrieves the service converting the members with the given options, creating it the first time.
+     * The depths of the requests are checked before, so there is at most a service per expansion and depth.
+     */
+    private synchronized DiagramService service(SubroutineExpansion expansion, int maxDepth) throws IOException {
+        String key = expansion + "/" + maxDepth;
+        DiagramService service = services.get(key);
+        if (service == null) {
+            service = new DiagramService(sourceToModel, factory.create(expansion, maxDepth), null);
+            services.put(key, service);
+        }
+        return service;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            Map<String, String> params = query(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+            File inputFile;
+            String source = null;
+            if (method.equals("POST")) {
+                String name = params.get("name");
+                if (name == null || name.isBlank()) {
+                    reply(exchange, 400, "Missing parameter 'name'");
+                    return;
+                }
+                inputFile = new File(new File(name).getName());
+                byte[] body;
+                try (InputStream in = exchange.getRequestBody()) {
+                    body = in.readNBytes(MAX_BODY_SIZE + 1);
+                }
+                if (body.length > MAX_BODY_SIZE) {
+                    reply(exchange, 413, String.format("The source text is larger than %d bytes", MAX_BODY_SIZE));
+                    return;
+                }
+                source = new String(body, StandardCharsets.UTF_8);
+            } else if (method.equals("GET")) {
+                String path = params.get("path");
+                if (path == null) {
+                    reply(exchange, 400, "Missing parameter 'path'");
+                    return;
+                }
+                if (root == null) {
+                    reply(exchange, 403, "Reading members by path is disabled: the server has no root directory");
+                    return;
+                }
+                inputFile = resolve(path);
+                if (inputFile == null) {
+                    reply(exchange, 403, String.format("Invalid parameter 'path', outside of the root directory: %s", path));
+                    return;
+                }
+                if (!inputFile.isFile()) {
+                    reply(exchange, 400, String.format("Invalid parameter 'path': %s", path));
+                    return;
+                }
+            } else {
+                reply(exchange, 405, String.format("Unsupported method %s", method));
+                return;
+            }
+            SubroutineExpansion requestExpansion = expansion;
+            if (params.containsKey("subroutine-refs")) {
+                requestExpansion = Boolean.parseBoolean(params.get("subroutine-refs"))
+                        ? SubroutineExpansion.REFERENCE : SubroutineExpansion.INLINE;
+            }
+            int requestDepth;
+            try {
+                requestDepth = params.containsKey("max-depth") ? Integer.parseInt(params.get("max-depth")) : maxDepth;
+            } catch (NumberFormatException e) {
+                requestDepth = -1;
+            }
+            if (requestDepth < 0 || requestDepth > depthLimit) {
+                reply(exchange, 400, String.format("Invalid parameter 'max-depth', expected 0 to %d: %s", depthLimit, params.get("max-depth")));
+                return;
+            }
+            String code;
+            try {
+                code = convert(inputFile, source, requestExpansion, requestDepth);
+            } catch (Exception e) {
+                reply(exchange, 422, String.valueOf(e.getMessage()));
+                return;
+            }
+            reply(exchange, 200, code);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Resolves a requested path against the root directory, following the symbolic links.
+     *
+     * @return The member, which may not exist, or null if the path leads outside of the root directory.
+     */
+    private File resolve(String path) throws IOException {
+        Path resolved;
+        try {
+            resolved = root.resolve(path).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (Files.exists(resolved)) {
+            resolved = resolved.toRealPath();
+        }
+        return resolved.startsWith(root) ? resolved.toFile() : null;
+    }
+
+    private static void reply(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Decodes the parameters of a query string; a parameter without a value is read as "true".
+     */
+    private static Map<String, String> query(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals >= 0 ? pair.substring(0, equals) : pair, StandardCharsets.UTF_8);
+            String value = equals >= 0 ? URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8) : "true";
+            params.put(name.toLowerCase(Locale.ROOT), value);
+        }
+        return params;
+    }
+}
@@ -0,0 +1,179 @@
+package com.strumenta.rpg;
+
+import com.strumenta.kolasu.model.Node;
+import com.strumenta.puml.DiagramGenerator;
+import com.strumenta.puml.PUMLCodeGenerator;
+import com.strumenta.puml.PUMLDiagram;
+import com.strumenta.puml.PUMLPaginator;
+import com.strumenta.rpg.transform.DiagramSink;
+import com.strumenta.rpg.transform.FileSink;
+import com.strumenta.rpg.transform.ModelToModel;
+import com.strumenta.rpg.transform.ModelToSource;
+import com.strumenta.rpg.transform.SourceToModel;
+import com.strumenta.rpg.transform.TransformContext;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts RPG members to PlantUML in memory, for applications using the tool as a library.
+ * The source of a member is given as text or as a stream, with the name of the member,
+ * which selects the parser by its extension and names the module of the diagram; no file
+ * is read or written. The diagram is returned as text or, split into pages with their index
+ * and the report of the parsing issues, written to a {@link DiagramSink}, such as a
+ * {@link FileSink} to write the files to a directory like the command line does.
+ * The options are those of the transformers the service is constructed with.
+ * Besides PlantUML, the diagram can be generated in the formats of other
+ * {@link DiagramGenerator}s, from a single parse of the member, see {@link #setFormats}.
+ * A DiagramService holds no per-member state, so one instance can serve many threads.
+ */
+public class DiagramService {
+    private final SourceToModel sourceToModel;
+    private final Pipeline pipeline;
+    private final PUMLPaginator paginator;
+    private final PUMLCodeGenerator generator = new PUMLCodeGenerator();
+    private volatile List<DiagramGenerator> formats = List.of(generator);
+
+    /**
+     * Constructs a DiagramService with the default options.
+     */
+    public DiagramService() {
+        this(new SourceToModel(), new ModelToModel(), null);
+    }
+
+    /**
+     * Constructs a DiagramService converting the members with the given transformers.
+     *
+     * @param sourceToModel The transformer parsing the members.
+     * @param modelToModel  The transformer of the RPG models into diagrams.
+     * @param paginator     The paginator splitting the diagrams written to a sink, or null
+     *                      to write each diagram as a single page.
+     */
+    public DiagramService(SourceToModel sourceToModel, ModelToModel modelToModel, PUMLPaginator paginator) {
+        this.sourceToModel = sourceToModel;
+        this.pipeline = new Pipeline(sourceToModel, modelToModel);
+        this.paginator = paginator;
+    }
+
+    /**
+     * Sets the formats the diagrams are generated in by {@link #generateFormats} and
+     * written to the sinks in. By default only the PlantUML code is generated.
+     * The formats can be changed while other threads generate diagrams: each conversion
+     * uses the formats set when it started.
+     *
+     * @param formats The generators of the formats, at least one.
+     */
+    public void setFormats(List<DiagramGenerator> formats) {
+        if (formats.isEmpty()) {
+            throw new IllegalArgumentException("At least one diagram format is required");
+        }
+        this.formats = List.copyOf(formats);
+    }
+
+    /**
+     * Builds the diagram model of a member.
+     *
+     * @param memberName The name of the member, such as CUS300.rpgle.
+     * @param source     The source text of the member.
+     * @return The diagram of the member.
+     * @throws Exception If the member cannot be parsed or transformed.
+     */
+    public PUMLDiagram diagram(String memberName, CharSequence source) throws Exception {
+        return (PUMLDiagram) pipeline.run(context(memberName, source));
+    }
+
+    /**
+     * Converts a member to the PlantUML code of its whole diagram.
+     *
+     * @param memberName The name of the member, such as CUS300.rpgle.
+     * @param source     The source text of the member.
+     * @return The PlantUML code.
+     * @throws Exception If the member cannot be parsed or transformed.
+     */
+    public String generate(String memberName, CharSequence source) throws Exception {
+        HashMap<String, String> values = new HashMap<>();
+        values.put("client", "client");
+        values.put("module", new File(memberName).getName());
+        return generator.generateToString(diagram(memberName, source), values);
+    }
+
+    /**
+     * Converts a member to the code of its whole diagram in every format, parsing it once.
+     *
+     * @param memberName The name of the member, such as CUS300.rpgle.
+     * @param source     The source text of the member.
+     * @return The code of the diagram by the extension of its format, such as .mmd, in the order of the formats.
+     * @throws Exception If the member cannot be parsed or transformed.
+     */
+    public Map<String, String> generateFormats(String memberName, CharSequence source) throws Exception {
+        HashMap<String, String> values = new HashMap<>();
+        values.put("client", "client");
+        values.put("module", new File(memberName).getName());
+        PUMLDiagram diagram = diagram(memberName, source);
+        Map<String, String> codes = new LinkedHashMap<>();
+        for (DiagramGenerator format : formats) {
+            StringBuilder code = new StringBuilder();
+            try {
+                format.generate(diagram, values, code);
+            } catch (IOException e) {
+                throw new Exception(e.getMessage());
+            }
+            codes.put(format.getExtension(), code.toString());
+        }
+        return codes;
+    }
+
+    /**
+     * Converts a member read from a stream to the PlantUML code of its whole diagram.
+     * The charset and record format of the member are detected as for the files.
+     *
+     * @param memberName The name of the member, such as CUS300.rpgle.
+     * @param source     The content of the member, read to the end but not closed.
+     * @return The PlantUML code.
+     * @throws Exception If the stream cannot be read, or the member cannot be parsed or transformed.
+     */
+    public String generate(String memberName, InputStream source) throws Exception {
+        return generate(memberName, sourceToModel.getLoader().load(source));
+    }
+
+    /**
+     * Converts a member and writes the files of its diagram to a sink: the pages in
+     * every format, the index of the pages if there are several, and the report of the
+     * parsing issues if there are any.
+     *
+     * @param memberName The name of the member, such as CUS300.rpgle.
+     * @param source     The source text of the member.
+     * @param sink       The sink the files are written to.
+     * @throws Exception If the member cannot be parsed or transformed, or the sink fails.
+     */
+    public void generate(String memberName, CharSequence source, DiagramSink sink) throws Exception {
+        TransformContext context = context(memberName, source);
+        Node model = pipeline.run(context);
+        new ModelToSource(paginator, sink, formats).transform(model, context);
+    }
+
+    /**
+     * Converts a member read from a stream and writes the files of its diagram to a sink.
+     *
+     * @param memberName The name of the member, such as CUS300.rpgle.
+     * @param source     The content of the member, read to the end but not closed.
+     * @param sink       The sink the files are written to.
+     * @throws Exception If the stream cannot be read, the member cannot be parsed or
+     *                   transformed, or the sink fails.
+     * @see #generate(String, CharSequence, DiagramSink)
+     */
+    public void generate(String memberName, InputStream source, DiagramSink sink) throws Exception {
+        generate(memberName, sourceToModel.getLoader().load(source), sink);
+    }
+
+    private static TransformContext context(String memberName, CharSequence source) {
+        TransformContext context = new TransformContext(new File(memberName), (File) null);
+        context.setSource(source);
+        return context;
+    }
+}
@@ -0,0 +1,112 @@
+package com.strumenta.rpg;
+
+import org.graalvm.nativeimage.hosted.Feature;
+import org.graalvm.nativeimage.hosted.RuntimeReflection;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * Registers the classes of the RPG and PUML models for reflection when the tool is
+ * compiled to a native image. The parser builds and links its AST with the Kotlin
+ * reflection of Kolasu, the transformation finds the children of the statements
+ * through the public getters of their classes, see ModelTree, and ModelToModel looks
+ * some statement classes up by name, so every model class must be found by name and
+ * keep its constructors, methods, inherited getters included, and fields in the
+ * image. The model packages hold hundreds of classes,
+ * generated with the parser, so they are found on the class path at build time rather
+ * than listed in a configuration file that would have to follow every parser release.
+ * The reflection outside of these packages, such as the one of the parser runtime, is
+ * recorded in the configuration files next to native-image.properties by running the
+ * samples with the tracing agent, see the nativeAgentConfig task of the build.
+ * The feature is enabled by META-INF/native-image/.../native-image.properties and is
+ * never loaded on the JVM.
+ */
+public class NativeImageFeature implements Feature {
+
+    /**
+     * The packages whose classes are used through reflection, as paths in the class path.
+     */
+    private static final List<String> PACKAGES = List.of(
+            "com/strumenta/rpgparser/model/",
+            "com/strumenta/kolasu/model/",
+            "com/strumenta/kolasu/validation/",
+            "com/strumenta/puml/");
+
+    @Override
+    public String getDescription() {
+        return "Registers the RPG and PUML model classes for reflection";
+    }
+
+    @Override
+    public void beforeAnalysis(BeforeAnalysisAccess access) {
+        register(access.findClassByName("kotlin.Metadata"));
+        for (Path entry : access.getApplicationClassPath()) {
+            try {
+                for (String name : classNames(entry)) {
+                    register(access.findClassByName(name));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(String.format("Cannot list the classes of %s", entry), e);
+            }
+        }
+    }
+
+    /**
+     * Registers a class for lookups by name, and its members for the queries and calls
+     * of the parser, of ModelTree and of ModelToModel.
+     */
+    private static void register(Class<?> type) {
+        if (type == null) {
+            return;
+        }
+        RuntimeReflection.register(type);
+        RuntimeReflection.registerAllConstructors(type);
+        RuntimeReflection.registerAllDeclaredConstructors(type);
+        RuntimeReflection.registerAllMethods(type);
+        RuntimeReflection.registerAllDeclaredMethods(type);
+        RuntimeReflection.registerAllDeclaredFields(type);
+        RuntimeReflection.register(type.getDeclaredConstructors());
+        RuntimeReflection.register(type.getDeclaredMethods());
+        RuntimeReflection.register(type.getMethods());
+        RuntimeReflection.register(type.getDeclaredFields());
+    }
+
+    /**
+     * Lists the names of the classes of the model packages in a jar or a directory of the class path.
+     */
+    private static List<String> classNames(Path entry) throws IOException {
+        if (Files.isDirectory(entry)) {
+            try (Stream<Path> files = Files.walk(entry)) {
+                return files.map(file -> entry.relativize(file).toString().replace(entry.getFileSystem().getSeparator(), "/"))
+                        .filter(NativeImageFeature::isModelClass)
+                        .map(NativeImageFeature::className)
+                        .toList();
+            }
+        }
+        if (!Files.isRegularFile(entry) || !entry.toString().endsWith(".jar")) {
+            return List.of();
+        }
+        try (JarFile jar = new JarFile(entry.toFile())) {
+            return jar.stream()
+                    .map(JarEntry::getName)
+                    .filter(NativeImageFeature::isModelClass)
+                    .map(NativeImageFeature::className)
+                    .toList();
+        }
+    }
+
+    private static boolean isModelClass(String path) {
+        return path.endsWith(".class") && PACKAGES.stream().anyMatch(path::startsWith);
+    }
+
+    private static String className(String path) {
+        return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+    }
+}
@@ -0,0 +1,97 @@
+package com.strumenta.rpg;
+
+import com.strumenta.kolasu.model.Node;
+import com.strumenta.puml.PUMInvoke;
+import com.strumenta.puml.PUMLDiagram;
+import com.strumenta.puml.PUMLGroup;
+import com.strumenta.puml.PUMLIf;
+import com.strumenta.puml.PUMLStatement;
+import com.strumenta.puml.PUMLoop;
+import com.strumenta.rpg.transform.ModelTree;
+import com.strumenta.rpgparser.model.CompilationUnit;
+import com.strumenta.rpgparser.model.Statement;
+import com.strumenta.rpgparser.model.Subroutine;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Counts the nodes of the models produced by the pipeline stages.
+ * RPG compilation units are measured in statements, including the ones nested in any
+ * statement container, such as loops, SELECT groups and ELSE branches, found through
+ * the same {@link ModelTree} walk the transformation uses; PUML diagrams are measured
+ * in PUML statements.
+ * Subroutine bodies shared between calls are counted once, so the count reflects
+ * the size of the model in memory rather than the size of the generated code.
+ * The benchmarks use the same counts to report the nodes they build.
+ */
+public final class NodeCounter {
+
+    private NodeCounter() {
+    }
+
+    /**
+     * Counts the nodes of a model.
+     *
+     * @param model The model produced by a stage.
+     * @return The number of nodes, or -1 if the model is not a known one.
+     */
+    public static int count(Node model) {
+        if (model instanceof CompilationUnit cu) {
+            Set<Node> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            int nodes = countStatements(cu.getMainStatements(), seen);
+            for (Subroutine s : cu.getSubroutines()) {
+                nodes += countStatements(s.getStatements(), seen);
+            }
+            return nodes;
+        }
+        if (model instanceof PUMLDiagram diagram) {
+            return countPUML(diagram.getStatements(), Collections.newSetFromMap(new IdentityHashMap<>()));
+        }
+        return -1;
+    }
+
+    private static int countStatements(List<Statement> statements, Set<Node> seen) {
+        int nodes = 0;
+        for (Statement s : statements) {
+            nodes += countStatements(s, seen);
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts a statement, or a node holding statements such as a WHEN block, and the
+     * statements nested in it. A node reached twice is counted once.
+     */
+    private static int countStatements(Node node, Set<Node> seen) {
+        if (!seen.add(node)) {
+            return 0;
+        }
+        int[] nodes = {node instanceof Statement ? 1 : 0};
+        ModelTree.forEachChild(node, child -> nodes[0] += countStatements(child, seen));
+        return nodes[0];
+    }
+
+    private static int countPUML(List<? extends PUMLStatement> statements, Set<PUMLStatement> seen) {
+        int nodes = 0;
+        for (PUMLStatement s : statements) {
+            if (!seen.add(s)) {
+                continue;
+            }
+            nodes++;
+            if (s instanceof PUMInvoke stmt) {
+                nodes += countPUML(stmt.getBody(), seen);
+            } else if (s instanceof PUMLIf stmt) {
+                nodes += countPUML(stmt.getBody(), seen);
+                nodes += countPUML(stmt.getElseBranches(), seen);
+            } else if (s instanceof PUMLoop stmt) {
+                nodes += countPUML(stmt.getBody(), seen);
+            } else if (s instanceof PUMLGroup stmt) {
+                nodes += countPUML(stmt.getBody(), seen);
+            }
+        }
+        return nodes;
+    }
+}
@@ -2,19 +2,31 @@ package com.strumenta.rpg;
 
 import com.strumenta.kolasu.model.Node;
 import com.strumenta.rpg.transform.ModelTransformer;
+import com.strumenta.rpg.transform.TransformContext;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Represents a pipeline of model transformations.
  * This class is responsible for managing and executing a series of ModelTransformer
  * instances in a defined sequence. Each transformer takes a model, transforms it,
  * and passes it to the next transformer in the pipeline.
+ * A Pipeline holds no per-file state, so the same instance can run many files,
+ * also concurrently from different threads.
+ * Every stage is measured: wall time, bytes allocated by the running thread and
+ * size of the produced model are reported to the registered {@link PipelineListener}s
+ * and recorded as {@link StageEvent} JFR events.
  */
 public class Pipeline {
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
     private final List<ModelTransformer> transformers;
+    private final List<PipelineListener> listeners = new CopyOnWriteArrayList<>();
 
     /**
      * Constructs a new Pipeline with the given transformers.
@@ -26,17 +38,72 @@ public class Pipeline {
         transformers = new ArrayList<>(Arrays.asList(args));
     }
 
+    /**
+     * Registers a listener that receives the metrics of every stage run by this pipeline.
+     *
+     * @param listener The listener to register.
+     */
+    public void addListener(PipelineListener listener) {
+        listeners.add(listener);
+    }
+
     /**
      * Executes the pipeline of transformations on a model.
      * Each transformer in the pipeline receives the output of the previous transformer
      * as its input. The first transformer receives a null model.
      *
+     * @param context The state of the file being processed.
+     * @return The model produced by the last transformer.
+     * @throws Exception If any transformation in the pipeline fails.
+     */
+    public Node run(TransformContext context) throws Exception {
+        return run(null, context);
+    }
+
+    /**
+     * Executes the pipeline of transformations on a model produced by a previous pipeline,
+     * such as the previous stage of a {@link StagedRunner}.
+     *
+     * @param model   The model the first transformer receives.
+     * @param context The state of the file being processed.
+     * @return The model produced by the last transformer.
      * @throws Exception If any transformation in the pipeline fails.
      */
-    public void run() throws Exception {
-        Node model = null;
+    public Node run(Node model, TransformContext context) throws Exception {
         for (ModelTransformer t : transformers) {
-            model = t.transform(model);
+            StageEvent event = new StageEvent();
+            event.begin();
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            model = t.transform(model, context);
+            long wall = System.nanoTime() - start;
+            event.end();
+            if (!listeners.isEmpty() || event.shouldCommit()) {
+                long allocatedBytes = allocated < 0 ? -1 : allocatedBytes() - allocated;
+                int nodes = NodeCounter.count(model);
+                event.file = context.getInputFile().getPath();
+                event.stage = t.getClass().getSimpleName();
+                event.allocatedBytes = allocatedBytes;
+                event.nodes = nodes;
+                event.commit();
+                StageMetrics metrics = new StageMetrics(context.getInputFile(), event.stage, wall, allocatedBytes, nodes);
+                for (PipelineListener listener : listeners) {
+                    listener.stageCompleted(metrics);
+                }
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Retrieves the bytes allocated so far by the current thread.
+     *
+     * @return The allocated bytes, or -1 if the JVM does not support allocation counters.
+     */
+    private static long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean counters && counters.isThreadAllocatedMemoryEnabled()) {
+            return counters.getCurrentThreadAllocatedBytes();
         }
+        return -1;
     }
 }
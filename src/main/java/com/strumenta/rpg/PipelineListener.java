@@ -0,0 +1,17 @@
+package com.strumenta.rpg;
+
+/**
+ * Receives the metrics of the stages run by a Pipeline.
+ * In batch mode the same listener is notified by all the worker threads,
+ * so implementations must be thread-safe.
+ */
+@FunctionalInterface
+public interface PipelineListener {
+
+    /**
+     * Called when a stage of the pipeline completes successfully for a file.
+     *
+     * @param metrics The measurements of the stage.
+     */
+    void stageCompleted(StageMetrics metrics);
+}
@@ -1,17 +1,52 @@
 package com.strumenta.rpg;
 
+import com.strumenta.puml.DiagramGenerator;
+import com.strumenta.puml.JsonCodeGenerator;
+import com.strumenta.puml.MermaidCodeGenerator;
+import com.strumenta.puml.PUMLCodeGenerator;
+import com.strumenta.puml.PUMLModelFile;
+import com.strumenta.puml.PUMLPaginator;
+import com.strumenta.rpg.transform.ArchiveSink;
+import com.strumenta.rpg.transform.FileAccessIndex;
+import com.strumenta.rpg.transform.ModelFileToModel;
+import com.strumenta.rpg.transform.ModelToImage;
 import com.strumenta.rpg.transform.ModelToModel;
+import com.strumenta.rpg.transform.ModelToModelFile;
 import com.strumenta.rpg.transform.ModelToSource;
+import com.strumenta.rpg.transform.ModelTransformer;
+import com.strumenta.rpg.transform.ProgramLibrary;
+import com.strumenta.rpg.transform.RecordFormatIndex;
+import com.strumenta.rpg.transform.SourceLoader;
+import com.strumenta.rpg.transform.SourceReader;
 import com.strumenta.rpg.transform.SourceToModel;
+import com.strumenta.rpg.transform.SubroutineExpansion;
+import com.strumenta.rpg.transform.TransformContext;
+import net.sourceforge.plantuml.FileFormat;
 import org.apache.commons.cli.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Main class for the RPG to PlantUML conversion tool.
  * This command-line application takes RPG source code as input
  * and generates a PlantUML diagram as output. The conversion
  * process involves multiple stages of transformation.
+ * When the input is a directory or a glob pattern, all the matching
+ * members are converted in a single run by a pool of worker threads.
+ * With --serve the application keeps running as a local server converting
+ * the members sent by an editor, see {@link DiagramServer}, and with --watch it
+ * keeps the diagrams of a directory up to date, see {@link SourceWatcher}.
  */
 public class RPGtoPUML {
 
@@ -25,41 +60,664 @@ public class RPGtoPUML {
 
 
     public static void main(String[] args) {
+        Options options = createOptions();
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+
+        try {
+            CommandLine cmd = parser.parse(options, args);
+            if (!run(cmd)) {
+                System.exit(1);
+            }
+        } catch (ParseException | NumberFormatException e) {
+            formatter.printHelp("RPGtoPUML", options);
+            System.exit(1);
+        } catch (Exception e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the mode selected on the command line: the queries of the file access index,
+     * the server, or the conversion of the input followed, with --watch, by the watch of its directory.
+     *
+     * @param cmd The parsed command line.
+     * @return True if all the members were converted.
+     * @throws ParseException If the options are missing or invalid.
+     * @throws Exception If the conversion cannot be run.
+     */
+    private static boolean run(CommandLine cmd) throws Exception {
+        if (cmd.hasOption("query-file") || cmd.hasOption("query-program")) {
+            if (!cmd.hasOption("crud-index")) {
+                throw new ParseException("--query-file and --query-program need --crud-index");
+            }
+            query(cmd, FileAccessIndex.load(Paths.get(cmd.getOptionValue("crud-index"))));
+            return true;
+        }
+        Settings settings = new Settings(cmd);
+        SourceToModel sourceToModel = new SourceToModel(settings.loader, settings.tolerant);
+        Runnable warmUp = settings.warmupIterations > 0 && !settings.fromModel ? () -> {
+            try {
+                sourceToModel.warmUp(settings.warmupIterations);
+            } catch (Exception e) {
+                System.out.printf("Warm-up failed: %s%n", e.getMessage());
+            }
+        } : null;
+        if (settings.serve) {
+            serve(settings, sourceToModel, warmUp);
+            return true;
+        }
+        if (warmUp != null && !BatchRunner.isBatchInput(settings.inputPath)) {
+            warmUp.run();
+        }
+        return convert(settings, sourceToModel, warmUp);
+    }
+
+    /**
+     * Starts the server converting the members sent by an editor, see {@link DiagramServer}.
+     * Every request gets its own ModelToModel, with the expansion and depth it asks for.
+     *
+     * @param settings      The settings of the command line.
+     * @param sourceToModel The parser of the members.
+     * @param warmUp        The warm-up of the request threads, or null for none.
+     * @throws IOException If the record format index cannot be built, or the server cannot be started.
+     */
+    private static void serve(Settings settings, SourceToModel sourceToModel, Runnable warmUp) throws IOException {
+        CommandLine cmd = settings.cmd;
+        RecordFormatIndex recordFormats = recordFormats(cmd);
+        DiagramServer.TransformerFactory transformers = (mode, limit) -> {
+            ModelToModel transformer = new ModelToModel(mode, limit);
+            transformer.setRecordFormatIndex(recordFormats);
+            if (cmd.hasOption("follow-calls")) {
+                transformer.setProgramLibrary(new ProgramLibrary(files(cmd, "follow-calls"), sourceToModel, transformer, settings.programCacheSize));
+            }
+            return transformer;
+        };
+        DiagramServer server = new DiagramServer(sourceToModel, transformers, settings.expansion, settings.depth);
+        server.setWarmUp(warmUp);
+        server.setRoot(cmd.hasOption("serve-root") ? new File(cmd.getOptionValue("serve-root")) : null);
+        InetAddress address = cmd.hasOption("serve-address")
+                ? InetAddress.getByName(cmd.getOptionValue("serve-address")) : InetAddress.getLoopbackAddress();
+        server.setAddress(address);
+        int port = server.start(settings.port, settings.workers);
+        System.out.printf("Serving diagrams at http://%s:%d/diagram%n", address.getHostAddress(), port);
+    }
+
+    /**
+     * Converts the input, a single member or all the matching members in batch mode, then,
+     * with --watch, keeps converting the members that change. The archive and the metrics
+     * report are closed when the run, or the watch, ends.
+     *
+     * @param settings      The settings of the command line.
+     * @param sourceToModel The parser of the members.
+     * @param warmUp        The warm-up every worker runs before its first member in batch mode, or null for none.
+     * @return True if all the members of the first run were converted.
+     * @throws Exception If the conversion cannot be run.
+     */
+    private static boolean convert(Settings settings, SourceToModel sourceToModel, Runnable warmUp) throws Exception {
+        CommandLine cmd = settings.cmd;
+        ModelToModel modelToModel = new ModelToModel(settings.expansion, settings.depth);
+        modelToModel.setRecordFormatIndex(recordFormats(cmd));
+        FileAccessIndex accessIndex = cmd.hasOption("crud-index")
+                ? FileAccessIndex.load(Paths.get(cmd.getOptionValue("crud-index"))) : null;
+        modelToModel.setFileAccessIndex(accessIndex);
+        ProgramLibrary library = cmd.hasOption("follow-calls")
+                ? new ProgramLibrary(files(cmd, "follow-calls"), sourceToModel, modelToModel, settings.programCacheSize) : null;
+        modelToModel.setProgramLibrary(library);
+        ModelToImage modelToImage = settings.imageFormat == null ? null
+                : new ModelToImage(settings.imageFormat, settings.renderers, settings.paginator);
+        if (settings.warmupIterations > 0 && modelToImage != null) {
+            modelToImage.warmUp();
+        }
+
+        // Nothing is written before the first entry, the previous archive is kept unless the run is committed
+        try (ArchiveSink archive = cmd.hasOption("archive") ? new ArchiveSink(new File(cmd.getOptionValue("archive"))) : null;
+             CsvMetricsReport report = cmd.hasOption("metrics") ? new CsvMetricsReport(Paths.get(cmd.getOptionValue("metrics"))) : null) {
+            List<ModelTransformer> stages = createStages(settings, sourceToModel, modelToModel, modelToImage, archive);
+            Pipeline pipeline = new Pipeline(stages.toArray(new ModelTransformer[0]));
+            StagedRunner stagedRunner = settings.stageThreads == null ? null
+                    : createStagedRunner(settings, stages, settings.fromModel ? null : new SourceReader(sourceToModel.getLoader()), warmUp);
+            DiagramCache cache = createCache(settings, archive);
+            if (report != null) {
+                pipeline.addListener(report);
+                if (stagedRunner != null) {
+                    stagedRunner.addListener(report);
+                }
+            }
+            boolean succeeded = run(pipeline, stagedRunner, settings.inputPath, settings.outputFile, settings.workers, cache, settings.fromModel, warmUp);
+            if (report != null && BatchRunner.isBatchInput(settings.inputPath)) {
+                System.out.println("Slowest members:");
+                report.printSlowest(System.out, 10);
+            }
+            if (archive != null) {
+                archive.commit();
+            }
+            if (accessIndex != null) {
+                accessIndex.save(Paths.get(cmd.getOptionValue("crud-index")));
+            }
+            if (settings.watch) {
+                // The metrics report stays open, and the access index is saved, after every run
+                watch(settings, pipeline, modelToModel, library, accessIndex, report);
+            }
+            return succeeded;
+        }
+    }
+
+    /**
+     * Lists the transformers of the pipeline, from the reading of the members, or of the
+     * model files, to the writing of the diagrams and the rendering of the images.
+     *
+     * @param settings      The settings of the command line.
+     * @param sourceToModel The parser of the members.
+     * @param modelToModel  The transformer of the parsed members into diagrams.
+     * @param modelToImage  The renderer of the images, or null if no image is rendered.
+     * @param archive       The archive the diagrams are written to, or null to write separate files.
+     * @return The transformers, in order.
+     */
+    private static List<ModelTransformer> createStages(Settings settings, SourceToModel sourceToModel, ModelToModel modelToModel,
+                                                       ModelToImage modelToImage, ArchiveSink archive) {
+        List<ModelTransformer> stages = new ArrayList<>();
+        if (settings.fromModel) {
+            stages.add(new ModelFileToModel());       // Read the PlantUML model (AST) saved by a previous run
+        } else {
+            stages.add(sourceToModel);                // Transform the RPG source code to the model (AST)
+            stages.add(modelToModel);                 // Transform the RPG Model (AST) to the PlantUML model (AST)
+            if (settings.cmd.hasOption("save-model")) {
+                stages.add(new ModelToModelFile());   // Save the PlantUML model (AST) next to the diagram
+            }
+        }
+        if (settings.writesSource) {
+            stages.add(new ModelToSource(settings.paginator, archive, settings.formats)); // Transform the PlantUML model (AST) to the source code of every format
+        }
+        if (modelToImage != null) {
+            modelToImage.setWritesReports(!settings.writesSource);
+            stages.add(modelToImage);                 // Render the PlantUML model (AST) to an image
+        }
+        return stages;
+    }
+
+    /**
+     * Creates the cache of the diagrams of the previous runs, keyed on the options that change the diagrams.
+     *
+     * @param settings The settings of the command line.
+     * @param archive  The archive the diagrams are written to, or null.
+     * @return The cache, or null if no cache is given.
+     * @throws IOException If the DDS directory or the index of the cache cannot be read.
+     */
+    private static DiagramCache createCache(Settings settings, ArchiveSink archive) throws IOException {
+        CommandLine cmd = settings.cmd;
+        if (!cmd.hasOption("cache")) {
+            return null;
+        }
+        DiagramCache cache = new DiagramCache(Paths.get(cmd.getOptionValue("cache")), createDependencies(cmd),
+                String.format("expansion=%s;max-depth=%d;encoding=%s;record-format=%s;tolerant=%b;follow-calls=%b;dds=%b;save-model=%b;from-model=%b;image=%s;pages=%s/%s;formats=%s", settings.expansion, settings.depth,
+                        cmd.getOptionValue("encoding", "auto"), cmd.getOptionValue("record-format", "auto"), settings.tolerant,
+                        cmd.hasOption("follow-calls"), cmd.hasOption("dds"), cmd.hasOption("save-model"), settings.fromModel, settings.imageFormat,
+                        cmd.getOptionValue("max-messages"), cmd.getOptionValue("max-nesting"),
+                        settings.formats.stream().map(DiagramGenerator::getExtension).toList()));
+        cache.setOutputs(settings.imageFormat, settings.formats);
+        cache.setArchive(archive);
+        return cache;
+    }
+
+    /**
+     * Keeps converting the members of the watched directory that change, or whose DDS, copybooks
+     * or called programs change, until the application is stopped, see {@link SourceWatcher}.
+     *
+     * @param settings     The settings of the command line.
+     * @param pipeline     The pipeline converting the members.
+     * @param modelToModel The transformer, whose record format index is rebuilt when the DDS change.
+     * @param library      The called programs, refreshed when they change, or null.
+     * @param accessIndex  The file access index saved after every run, or null.
+     * @param report       The metrics report flushed after every run, or null.
+     * @throws IOException If the directory cannot be watched.
+     */
+    private static void watch(Settings settings, Pipeline pipeline, ModelToModel modelToModel, ProgramLibrary library,
+                              FileAccessIndex accessIndex, CsvMetricsReport report) throws IOException {
+        CommandLine cmd = settings.cmd;
+        File dds = cmd.hasOption("dds") ? new File(cmd.getOptionValue("dds")) : null;
+        SourceWatcher watcher = new SourceWatcher(pipeline, settings.workers, new File(settings.inputPath), settings.outputFile, dds,
+                files(cmd, "copybooks"), files(cmd, "follow-calls"), settings.debounce);
+        watcher.addListener(new SourceWatcher.Listener() {
+            @Override
+            public void changed(Set<Path> changed) throws IOException {
+                if (dds != null && changed.stream().anyMatch(path -> isIn(path, List.of(dds)))) {
+                    modelToModel.setRecordFormatIndex(recordFormats(cmd));
+                }
+                if (library != null) {
+                    if (changed.stream().anyMatch(path -> isIn(path, files(cmd, "copybooks")))) {
+                        library.clear();
+                    }
+                    library.refresh(changed.stream().map(Path::toFile).toList());
+                }
+            }
+
+            @Override
+            public void converted(BatchResult result) throws IOException {
+                if (accessIndex != null) {
+                    accessIndex.save(Paths.get(cmd.getOptionValue("crud-index")));
+                }
+                if (report != null) {
+                    report.flush();
+                }
+            }
+        });
+        watcher.watch(System.out);
+    }
+
+    /**
+     * Defines the command-line options of the application.
+     *
+     * @return The supported options.
+     */
+    private static Options createOptions() {
         Options options = new Options();
 
-        Option input = new Option("i", "input", true, "input file path");
-        input.setRequired(true);
+        Option input = new Option("i", "input", true, "input file path, directory or glob pattern");
         options.addOption(input);
-        Option output = new Option("o", "output", true, "output file path");
-        output.setRequired(true);
+        Option output = new Option("o", "output", true, "output file path (output directory in batch mode)");
         options.addOption(output);
+        Option threads = new Option("t", "threads", true, "number of worker threads in batch mode (default: number of processors)");
+        options.addOption(threads);
+        Option refs = new Option("r", "subroutine-refs", false, "draw repeated subroutine calls as references instead of expanding them again");
+        options.addOption(refs);
+        Option maxDepth = new Option("d", "max-depth", true, String.format("maximum number of nested subroutine and program expansions (default: %d)", ModelToModel.DEFAULT_MAX_DEPTH));
+        options.addOption(maxDepth);
+        Option metrics = new Option("m", "metrics", true, "write the time, allocations and nodes of every stage to a CSV file");
+        options.addOption(metrics);
+        Option cache = new Option("c", "cache", true, "index file of the diagram cache: unchanged members are skipped in batch mode");
+        options.addOption(cache);
+        Option dds = new Option(null, "dds", true, "directory containing the DDS of the files used by the members");
+        options.addOption(dds);
+        Option ddsIndex = new Option(null, "dds-index", true, "file the record format index of the DDS is kept in between runs");
+        options.addOption(ddsIndex);
+        Option saveModel = new Option(null, "save-model", false, "save the model of each diagram next to it, so it can be rendered again with --from-model");
+        options.addOption(saveModel);
+        Option fromModel = new Option(null, "from-model", false, "render the diagrams from the model files saved by --save-model instead of parsing the members");
+        options.addOption(fromModel);
+        Option image = new Option(null, "image", true, "also render each diagram to an image, svg or png, with PlantUML in the same process");
+        options.addOption(image);
+        Option noSource = new Option(null, "no-source", false, "with --image, write only the images and not the .puml files");
+        options.addOption(noSource);
+        Option renderers = new Option(null, "renderers", true, "maximum number of diagrams rendered to images at the same time (default: the number of threads)");
+        options.addOption(renderers);
+        Option maxMessages = new Option(null, "max-messages", true, "split the diagrams into pages of at most this many messages (default with --max-nesting: 2000)");
+        options.addOption(maxMessages);
+        Option maxNesting = new Option(null, "max-nesting", true, "split the diagrams into pages nested at most this deep (default with --max-messages: 16)");
+        options.addOption(maxNesting);
+        Option diagramFormats = new Option(null, "formats", true, "formats the diagrams are written in, from a single parse: puml, mermaid and json (default: puml)");
+        diagramFormats.setArgs(Option.UNLIMITED_VALUES);
+        diagramFormats.setValueSeparator(',');
+        options.addOption(diagramFormats);
+        Option crudIndex = new Option(null, "crud-index", true, "record the files accessed by every converted program, and the operations used, in this index file");
+        options.addOption(crudIndex);
+        Option queryFile = new Option(null, "query-file", true, "list the programs of the --crud-index accessing a file, as FILE or FILE:OPERATION where the operation is an opcode or one of C, R, U, D");
+        options.addOption(queryFile);
+        Option queryProgram = new Option(null, "query-program", true, "list the files of the --crud-index accessed by a program");
+        options.addOption(queryProgram);
+        Option archive = new Option(null, "archive", true, "write the diagrams into this ZIP archive, with a manifest of the entries of every member, instead of separate files");
+        options.addOption(archive);
+        Option stagedRun = new Option(null, "stages", true, "in batch mode, read, parse, transform and write the members in overlapping stages with these threads, such as read=2,parse=4 (default: 1 each, parse: the number of threads)");
+        stagedRun.setArgs(Option.UNLIMITED_VALUES);
+        stagedRun.setValueSeparator(',');
+        options.addOption(stagedRun);
+        Option queueSize = new Option(null, "queue-size", true, "with --stages, maximum number of members waiting between two stages (default: 16)");
+        options.addOption(queueSize);
+        Option copybooks = new Option(null, "copybooks", true, "directory containing the copybooks included by the members");
+        copybooks.setArgs(Option.UNLIMITED_VALUES);
+        copybooks.setValueSeparator(',');
+        options.addOption(copybooks);
+        Option warmup = new Option("w", "warmup", true, "parse a bundled sample this many times before converting, to warm up the JIT");
+        options.addOption(warmup);
+        Option encoding = new Option("e", "encoding", true, "charset of the source members (default: detected for each member)");
+        options.addOption(encoding);
+        Option recordFormat = new Option(null, "record-format", true, "layout of the source records: plain, sequenced or auto (default: auto)");
+        options.addOption(recordFormat);
+        Option tolerant = new Option(null, "tolerant", false, "convert what can be parsed of members with errors, and write the issues to a .issues.json file");
+        options.addOption(tolerant);
+        Option followCalls = new Option(null, "follow-calls", true, "directories of the source library: program calls are followed into the members found there");
+        followCalls.setArgs(Option.UNLIMITED_VALUES);
+        followCalls.setValueSeparator(',');
+        options.addOption(followCalls);
+        Option programCache = new Option(null, "program-cache", true, "maximum number of called programs kept in memory when following calls (default: 256)");
+        options.addOption(programCache);
+        Option serve = new Option(null, "serve", true, "keep running and convert the members sent over HTTP to this port of the loopback interface (0 for any free port)");
+        options.addOption(serve);
+        Option serveRoot = new Option(null, "serve-root", true, "with --serve, directory the members requested by path are read from (default: none, requests by path are refused)");
+        options.addOption(serveRoot);
+        Option serveAddress = new Option(null, "serve-address", true, "with --serve, address to listen on instead of the loopback interface");
+        options.addOption(serveAddress);
+        Option watch = new Option(null, "watch", true, "convert the members of this directory, then keep running and convert again the ones changed or whose DDS, copybooks or called programs changed");
+        options.addOption(watch);
+        Option debounce = new Option(null, "debounce", true, "with --watch, milliseconds without changes before the changed members are converted (default: 300)");
+        options.addOption(debounce);
+        return options;
+    }
 
-        CommandLineParser parser = new DefaultParser();
-        HelpFormatter formatter = new HelpFormatter();
-        CommandLine cmd;
+    /**
+     * Runs the pipeline on a single member or, in batch mode, on all the matching members.
+     *
+     * @param pipeline   The pipeline to run.
+     * @param staged     The staged runner converting the members in batch mode, or null to use a BatchRunner.
+     * @param inputPath  The input file path, directory or glob pattern.
+     * @param outputFile The output file, or the output directory in batch mode.
+     * @param workers    The number of worker threads in batch mode.
+     * @param cache      The cache of the diagrams of the previous runs, used in batch mode, or null.
+     * @param modelFiles Whether the inputs are model files, in which case only those are taken from a directory.
+     * @param warmUp     The warm-up every worker runs before its first member in batch mode, or null for none.
+     * @return True if all the members were converted.
+     * @throws Exception If the conversion of a single member fails, or the batch cannot be started.
+     */
+    private static boolean run(Pipeline pipeline, StagedRunner staged, String inputPath, File outputFile, int workers, DiagramCache cache,
+                               boolean modelFiles, Runnable warmUp) throws Exception {
+        if (!BatchRunner.isBatchInput(inputPath)) {
+            pipeline.run(new TransformContext(new File(inputPath), outputFile));
+            return true;
+        }
+        List<File> inputFiles = BatchRunner.collectInputs(inputPath);
+        if (modelFiles) {
+            inputFiles.removeIf(file -> !file.getName().endsWith(PUMLModelFile.EXTENSION));
+        }
+        if (!outputFile.isDirectory() && !outputFile.mkdirs()) {
+            throw new Exception(String.format("Invalid output directory '%s'", outputFile.getPath()));
+        }
+        BatchResult result;
+        if (staged != null) {
+            staged.setCache(cache);
+            result = staged.run(inputFiles, outputFile);
+        } else {
+            BatchRunner runner = new BatchRunner(pipeline, workers);
+            runner.setCache(cache);
+            runner.setWarmUp(warmUp);
+            result = runner.run(inputFiles, outputFile);
+        }
+        result.printSummary(System.out);
+        if (staged != null) {
+            staged.printUtilization(System.out);
+        }
+        return result.getFailures().isEmpty();
+    }
 
-        try {
-            cmd = parser.parse(options, args);
+    /**
+     * Creates the staged runner of the batch mode, dividing the transformers of the pipeline
+     * among the read, parse, transform and write stages. The stages without transformers,
+     * such as read and transform when rendering model files, are left out.
+     *
+     * @param settings     The settings of the command line, giving the threads of the stages and the size of the queues.
+     * @param transformers The transformers of the pipeline, in order.
+     * @param reader       The transformer reading the members, or null if the first transformer reads them.
+     * @param warmUp       The warm-up of the workers of the parse stage, or null for none.
+     * @return The staged runner.
+     */
+    private static StagedRunner createStagedRunner(Settings settings, List<ModelTransformer> transformers,
+                                                   ModelTransformer reader, Runnable warmUp) {
+        Map<String, Integer> threads = settings.stageThreads;
+        Map<String, List<ModelTransformer>> members = new LinkedHashMap<>();
+        threads.keySet().forEach(name -> members.put(name, new ArrayList<>()));
+        if (reader != null) {
+            members.get("read").add(reader);
+        }
+        for (ModelTransformer transformer : transformers) {
+            if (transformer instanceof SourceToModel || transformer instanceof ModelFileToModel) {
+                members.get("parse").add(transformer);
+            } else if (transformer instanceof ModelToModel) {
+                members.get("transform").add(transformer);
+            } else {
+                members.get("write").add(transformer);
+            }
+        }
+        List<StagedRunner.Stage> stages = new ArrayList<>();
+        for (Map.Entry<String, List<ModelTransformer>> stage : members.entrySet()) {
+            if (!stage.getValue().isEmpty()) {
+                StagedRunner.Stage runnerStage = new StagedRunner.Stage(stage.getKey(), threads.get(stage.getKey()), stage.getValue());
+                if (stage.getKey().equals("parse")) {
+                    runnerStage.setWarmUp(warmUp);
+                }
+                stages.add(runnerStage);
+            }
+        }
+        return new StagedRunner(stages, settings.queueSize);
+    }
+
+    /**
+     * Reads the threads of the stages of the staged batch mode, given as name=threads values.
+     *
+     * @param cmd     The parsed command line.
+     * @param workers The number of threads of the parse stage when it is not given.
+     * @return The threads of the read, parse, transform and write stages, in order.
+     * @throws ParseException If a stage is unknown or its number of threads is not a positive number.
+     */
+    private static Map<String, Integer> stageThreads(CommandLine cmd, int workers) throws ParseException {
+        Map<String, Integer> threads = new LinkedHashMap<>();
+        threads.put("read", 1);
+        threads.put("parse", workers);
+        threads.put("transform", 1);
+        threads.put("write", 1);
+        for (String value : cmd.getOptionValues("stages")) {
+            String[] stage = value.trim().split("=");
+            if (stage.length != 2 || !threads.containsKey(stage[0])) {
+                throw new ParseException(String.format("Invalid stage '%s', expected read, parse, transform or write=threads", value));
+            }
+            try {
+                threads.put(stage[0], Integer.parseInt(stage[1]));
+            } catch (NumberFormatException e) {
+                throw new ParseException(String.format("Invalid number of threads for the stage %s: %s", stage[0], stage[1]));
+            }
+            if (threads.get(stage[0]) < 1) {
+                throw new ParseException(String.format("The stage %s needs at least 1 thread", stage[0]));
+            }
+        }
+        return threads;
+    }
+
+    /**
+     * Answers the queries of the command line from the file access index, printing one
+     * line per program or file with the CRUD letters and the operations used.
+     *
+     * @param cmd   The parsed command line, giving the file or the program to look up.
+     * @param index The file access index.
+     */
+    private static void query(CommandLine cmd, FileAccessIndex index) {
+        if (cmd.hasOption("query-file")) {
+            String[] query = cmd.getOptionValue("query-file").split(":", 2);
+            String operation = query.length > 1 ? query[1].toUpperCase() : null;
+            Map<String, Set<String>> programs = new TreeMap<>(index.programsOf(query[0]));
+            if (operation != null) {
+                programs.values().removeIf(operations -> operations.stream().noneMatch(op -> op.equalsIgnoreCase(operation)
+                        || (operation.length() == 1 && FileAccessIndex.crud(op) == operation.charAt(0))));
+            }
+            System.out.printf("%d programs access %s%n", programs.size(), String.join(":", query));
+            programs.forEach((program, operations) -> printAccess(program, operations));
+        }
+        if (cmd.hasOption("query-program")) {
+            Map<String, Set<String>> files = index.filesOf(cmd.getOptionValue("query-program"));
+            System.out.printf("%s accesses %d files%n", cmd.getOptionValue("query-program"), files.size());
+            files.forEach((file, operations) -> printAccess(file, operations));
+        }
+    }
+
+    private static void printAccess(String name, Set<String> operations) {
+        StringBuilder crud = new StringBuilder();
+        for (char letter : "CRUD".toCharArray()) {
+            crud.append(operations.stream().anyMatch(op -> FileAccessIndex.crud(op) == letter) ? letter : '-');
+        }
+        System.out.printf("  %-20s %s  %s%n", name, crud, String.join(" ", operations));
+    }
+
+    /**
+     * Creates the resolver of the DDS and copybooks the members depend on.
+     *
+     * @param cmd The parsed command line.
+     * @return The dependency resolver for the directories given on the command line.
+     * @throws IOException If the DDS directory cannot be read.
+     */
+    private static SourceDependencies createDependencies(CommandLine cmd) throws IOException {
+        File dds = cmd.hasOption("dds") ? new File(cmd.getOptionValue("dds")) : null;
+        return new SourceDependencies(dds, files(cmd, "copybooks"), files(cmd, "follow-calls"));
+    }
+
+    /**
+     * Builds the record format index of the DDS directory, or loads it from the index
+     * file when the DDS did not change since it was saved.
+     *
+     * @param cmd The parsed command line.
+     * @return The index, or null if no DDS directory is given.
+     * @throws IOException If the DDS or the index file cannot be read, or the index file cannot be written.
+     */
+    private static RecordFormatIndex recordFormats(CommandLine cmd) throws IOException {
+        if (!cmd.hasOption("dds")) {
+            return null;
+        }
+        List<File> ddsDirs = List.of(new File(cmd.getOptionValue("dds")));
+        return cmd.hasOption("dds-index")
+                ? RecordFormatIndex.load(Paths.get(cmd.getOptionValue("dds-index")), ddsDirs)
+                : RecordFormatIndex.scan(ddsDirs);
+    }
+
+    /**
+     * Tells whether a file is one of the given directories or is directly in one of them.
+     *
+     * @param path The file.
+     * @param dirs The directories.
+     * @return True if the file is, or is in, one of the directories.
+     */
+    private static boolean isIn(Path path, List<File> dirs) {
+        Path file = path.toAbsolutePath().normalize();
+        for (File dir : dirs) {
+            Path directory = dir.toPath().toAbsolutePath().normalize();
+            if (file.equals(directory) || directory.equals(file.getParent())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retrieves the files given as values of an option.
+     *
+     * @param cmd    The parsed command line.
+     * @param option The long name of the option.
+     * @return The files, empty if the option is not given.
+     */
+    private static List<File> files(CommandLine cmd, String option) {
+        List<File> files = new ArrayList<>();
+        if (cmd.hasOption(option)) {
+            for (String value : cmd.getOptionValues(option)) {
+                files.add(new File(value));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * The settings of a conversion or of the server, read from the command line and checked
+     * before anything is converted, so that an invalid option only prints the usage.
+     */
+    private static final class Settings {
+        private final CommandLine cmd;
+        private final boolean serve;
+        private final boolean watch;
+        private final String inputPath;
+        private final File outputFile;
+        private final SubroutineExpansion expansion;
+        private final int depth;
+        private final SourceLoader loader;
+        private final boolean tolerant;
+        private final boolean fromModel;
+        private final int programCacheSize;
+        private final int workers;
+        private final FileFormat imageFormat;
+        private final int renderers;
+        private final boolean writesSource;
+        private final List<DiagramGenerator> formats = new ArrayList<>();
+        private final PUMLPaginator paginator;
+        private final int warmupIterations;
+        private final int port;
+        private final long debounce;
+        private final Map<String, Integer> stageThreads;
+        private final int queueSize;
 
-            File inputFile = new File(cmd.getOptionValue("input"));
-            File outputFile = new File(cmd.getOptionValue("output"));
+        /**
+         * Reads the settings of the command line.
+         *
+         * @param cmd The parsed command line.
+         * @throws ParseException If an option is missing, invalid or not supported with the others.
+         * @throws NumberFormatException If a numeric option is not a number.
+         */
+        private Settings(CommandLine cmd) throws ParseException {
+            this.cmd = cmd;
+            serve = cmd.hasOption("serve");
+            watch = cmd.hasOption("watch");
+            if (!serve && ((!watch && !cmd.hasOption("input")) || !cmd.hasOption("output"))) {
+                throw new ParseException("The input and output are required unless serving");
+            }
+            inputPath = watch ? cmd.getOptionValue("watch") : cmd.getOptionValue("input");
+            outputFile = serve ? null : new File(cmd.getOptionValue("output"));
 
+            expansion = cmd.hasOption("subroutine-refs") ? SubroutineExpansion.REFERENCE : SubroutineExpansion.INLINE;
+            depth = Integer.parseInt(cmd.getOptionValue("max-depth", String.valueOf(ModelToModel.DEFAULT_MAX_DEPTH)));
             try {
-                Pipeline pipeline = new Pipeline(
-                        new SourceToModel(inputFile,outputFile),    // Transform the RPG source code to the model (AST)
-                        new ModelToModel(inputFile,outputFile),     // Transform the RPG Model (AST) to the PlantUML model (AST)
-                        new ModelToSource(inputFile,outputFile)    // Transform the RPG Model (AST) to the PlantUML model (AST)
-                );
-                pipeline.run();
-            } catch (Exception e) {
-                System.out.println(e.getMessage());
-                System.exit(1);
+                loader = new SourceLoader(
+                        cmd.hasOption("encoding") ? Charset.forName(cmd.getOptionValue("encoding")) : null,
+                        SourceLoader.RecordFormat.valueOf(cmd.getOptionValue("record-format", "auto").toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new ParseException(e.getMessage());
             }
+            tolerant = cmd.hasOption("tolerant");
+            fromModel = cmd.hasOption("from-model");
+            programCacheSize = Integer.parseInt(cmd.getOptionValue("program-cache", "256"));
 
-            // Process the input file path
-        } catch (ParseException e) {
-            formatter.printHelp("RPGtoPUML", options);
-            System.exit(1);
+            workers = Integer.parseInt(cmd.getOptionValue("threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            if (workers < 1) {
+                throw new ParseException("The number of threads must be at least 1");
+            }
+
+            if (cmd.hasOption("image")) {
+                String format = cmd.getOptionValue("image").toUpperCase();
+                if (!format.equals("SVG") && !format.equals("PNG")) {
+                    throw new ParseException(String.format("Unsupported image format '%s'", format));
+                }
+                imageFormat = FileFormat.valueOf(format);
+            } else {
+                imageFormat = null;
+            }
+            renderers = Integer.parseInt(cmd.getOptionValue("renderers", String.valueOf(workers)));
+            writesSource = imageFormat == null || !cmd.hasOption("no-source");
+            if (writesSource) {
+                for (String format : cmd.getOptionValues("formats") != null ? cmd.getOptionValues("formats") : new String[]{"puml"}) {
+                    switch (format.trim().toLowerCase()) {
+                        case "puml" -> formats.add(new PUMLCodeGenerator());
+                        case "mermaid" -> formats.add(new MermaidCodeGenerator());
+                        case "json" -> formats.add(new JsonCodeGenerator());
+                        default -> throw new ParseException(String.format("Unsupported diagram format '%s'", format));
+                    }
+                }
+            }
+            if (cmd.hasOption("max-messages") || cmd.hasOption("max-nesting")) {
+                try {
+                    paginator = new PUMLPaginator(Integer.parseInt(cmd.getOptionValue("max-messages", "2000")),
+                            Integer.parseInt(cmd.getOptionValue("max-nesting", "16")));
+                } catch (IllegalArgumentException e) {
+                    throw new ParseException(e.getMessage());
+                }
+            } else {
+                paginator = null;
+            }
+            if (cmd.hasOption("archive") && (imageFormat != null || serve || watch || cmd.hasOption("save-model"))) {
+                // The model files would still be written next to the diagrams, outside of the archive
+                throw new ParseException("--archive cannot be combined with --image, --serve, --watch or --save-model");
+            }
+            warmupIterations = Integer.parseInt(cmd.getOptionValue("warmup", "0"));
+            port = serve ? Integer.parseInt(cmd.getOptionValue("serve")) : 0;
+            debounce = Long.parseLong(cmd.getOptionValue("debounce", "300"));
+            stageThreads = cmd.hasOption("stages") ? stageThreads(cmd, workers) : null;
+            queueSize = Integer.parseInt(cmd.getOptionValue("queue-size", "16"));
+            if (queueSize < 1) {
+                throw new ParseException("The queues must hold at least 1 member");
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,176 @@
+package com.strumenta.rpg;
+
+import com.strumenta.rpg.transform.ProgramCalls;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Finds the files a source member depends on: the DDS of the files it declares,
+ * the DDS those refer to, the copybooks it includes and, when program calls are
+ * followed, the members of the programs it calls with their own dependencies.
+ * Dependencies are found by scanning the text of the member, without parsing it,
+ * and are resolved by name against a DDS directory and a list of copybook directories.
+ * The directories are listed once, so an instance is meant to be shared by all the
+ * members of a run, also from different threads.
+ */
+public class SourceDependencies {
+    private static final Pattern FREE_FILE = Pattern.compile("^\\s*DCL-F\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COPY = Pattern.compile("^.{0,6}\\s*/(?:COPY|INCLUDE)\\s+(\\S+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DDS_REF = Pattern.compile("\\bREF\\(\\s*(?:\\w+/)?(\\w+)|\\bREFFLD\\(\\s*\\w+\\s+(?:\\w+/)?(\\w+)\\s*\\)", Pattern.CASE_INSENSITIVE);
+
+    private final Map<String, Path> ddsMembers;
+    private final List<File> copybookDirs;
+    private final Map<String, Path> programMembers = new HashMap<>();
+    private final Map<Path, Map<String, Path>> copybookMembers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a SourceDependencies resolving names against the given directories.
+     *
+     * @param ddsDir       The directory containing the DDS members, or null if there is none.
+     * @param copybookDirs The directories searched for copybooks, in order.
+     * @param programDirs  The directories searched for called programs, in order,
+     *                     empty if program calls are not followed.
+     * @throws IOException If the DDS or a program directory cannot be read.
+     */
+    public SourceDependencies(File ddsDir, List<File> copybookDirs, List<File> programDirs) throws IOException {
+        this.ddsMembers = ddsDir == null ? Map.of() : members(ddsDir.toPath());
+        this.copybookDirs = new ArrayList<>(copybookDirs);
+        for (File dir : programDirs) {
+            members(dir.toPath()).forEach(programMembers::putIfAbsent);
+        }
+    }
+
+    /**
+     * Finds the dependencies of a source member.
+     * Copybooks are searched in the copybook directories and then in the directory of the member.
+     *
+     * @param source The source member.
+     * @return The existing files the member depends on, in a stable order.
+     * @throws IOException If the member or one of its dependencies cannot be read.
+     */
+    public List<Path> of(File source) throws IOException {
+        Set<Path> dependencies = new LinkedHashSet<>();
+        collect(source, dependencies);
+        return new ArrayList<>(dependencies);
+    }
+
+    private void collect(File source, Set<Path> dependencies) throws IOException {
+        List<String> lines = Files.readAllLines(source.toPath(), StandardCharsets.ISO_8859_1);
+        Map<String, String> prototypes = programMembers.isEmpty() ? Map.of() : ProgramCalls.prototypes(String.join("\n", lines));
+        for (String line : lines) {
+            String file = declaredFile(line);
+            if (file != null) {
+                addDds(file, dependencies);
+            }
+            Matcher copy = COPY.matcher(line);
+            if (copy.find()) {
+                Path copybook = findCopybook(copybookName(copy.group(1)), source.getParentFile());
+                if (copybook != null) {
+                    dependencies.add(copybook);
+                }
+            }
+            String program = programMembers.isEmpty() ? null : ProgramCalls.target(line, prototypes);
+            Path member = program != null ? programMembers.get(program) : null;
+            if (member != null && !member.equals(source.toPath()) && dependencies.add(member)) {
+                collect(member.toFile(), dependencies);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the DDS member with the given name.
+     *
+     * @param name The name of the file or member, not case-sensitive.
+     * @return The DDS member, or null if the DDS directory does not contain it.
+     */
+    public Path dds(String name) {
+        return ddsMembers.get(name.toUpperCase());
+    }
+
+    private void addDds(String name, Set<Path> dependencies) throws IOException {
+        Path dds = dds(name);
+        if (dds == null || !dependencies.add(dds)) {
+            return;
+        }
+        for (String line : Files.readAllLines(dds, StandardCharsets.ISO_8859_1)) {
+            Matcher ref = DDS_REF.matcher(line);
+            while (ref.find()) {
+                addDds(ref.group(1) != null ? ref.group(1) : ref.group(2), dependencies);
+            }
+        }
+    }
+
+    private Path findCopybook(String name, File sourceDir) throws IOException {
+        List<File> dirs = new ArrayList<>(copybookDirs);
+        if (sourceDir != null) {
+            dirs.add(sourceDir);
+        }
+        for (File dir : dirs) {
+            Map<String, Path> members = copybookMembers.get(dir.toPath());
+            if (members == null) {
+                members = members(dir.toPath());
+                copybookMembers.put(dir.toPath(), members);
+            }
+            Path copybook = members.get(name);
+            if (copybook != null) {
+                return copybook;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves the name of the file declared by a fixed-form F specification
+     * or a free-form DCL-F.
+     */
+    private static String declaredFile(String line) {
+        if (line.length() > 7 && Character.toUpperCase(line.charAt(5)) == 'F' && line.charAt(6) != '*' && line.charAt(6) != ' ') {
+            return line.substring(6, Math.min(16, line.length())).trim();
+        }
+        Matcher free = FREE_FILE.matcher(line);
+        return free.find() ? free.group(1) : null;
+    }
+
+    /**
+     * Retrieves the member name of a /COPY operand, which can be {@code MEMBER},
+     * {@code FILE,MEMBER}, {@code LIB/FILE,MEMBER} or a quoted path.
+     */
+    private static String copybookName(String operand) {
+        String name = operand.replace("'", "").replace("\"", "");
+        name = name.substring(Math.max(name.lastIndexOf(','), name.lastIndexOf('/')) + 1);
+        int extension = name.lastIndexOf('.');
+        return (extension > 0 ? name.substring(0, extension) : name).toUpperCase();
+    }
+
+    /**
+     * Lists the regular files of a directory by upper case name without extension.
+     */
+    private static Map<String, Path> members(Path dir) throws IOException {
+        Map<String, Path> members = new HashMap<>();
+        if (!Files.isDirectory(dir)) {
+            return members;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(Files::isRegularFile).sorted().forEach(file -> {
+                String name = file.getFileName().toString();
+                int extension = name.lastIndexOf('.');
+                members.putIfAbsent((extension > 0 ? name.substring(0, extension) : name).toUpperCase(), file);
+            });
+        }
+        return members;
+    }
+}
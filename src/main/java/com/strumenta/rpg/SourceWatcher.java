@@ -0,0 +1,251 @@
+package com.strumenta.rpg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the diagrams of a source directory up to date by converting the members again
+ * when they, or the DDS, copybooks and called programs they depend on, change.
+ * The directories are watched with a {@link WatchService}. The changes are collected
+ * until the directories stay quiet for the debounce delay, so that a save touching
+ * several files, or an editor writing a file in several steps, results in a single run.
+ * The members to convert again are the changed members of the source directory and the
+ * members depending on a changed file, found with {@link SourceDependencies}; they are
+ * converted by a {@link BatchRunner}. The dependencies of the members are kept in memory
+ * and found again when the files of a watched directory are created or deleted.
+ * The state the pipeline keeps between runs, such as the cached called programs or the
+ * record format index, is brought up to date by the {@link Listener}s of the watcher.
+ */
+public class SourceWatcher {
+
+    /**
+     * Receives the changes of the watched directories and the outcome of the runs they cause.
+     */
+    public interface Listener {
+        /**
+         * Called after a burst of changes, before the affected members are converted again.
+         *
+         * @param changed The files created, modified or deleted, or the watched directories if events were lost.
+         * @throws IOException If the state depending on the changed files cannot be read again.
+         */
+        default void changed(Set<Path> changed) throws IOException {
+        }
+
+        /**
+         * Called after the affected members were converted again.
+         *
+         * @param result The outcome of the run.
+         * @throws IOException If what the run produced cannot be saved.
+         */
+        default void converted(BatchResult result) throws IOException {
+        }
+    }
+
+    private final Pipeline pipeline;
+    private final int threads;
+    private final Path sourceDir;
+    private final File outputDir;
+    private final File ddsDir;
+    private final List<File> copybookDirs;
+    private final List<File> programDirs;
+    private final long debounceMillis;
+    private final Map<Path, Set<Path>> dependencies = new HashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+    private SourceDependencies resolver;
+
+    /**
+     * Constructs a SourceWatcher.
+     *
+     * @param pipeline       The pipeline converting a member.
+     * @param threads        The number of worker threads converting the changed members.
+     * @param sourceDir      The directory of the members whose diagrams are kept up to date.
+     * @param outputDir      The directory the diagrams are written to.
+     * @param ddsDir         The directory containing the DDS members, or null if there is none.
+     * @param copybookDirs   The directories searched for copybooks.
+     * @param programDirs    The directories searched for called programs, empty if program calls are not followed.
+     * @param debounceMillis The time the directories must stay quiet before the changed members are converted.
+     */
+    public SourceWatcher(Pipeline pipeline, int threads, File sourceDir, File outputDir, File ddsDir,
+                         List<File> copybookDirs, List<File> programDirs, long debounceMillis) {
+        this.pipeline = pipeline;
+        this.threads = threads;
+        this.sourceDir = normalize(sourceDir.toPath());
+        this.outputDir = outputDir;
+        this.ddsDir = ddsDir;
+        this.copybookDirs = new ArrayList<>(copybookDirs);
+        this.programDirs = new ArrayList<>(programDirs);
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Registers a listener receiving the changes and the outcome of every run.
+     *
+     * @param listener The listener to register.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Watches the directories and converts the affected members after every burst of
+     * changes, until the calling thread is interrupted.
+     *
+     * @param out The stream the outcome of every run is printed to.
+     * @throws IOException If a directory cannot be watched or read.
+     */
+    public void watch(PrintStream out) throws IOException {
+        try (WatchService service = FileSystems.getDefault().newWatchService()) {
+            Set<Path> dirs = new LinkedHashSet<>();
+            dirs.add(sourceDir);
+            if (ddsDir != null) {
+                dirs.add(normalize(ddsDir.toPath()));
+            }
+            copybookDirs.forEach(dir -> dirs.add(normalize(dir.toPath())));
+            programDirs.forEach(dir -> dirs.add(normalize(dir.toPath())));
+            for (Path dir : dirs) {
+                if (Files.isDirectory(dir)) {
+                    dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+            resolve();
+            out.printf("Watching %d directories for changes%n", dirs.size());
+            while (!Thread.currentThread().isInterrupted()) {
+                Set<Path> changed = new TreeSet<>();
+                boolean structural = collect(service.take(), changed);
+                WatchKey key;
+                while ((key = service.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    structural |= collect(key, changed);
+                }
+                List<File> members = affected(changed, structural);
+                for (Listener listener : listeners) {
+                    listener.changed(changed);
+                }
+                if (members.isEmpty()) {
+                    continue;
+                }
+                BatchResult result = new BatchRunner(pipeline, threads).run(members, outputDir);
+                result.printSummary(out);
+                for (Listener listener : listeners) {
+                    listener.converted(result);
+                }
+                for (File member : members) {
+                    dependencies.put(normalize(member.toPath()), dependenciesOf(member));
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Finds the members to convert again after a burst of changes: the changed members
+     * that still exist and the members depending on a changed file.
+     *
+     * @param changed    The changed files, or the watched directories if events were lost.
+     * @param structural Whether files were created or deleted, or events were lost, in which
+     *                   case the dependencies of all the members are found again.
+     * @return The members to convert, sorted by path.
+     * @throws IOException If a directory or a member cannot be read.
+     */
+    private List<File> affected(Set<Path> changed, boolean structural) throws IOException {
+        Map<Path, Set<Path>> previous = new HashMap<>(dependencies);
+        if (structural) {
+            resolve();
+        }
+        Set<Path> members = new TreeSet<>();
+        for (Path path : changed) {
+            if (path.equals(sourceDir)) {
+                members.addAll(dependencies.keySet());
+            } else if (sourceDir.equals(path.getParent()) && Files.isRegularFile(path)) {
+                members.add(path);
+            }
+        }
+        for (Map<Path, Set<Path>> graph : List.of(previous, dependencies)) {
+            for (Map.Entry<Path, Set<Path>> member : graph.entrySet()) {
+                for (Path path : changed) {
+                    if (member.getValue().contains(path) || member.getValue().stream().anyMatch(d -> path.equals(d.getParent()))) {
+                        members.add(member.getKey());
+                    }
+                }
+            }
+        }
+        List<File> files = new ArrayList<>();
+        for (Path member : members) {
+            if (Files.isRegularFile(member)) {
+                files.add(member.toFile());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Lists the watched directories again and finds the dependencies of all the members.
+     */
+    private void resolve() throws IOException {
+        resolver = new SourceDependencies(ddsDir, copybookDirs, programDirs);
+        dependencies.clear();
+        for (File member : BatchRunner.collectInputs(sourceDir.toString())) {
+            dependencies.put(normalize(member.toPath()), dependenciesOf(member));
+        }
+    }
+
+    /**
+     * Finds the dependencies of a member; a member that cannot be read, for example because
+     * it is being written, has none until it changes again.
+     */
+    private Set<Path> dependenciesOf(File member) {
+        Set<Path> paths = new LinkedHashSet<>();
+        try {
+            for (Path dependency : resolver.of(member)) {
+                paths.add(normalize(dependency));
+            }
+        } catch (IOException e) {
+            paths.clear();
+        }
+        return paths;
+    }
+
+    /**
+     * Adds the files changed according to the events of a key to a set, the directory
+     * itself if events were lost.
+     *
+     * @return True if files were created or deleted, or events were lost.
+     */
+    private static boolean collect(WatchKey key, Set<Path> changed) {
+        Path dir = normalize((Path) key.watchable());
+        boolean structural = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed.add(dir);
+                structural = true;
+            } else {
+                changed.add(dir.resolve((Path) event.context()));
+                structural |= event.kind() != StandardWatchEventKinds.ENTRY_MODIFY;
+            }
+        }
+        key.reset();
+        return structural;
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
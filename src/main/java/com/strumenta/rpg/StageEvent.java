@@ -0,0 +1,33 @@
+package com.strumenta.rpg;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event recorded for every stage run by a Pipeline.
+ * Events are only committed while a flight recording is active,
+ * for example when the JVM is started with {@code -XX:StartFlightRecording}.
+ */
+@Name("com.strumenta.rpg.Stage")
+@Label("Pipeline Stage")
+@Category("RPG to PlantUML")
+@Description("A stage of the pipeline run for one source member")
+class StageEvent extends Event {
+
+    @Label("File")
+    String file;
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+
+    @Label("Nodes")
+    int nodes;
+}
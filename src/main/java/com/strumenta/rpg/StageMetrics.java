@@ -0,0 +1,76 @@
+package com.strumenta.rpg;
+
+import java.io.File;
+
+/**
+ * The measurements of one pipeline stage for one file.
+ */
+public class StageMetrics {
+    private final File inputFile;
+    private final String stage;
+    private final long wallNanos;
+    private final long allocatedBytes;
+    private final int nodes;
+
+    /**
+     * Constructs the metrics of a completed stage.
+     *
+     * @param inputFile      The file being processed.
+     * @param stage          The name of the stage, that is, of its transformer.
+     * @param wallNanos      The wall time spent in the stage, in nanoseconds.
+     * @param allocatedBytes The bytes allocated by the thread running the stage, or -1 if not available.
+     * @param nodes          The number of nodes of the model produced by the stage, or -1 if not available.
+     */
+    public StageMetrics(File inputFile, String stage, long wallNanos, long allocatedBytes, int nodes) {
+        this.inputFile = inputFile;
+        this.stage = stage;
+        this.wallNanos = wallNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Retrieves the file being processed.
+     *
+     * @return The input file.
+     */
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    /**
+     * Retrieves the name of the stage.
+     *
+     * @return The simple name of the transformer of the stage.
+     */
+    public String getStage() {
+        return stage;
+    }
+
+    /**
+     * Retrieves the wall time spent in the stage.
+     *
+     * @return The wall time, in nanoseconds.
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * Retrieves the bytes allocated by the thread while running the stage.
+     *
+     * @return The allocated bytes, or -1 if the JVM does not support allocation counters.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Retrieves the number of nodes of the model produced by the stage.
+     *
+     * @return The number of nodes, or -1 if the model is not a known one.
+     */
+    public int getNodes() {
+        return nodes;
+    }
+}
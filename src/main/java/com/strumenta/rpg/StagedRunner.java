@@ -0,0 +1,386 @@
+package com.strumenta.rpg;
+
+import com.strumenta.kolasu.model.Node;
+import com.strumenta.rpg.transform.ModelTransformer;
+import com.strumenta.rpg.transform.TransformContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the conversion of many source members as a chain of stages, such as reading,
+ * parsing, transforming and writing, so that the I/O of some members overlaps with the
+ * parsing of others. Every stage has its own workers, running its part of the transformers,
+ * and hands the members over to the next stage through a bounded queue.
+ * When a stage falls behind, the queue before it fills up and the previous stages wait,
+ * so the number of members in memory is bounded by the queue capacity and the workers,
+ * however many members the run converts.
+ * Each stage measures the time its workers spend converting, waiting for members and
+ * waiting for room in the next queue, see {@link #printUtilization}, to size the stages
+ * for the hardware.
+ * The outcome of the run, and the use of the cache, are the same as with a {@link BatchRunner}.
+ */
+public class StagedRunner {
+
+    /**
+     * A stage of the run: a pipeline of transformers and the number of workers running it.
+     * The statistics of the stage cover the last run.
+     */
+    public static final class Stage {
+        private final String name;
+        private final int threads;
+        private final Pipeline pipeline;
+        private final LongAdder members = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private final LongAdder starvedNanos = new LongAdder();
+        private final LongAdder blockedNanos = new LongAdder();
+        private final AtomicLong wallNanos = new AtomicLong();
+        private Runnable warmUp;
+
+        /**
+         * Constructs a Stage.
+         *
+         * @param name         The name of the stage, used in the reports.
+         * @param threads      The number of workers of the stage.
+         * @param transformers The transformers run by the stage, in order.
+         */
+        public Stage(String name, int threads, List<ModelTransformer> transformers) {
+            if (threads < 1) {
+                throw new IllegalArgumentException(String.format("The stage %s needs at least 1 thread", name));
+            }
+            this.name = name;
+            this.threads = threads;
+            this.pipeline = new Pipeline(transformers.toArray(new ModelTransformer[0]));
+        }
+
+        /**
+         * Sets the warm-up every worker of the stage runs on its own thread before taking
+         * its first member, such as {@link com.strumenta.rpg.transform.SourceToModel#warmUp}
+         * for the stage parsing the members.
+         *
+         * @param warmUp The warm-up of the workers, or null for none.
+         */
+        public void setWarmUp(Runnable warmUp) {
+            this.warmUp = warmUp;
+        }
+
+        /**
+         * Retrieves the name of the stage.
+         *
+         * @return The name of the stage.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Retrieves the number of workers of the stage.
+         *
+         * @return The number of workers.
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * Retrieves the number of members the stage converted, successfully or not.
+         *
+         * @return The number of members.
+         */
+        public long getMembers() {
+            return members.sum();
+        }
+
+        /**
+         * Retrieves the share of the time of the workers spent running the transformers.
+         *
+         * @return The busy time over the wall time of the stage times its workers, from 0 to 1.
+         */
+        public double getUtilization() {
+            return share(busyNanos.sum());
+        }
+
+        /**
+         * Retrieves the share of the time of the workers spent waiting for the previous stage.
+         * A stage often starved is faster than the stages before it.
+         *
+         * @return The time waiting for members over the wall time of the stage times its workers.
+         */
+        public double getStarved() {
+            return share(starvedNanos.sum());
+        }
+
+        /**
+         * Retrieves the share of the time of the workers spent waiting for room in the queue
+         * of the next stage. A stage often blocked is faster than the stages after it.
+         *
+         * @return The time waiting for the next stage over the wall time of the stage times its workers.
+         */
+        public double getBlocked() {
+            return share(blockedNanos.sum());
+        }
+
+        private double share(long nanos) {
+            long total = wallNanos.get() * threads;
+            return total > 0 ? (double) nanos / total : 0;
+        }
+
+        private void reset() {
+            members.reset();
+            busyNanos.reset();
+            starvedNanos.reset();
+            blockedNanos.reset();
+            wallNanos.set(0);
+        }
+    }
+
+    /**
+     * A member going through the stages, with the model produced by the last stage it went through.
+     */
+    private static final class Work {
+        private final File inputFile;
+        private final TransformContext context;
+        private Node model;
+        private String key;
+
+        private Work(File inputFile, TransformContext context) {
+            this.inputFile = inputFile;
+            this.context = context;
+        }
+    }
+
+    /**
+     * The marker telling a worker that the previous stage has no more members.
+     */
+    private static final Work END = new Work(null, null);
+
+    private final List<Stage> stages;
+    private final int queueCapacity;
+    private DiagramCache cache;
+
+    /**
+     * Constructs a StagedRunner.
+     *
+     * @param stages        The stages every member goes through, in order.
+     * @param queueCapacity The number of members each queue between two stages holds at most.
+     */
+    public StagedRunner(List<Stage> stages, int queueCapacity) {
+        if (stages.isEmpty()) {
+            throw new IllegalArgumentException("At least one stage is required");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("The queues must hold at least 1 member");
+        }
+        this.stages = List.copyOf(stages);
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets the cache used to skip the members that did not change since the previous run.
+     * The freshness of the members is checked by the first stage.
+     *
+     * @param cache The diagram cache, or null to convert every member.
+     */
+    public void setCache(DiagramCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Registers a listener receiving the metrics of every transformer run by the stages.
+     *
+     * @param listener The listener to register.
+     */
+    public void addListener(PipelineListener listener) {
+        for (Stage stage : stages) {
+            stage.pipeline.addListener(listener);
+        }
+    }
+
+    /**
+     * Retrieves the stages of the run, with the statistics of the last run.
+     *
+     * @return The stages, in order.
+     */
+    public List<Stage> getStages() {
+        return stages;
+    }
+
+    /**
+     * Runs the stages on every input file and waits for all of them to complete.
+     * A member failing in a stage does not go through the next ones: its error is recorded
+     * in the result and the run continues with the other members. If the members cannot
+     * all be handed to the first stage, the workers are interrupted.
+     *
+     * @param inputFiles The source members to convert.
+     * @param outputDir  The directory where the generated files are written.
+     * @return The successes and failures of the run.
+     * @throws InterruptedException If the run is interrupted while waiting for the stages.
+     * @throws IOException If the index of the cache cannot be saved.
+     */
+    public BatchResult run(List<File> inputFiles, File outputDir) throws InterruptedException, IOException {
+        BatchResult result = new BatchResult();
+        List<BlockingQueue<Work>> queues = new ArrayList<>();
+        int workers = 0;
+        for (Stage stage : stages) {
+            stage.reset();
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+            workers += stage.threads;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        long start = System.nanoTime();
+        boolean started = false;
+        try {
+            for (int i = 0; i < stages.size(); i++) {
+                Stage stage = stages.get(i);
+                BlockingQueue<Work> input = queues.get(i);
+                BlockingQueue<Work> output = i + 1 < stages.size() ? queues.get(i + 1) : null;
+                int next = i + 1 < stages.size() ? stages.get(i + 1).threads : 0;
+                AtomicInteger running = new AtomicInteger(stage.threads);
+                boolean first = i == 0;
+                for (int t = 0; t < stage.threads; t++) {
+                    executor.submit(() -> work(stage, first, input, output, next, running, start, result));
+                }
+            }
+            BlockingQueue<Work> input = queues.get(0);
+            for (File inputFile : inputFiles) {
+                input.put(new Work(inputFile, new TransformContext(inputFile, outputDir)));
+            }
+            for (int t = 0; t < stages.get(0).threads; t++) {
+                input.put(END);
+            }
+            started = true;
+        } finally {
+            if (started) {
+                executor.shutdown();
+            } else {
+                // The workers would wait forever for the end of the members
+                executor.shutdownNow();
+            }
+        }
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        if (cache != null) {
+            cache.save();
+        }
+        return result;
+    }
+
+    /**
+     * Runs a worker of a stage, after its warm-up, until the previous stage has no more members. The last
+     * worker of the stage to stop tells the workers of the next stage there are no more members.
+     * A failed warm-up only leaves the worker cold: it still takes its share of the members.
+     */
+    private void work(Stage stage, boolean first, BlockingQueue<Work> input, BlockingQueue<Work> output, int next,
+                      AtomicInteger running, long start, BatchResult result) {
+        try {
+            if (stage.warmUp != null) {
+                try {
+                    stage.warmUp.run();
+                } catch (RuntimeException e) {
+                    // The members are converted all the same, only without the warm-up
+                }
+            }
+            while (true) {
+                long waiting = System.nanoTime();
+                Work work = input.take();
+                long started = System.nanoTime();
+                stage.starvedNanos.add(started - waiting);
+                if (work == END) {
+                    break;
+                }
+                boolean converted = convert(stage, first, work, result);
+                long converting = System.nanoTime();
+                stage.busyNanos.add(converting - started);
+                stage.members.increment();
+                if (!converted) {
+                    continue;
+                }
+                if (output != null) {
+                    output.put(work);
+                    stage.blockedNanos.add(System.nanoTime() - converting);
+                } else {
+                    complete(work, result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (running.decrementAndGet() == 0) {
+                stage.wallNanos.set(System.nanoTime() - start);
+                try {
+                    for (int t = 0; output != null && t < next; t++) {
+                        output.put(END);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the transformers of a stage on a member, after checking the cache in the first stage.
+     *
+     * @return True if the member must go on to the next stage.
+     */
+    private boolean convert(Stage stage, boolean first, Work work, BatchResult result) {
+        try {
+            if (first && cache != null) {
+                work.key = cache.key(work.inputFile);
+                if (cache.isFresh(work.inputFile, work.context.getOutputFile(), work.key)) {
+                    result.cached(work.inputFile);
+                    return false;
+                }
+                cache.invalidate(work.inputFile);
+            }
+            work.model = stage.pipeline.run(work.model, work.context);
+            return true;
+        } catch (Exception e) {
+            result.failure(work.inputFile, String.valueOf(e.getMessage()));
+        } catch (StackOverflowError e) {
+            result.failure(work.inputFile, e.getClass().getSimpleName());
+        }
+        return false;
+    }
+
+    /**
+     * Records the outcome of a member that went through all the stages.
+     */
+    private void complete(Work work, BatchResult result) {
+        if (cache != null) {
+            cache.store(work.inputFile, work.key);
+        }
+        if (work.context.getIssues().isEmpty()) {
+            result.success(work.inputFile);
+        } else {
+            result.partial(work.inputFile, work.context.getIssues().size());
+        }
+    }
+
+    /**
+     * Prints the statistics of the stages in the last run: the members each converted, and the
+     * shares of the time of its workers spent converting, waiting for the previous stage and
+     * waiting for the next one. The stage with the highest utilization is the one to give
+     * more threads to.
+     *
+     * @param out The stream the statistics are printed to.
+     */
+    public void printUtilization(PrintStream out) {
+        out.println("Stage utilization:");
+        for (Stage stage : stages) {
+            out.printf("  %-10s %3d threads %7d members  busy %3.0f%%  starved %3.0f%%  blocked %3.0f%%%n",
+                    stage.name, stage.threads, stage.getMembers(),
+                    stage.getUtilization() * 100, stage.getStarved() * 100, stage.getBlocked() * 100);
+        }
+    }
+}
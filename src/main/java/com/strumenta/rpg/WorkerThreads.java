@@ -0,0 +1,40 @@
+package com.strumenta.rpg;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the pools of worker threads of the runners and of the server. Each worker can
+ * run a warm-up before its first task, such as parsing a sample member, so that the state
+ * kept per thread, like the parsers of {@link com.strumenta.rpg.transform.SourceToModel},
+ * is ready before the real work reaches the thread.
+ */
+final class WorkerThreads {
+
+    private WorkerThreads() {
+    }
+
+    /**
+     * Creates a fixed pool of worker threads.
+     *
+     * @param threads The number of threads.
+     * @param warmUp  The warm-up every thread runs when it starts, or null for none; a failed
+     *                warm-up only leaves the thread cold, it runs its tasks all the same.
+     * @return The pool of threads.
+     */
+    static ExecutorService newPool(int threads, Runnable warmUp) {
+        if (warmUp == null) {
+            return Executors.newFixedThreadPool(threads);
+        }
+        ThreadFactory factory = Executors.defaultThreadFactory();
+        return Executors.newFixedThreadPool(threads, worker -> factory.newThread(() -> {
+            try {
+                warmUp.run();
+            } catch (RuntimeException e) {
+                // Without its tasks the pool would never terminate
+            }
+            worker.run();
+        }));
+    }
+}
@@ -0,0 +1,253 @@
+package com.strumenta.rpg.transform;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A {@link DiagramSink} writing the files of the diagrams of a whole run into a single
+ * ZIP archive (a JAR is the same format), for the file systems where creating thousands
+ * of small files costs more than generating them. The archive is written as one sequential
+ * stream to a temporary file next to it, which replaces the archive when the run is
+ * {@link #commit committed}. Closing a sink that was not committed, for example because
+ * the run failed, deletes the temporary file and leaves the previous archive as it was,
+ * so the sink is meant to be used in a try-with-resources statement.
+ * <p>
+ * Each file is kept in memory until its writer is closed and then written as an entry,
+ * so the sink can be shared by the workers of a batch run. An entry can only be written
+ * once per run: writing it again fails. The archive holds a manifest, {@value #MANIFEST},
+ * mapping every member to the names of its entries.
+ * When the archive already exists, the run updates it: the entries the run does not write
+ * again or remove, such as those of the members skipped by the cache, are copied from the
+ * previous archive when the sink is committed.
+ */
+public class ArchiveSink implements DiagramSink, Closeable {
+
+    /**
+     * The name of the manifest entry: a properties file mapping each member to the
+     * comma-separated names of its entries.
+     */
+    public static final String MANIFEST = "manifest.properties";
+
+    private final Path archive;
+    private final Path temporary;
+    private ZipOutputStream zip;
+    private boolean closed;
+    private final Map<String, Set<String>> members = new TreeMap<>();
+    private final Set<String> previous = new HashSet<>();
+    private final Set<String> written = new HashSet<>();
+    private final Set<String> removed = new HashSet<>();
+
+    /**
+     * Constructs an ArchiveSink, reading the manifest of the archive if it exists. The
+     * temporary file is only created when the first entry is written.
+     *
+     * @param archive The archive the files are written to.
+     * @throws IOException If the existing archive cannot be read.
+     */
+    public ArchiveSink(File archive) throws IOException {
+        this.archive = archive.toPath().toAbsolutePath();
+        this.temporary = this.archive.resolveSibling(this.archive.getFileName() + ".tmp");
+        if (Files.isRegularFile(this.archive)) {
+            try (ZipFile previousArchive = new ZipFile(this.archive.toFile())) {
+                previousArchive.stream().map(ZipEntry::getName).filter(name -> !name.equals(MANIFEST)).forEach(previous::add);
+                ZipEntry manifest = previousArchive.getEntry(MANIFEST);
+                if (manifest != null) {
+                    Properties properties = new Properties();
+                    try (InputStream in = previousArchive.getInputStream(manifest)) {
+                        properties.load(in);
+                    }
+                    for (String member : properties.stringPropertyNames()) {
+                        Set<String> entries = new TreeSet<>(List.of(properties.getProperty(member).split(",")));
+                        entries.retainAll(previous);
+                        members.put(member, entries);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Writer open(String name) {
+        return new StringWriter() {
+            @Override
+            public void close() throws IOException {
+                writeEntry(name, toString().getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    /**
+     * Leaves a file of the previous archive out of the new one. The entries already
+     * written by this run stay in the archive.
+     */
+    @Override
+    public synchronized boolean remove(String name) {
+        if (!previous.contains(name) || removed.contains(name) || written.contains(name)) {
+            return false;
+        }
+        removed.add(name);
+        members.values().forEach(entries -> entries.remove(name));
+        return true;
+    }
+
+    @Override
+    public synchronized void completed(String memberName, List<String> names) {
+        Set<String> entries = members.computeIfAbsent(memberName, member -> new TreeSet<>());
+        for (String name : names) {
+            if (written.contains(name)) {
+                entries.add(name);
+            }
+        }
+    }
+
+    /**
+     * Tells whether the archive holds a file, written by this run or kept from the previous archive.
+     *
+     * @param name The name of the file.
+     * @return True if the file is in the archive.
+     */
+    public synchronized boolean contains(String name) {
+        return written.contains(name) || (previous.contains(name) && !removed.contains(name));
+    }
+
+    /**
+     * Retrieves the members of the archive and the names of their entries.
+     *
+     * @return An unmodifiable view of the manifest.
+     */
+    public synchronized Map<String, Set<String>> getMembers() {
+        return Collections.unmodifiableMap(new TreeMap<>(members));
+    }
+
+    /**
+     * Writes the entries kept from the previous archive and the manifest, and replaces
+     * the previous archive with the new one. Nothing can be written to the sink afterwards.
+     *
+     * @throws IOException If the archive cannot be written or moved in place, or the sink is closed.
+     */
+    public synchronized void commit() throws IOException {
+        ZipOutputStream out = zip();
+        try {
+            if (Files.isRegularFile(archive)) {
+                try (ZipFile previousArchive = new ZipFile(archive.toFile())) {
+                    for (String name : new TreeSet<>(previous)) {
+                        if (!written.contains(name) && !removed.contains(name)) {
+                            out.putNextEntry(new ZipEntry(name));
+                            try (InputStream in = previousArchive.getInputStream(previousArchive.getEntry(name))) {
+                                in.transferTo(out);
+                            }
+                            out.closeEntry();
+                        }
+                    }
+                }
+            }
+            out.putNextEntry(new ZipEntry(MANIFEST));
+            StringBuilder manifest = new StringBuilder();
+            for (Map.Entry<String, Set<String>> member : members.entrySet()) {
+                if (!member.getValue().isEmpty()) {
+                    manifest.append(escape(member.getKey(), true)).append('=')
+                            .append(escape(String.join(",", member.getValue()), false)).append('\n');
+                }
+            }
+            out.write(manifest.toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.closeEntry();
+        } finally {
+            closed = true;
+            out.close();
+        }
+        try {
+            Files.move(temporary, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, archive, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Closes the sink. Unless it was committed, the entries written are discarded with
+     * the temporary file, and the previous archive is left as it was.
+     *
+     * @throws IOException If the temporary file cannot be deleted.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (zip != null) {
+            try {
+                zip.close();
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Writes a file as an entry of the archive.
+     *
+     * @throws IOException If the entry cannot be written, was already written by this run, or the sink is closed.
+     */
+    private synchronized void writeEntry(String name, byte[] content) throws IOException {
+        if (!written.add(name)) {
+            throw new IOException(String.format("The entry %s is written twice to the archive %s", name, archive));
+        }
+        ZipOutputStream out = zip();
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content);
+        out.closeEntry();
+    }
+
+    /**
+     * Retrieves the stream of the new archive, creating the temporary file the first time.
+     */
+    private ZipOutputStream zip() throws IOException {
+        if (closed) {
+            throw new IOException(String.format("The archive %s is closed", archive));
+        }
+        if (zip == null) {
+            zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16));
+        }
+        return zip;
+    }
+
+    /**
+     * Escapes a key or value of the manifest as {@link Properties#store} does, so that the
+     * manifest is sorted by member while still readable by {@link Properties#load}.
+     */
+    private static String escape(String value, boolean key) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '=' || c == ':' || c == '#' || c == '!' || (c == ' ' && (key || i == 0))) {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,50 @@
+package com.strumenta.rpg.transform;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Receives the files making up the diagram of a member: the PlantUML code of its pages,
+ * the index of the pages and the report of the parsing issues. The files are named as
+ * they would be on disk, such as {@code CUS300.rpgle.puml} or {@code CUS300.rpgle.p2.puml},
+ * so that a sink can store them in a directory, an archive or a response.
+ * The files of a member are written by one thread at a time; a sink shared by the workers
+ * of a batch run receives several members at once. {@link FileSink} writes the files to
+ * a directory, {@link ArchiveSink} to a single archive.
+ */
+public interface DiagramSink {
+
+    /**
+     * Opens a file of the diagram. The caller writes the whole file and closes the writer.
+     *
+     * @param name The name of the file.
+     * @return The writer the content of the file is written to.
+     * @throws IOException If the file cannot be created.
+     */
+    Writer open(String name) throws IOException;
+
+    /**
+     * Tells that a file a previous conversion of the member may have produced is not part
+     * of the diagram any longer, such as the page beyond the last one of a diagram that shrank.
+     * Sinks without previous content keep the default, which does nothing.
+     *
+     * @param name The name of the file.
+     * @return True if the file existed and was removed.
+     * @throws IOException If the file cannot be removed.
+     */
+    default boolean remove(String name) throws IOException {
+        return false;
+    }
+
+    /**
+     * Tells that the files of the diagram of a member are all written.
+     * Sinks that do not keep track of the members keep the default, which does nothing.
+     *
+     * @param memberName The name of the member, such as CUS300.rpgle.
+     * @param names      The names of the files opened for the member.
+     * @throws IOException If the sink fails to record the member.
+     */
+    default void completed(String memberName, List<String> names) throws IOException {
+    }
+}
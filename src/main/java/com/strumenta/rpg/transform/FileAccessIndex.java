@@ -0,0 +1,175 @@
+package com.strumenta.rpg.transform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An index of the file accesses of the programs of a library: for every program, the
+ * files it reads and writes and the operations it uses on each, such as READ or UPDATE,
+ * so that questions like "which programs update ORDERS?" are answered without scanning
+ * the library again. {@link ModelToModel} records the file operations of every member
+ * it transforms, at no other cost than adding them to a set.
+ * The index is kept in both directions, from the programs to the files and from the
+ * files to the programs, and saved to a properties file with one key per program,
+ * {@code program.CUS300.rpgle=CUSTMAST:CHAIN+READ,ORDERS:WRITE}, and one per file,
+ * {@code file.ORDERS=CUS300.rpgle:WRITE}, so it can also be searched with text tools.
+ * A program transformed again replaces what the index knew of it; the programs not
+ * transformed by a run, such as the members skipped by the cache, keep their accesses.
+ * Names are looked up regardless of case. All the methods can be called concurrently.
+ */
+public class FileAccessIndex {
+    private static final String PROGRAM = "program.";
+    private static final String FILE = "file.";
+
+    private final Map<String, Map<String, Set<String>>> programs = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Map<String, Set<String>>> files = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Loads the index saved in a file, or creates an empty index if the file does not exist.
+     *
+     * @param indexFile The file the index is stored in.
+     * @return The index.
+     * @throws IOException If the file cannot be read.
+     */
+    public static FileAccessIndex load(Path indexFile) throws IOException {
+        FileAccessIndex index = new FileAccessIndex();
+        if (Files.isRegularFile(indexFile)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(indexFile)) {
+                properties.load(in);
+            }
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith(PROGRAM)) {
+                    index.record(key.substring(PROGRAM.length()), parse(properties.getProperty(key)));
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Records the file accesses of a program, replacing the ones recorded before.
+     *
+     * @param program  The name of the program, that is, of its member.
+     * @param accesses The operations the program uses, by file.
+     */
+    public synchronized void record(String program, Map<String, Set<String>> accesses) {
+        Map<String, Set<String>> previous = programs.remove(program);
+        if (previous != null) {
+            for (String file : previous.keySet()) {
+                Map<String, Set<String>> users = files.get(file);
+                users.remove(program);
+                if (users.isEmpty()) {
+                    files.remove(file);
+                }
+            }
+        }
+        Map<String, Set<String>> row = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, Set<String>> access : accesses.entrySet()) {
+            Set<String> operations = Collections.unmodifiableSet(new TreeSet<>(access.getValue()));
+            row.put(access.getKey(), operations);
+            files.computeIfAbsent(access.getKey(), file -> new TreeMap<>(String.CASE_INSENSITIVE_ORDER)).put(program, operations);
+        }
+        programs.put(program, row);
+    }
+
+    /**
+     * Retrieves the files a program accesses.
+     *
+     * @param program The name of the program.
+     * @return The operations the program uses, by file, empty if the program is not known.
+     */
+    public synchronized Map<String, Set<String>> filesOf(String program) {
+        return copy(programs.get(program));
+    }
+
+    /**
+     * Retrieves the programs accessing a file.
+     *
+     * @param file The name of the file.
+     * @return The operations used on the file, by program, empty if no program accesses it.
+     */
+    public synchronized Map<String, Set<String>> programsOf(String file) {
+        return copy(files.get(file));
+    }
+
+    /**
+     * Retrieves the number of programs in the index.
+     *
+     * @return The number of programs.
+     */
+    public synchronized int size() {
+        return programs.size();
+    }
+
+    /**
+     * Writes the index to a file, replacing the previous one.
+     *
+     * @param indexFile The file the index is stored in.
+     * @throws IOException If the index cannot be written.
+     */
+    public synchronized void save(Path indexFile) throws IOException {
+        Properties properties = new Properties();
+        programs.forEach((program, row) -> properties.setProperty(PROGRAM + program, format(row)));
+        files.forEach((file, users) -> properties.setProperty(FILE + file, format(users)));
+        Path parent = indexFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "RPGtoPUML file access index");
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Classifies an operation as a create, read, update or delete of the records of a file.
+     *
+     * @param operation The operation code, such as CHAIN.
+     * @return C for WRITE, U for UPDATE, D for DELETE and R for the other operations.
+     */
+    public static char crud(String operation) {
+        return switch (operation.toUpperCase()) {
+            case "WRITE" -> 'C';
+            case "UPDATE" -> 'U';
+            case "DELETE" -> 'D';
+            default -> 'R';
+        };
+    }
+
+    private static Map<String, Set<String>> copy(Map<String, Set<String>> map) {
+        return map == null ? Map.of() : Collections.unmodifiableMap(new TreeMap<>(map));
+    }
+
+    private static String format(Map<String, Set<String>> map) {
+        StringBuilder value = new StringBuilder();
+        for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+            if (value.length() > 0) {
+                value.append(',');
+            }
+            value.append(entry.getKey()).append(':').append(String.join("+", entry.getValue()));
+        }
+        return value.toString();
+    }
+
+    private static Map<String, Set<String>> parse(String value) {
+        Map<String, Set<String>> map = new TreeMap<>();
+        for (String entry : value.split(",")) {
+            int colon = entry.lastIndexOf(':');
+            if (colon > 0) {
+                map.put(entry.substring(0, colon), new TreeSet<>(List.of(entry.substring(colon + 1).split("\\+"))));
+            }
+        }
+        return map;
+    }
+}
@@ -0,0 +1,35 @@
+package com.strumenta.rpg.transform;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A {@link DiagramSink} writing the files of a diagram to a directory, in UTF-8.
+ */
+public class FileSink implements DiagramSink {
+
+    private final Path dir;
+
+    /**
+     * Constructs a FileSink writing to the given directory.
+     *
+     * @param dir The directory the files are written to, which must exist.
+     */
+    public FileSink(File dir) {
+        this.dir = dir.toPath();
+    }
+
+    @Override
+    public Writer open(String name) throws IOException {
+        return Files.newBufferedWriter(dir.resolve(name), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean remove(String name) throws IOException {
+        return Files.deleteIfExists(dir.resolve(name));
+    }
+}
@@ -0,0 +1,82 @@
+package com.strumenta.rpg.transform;
+
+import com.strumenta.kolasu.model.Position;
+import com.strumenta.kolasu.validation.Issue;
+import com.strumenta.puml.Json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes the parsing issues of a member to a JSON sidecar file, next to its diagram.
+ * The file contains an array with one object per issue, with its type, message and,
+ * when known, the line and column where it starts.
+ */
+public final class IssuesReport {
+
+    private IssuesReport() {
+    }
+
+    /**
+     * Determines the sidecar file of a diagram.
+     *
+     * @param diagramFile The file the diagram is written to.
+     * @return The file the issues are written to.
+     */
+    public static Path sidecar(Path diagramFile) {
+        String name = diagramFile.getFileName().toString();
+        if (name.endsWith(".puml")) {
+            name = name.substring(0, name.length() - ".puml".length());
+        }
+        return diagramFile.resolveSibling(name + ".issues.json");
+    }
+
+    /**
+     * Brings the sidecar of a diagram up to date with the issues of the member:
+     * writes it if the member has issues, and removes a stale one otherwise.
+     * A diagram rendered from a model file has no source, and keeps its sidecar.
+     *
+     * @param sink        The sink the files of the diagram are written to.
+     * @param diagramName The name of the file the diagram is written to.
+     * @param context     The state of the file being processed.
+     * @throws IOException If the sidecar cannot be written or removed.
+     */
+    public static void update(DiagramSink sink, String diagramName, TransformContext context) throws IOException {
+        if (context.getSource() == null) {
+            return;
+        }
+        String sidecar = sidecar(Path.of(diagramName)).getFileName().toString();
+        if (context.getIssues().isEmpty()) {
+            sink.remove(sidecar);
+        } else {
+            try (Writer writer = sink.open(sidecar)) {
+                write(writer, context.getIssues());
+            }
+        }
+    }
+
+    /**
+     * Writes the issues as JSON.
+     *
+     * @param writer The destination of the JSON, which is not closed.
+     * @param issues The issues to report.
+     * @throws IOException If the JSON cannot be written.
+     */
+    public static void write(Writer writer, List<Issue> issues) throws IOException {
+        writer.write("[\n");
+        for (int i = 0; i < issues.size(); i++) {
+            Issue issue = issues.get(i);
+            writer.write(String.format("  {\"type\": %s, \"message\": %s",
+                    Json.quote(String.valueOf(issue.getType())), Json.quote(issue.getMessage())));
+            Position position = issue.getPosition();
+            if (position != null) {
+                writer.write(String.format(", \"line\": %d, \"column\": %d",
+                        position.getStart().getLine(), position.getStart().getColumn()));
+            }
+            writer.write(i < issues.size() - 1 ? "},\n" : "}\n");
+        }
+        writer.write("]\n");
+    }
+}
@@ -0,0 +1,40 @@
+package com.strumenta.rpg.transform;
+
+import com.strumenta.kolasu.model.Node;
+import com.strumenta.puml.PUMLModelFile;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Transformer loading a PUML model saved by {@link ModelToModelFile}.
+ * It takes the place of {@link SourceToModel} and {@link ModelToModel} at the
+ * start of a pipeline that only renders diagrams again, for example after a
+ * change of the rendering options, so the members are not parsed again.
+ */
+public class ModelFileToModel extends AbstractModelTransformer {
+
+    /**
+     * Reads the PUML model from the input file.
+     *
+     * @param model   Not used, as the model is read from the input file.
+     * @param context The state of the file being processed, providing the model file.
+     * @return The PUML diagram read from the file.
+     * @throws Exception If the input file does not exist or does not contain a PUML model.
+     */
+    @Override
+    public Node transform(Node model, TransformContext context) throws Exception {
+        File inputFile = context.getInputFile();
+        if (inputFile.isFile()) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(inputFile.toPath()))) {
+                return PUMLModelFile.read(in);
+            } catch (IOException e) {
+                throw new Exception(String.format("Invalid model file '%s': %s", inputFile.toPath(), e.getMessage()));
+            }
+        }
+        throw new Exception(String.format("Invalid input file '%s'", inputFile.toPath()));
+    }
+}
@@ -0,0 +1,158 @@
+package com.strumenta.rpg.transform;
+
+import com.strumenta.kolasu.model.Node;
+import com.strumenta.puml.PUMLCodeGenerator;
+import com.strumenta.puml.PUMLDiagram;
+import com.strumenta.puml.PUMLPage;
+import com.strumenta.puml.PUMLPaginator;
+import net.sourceforge.plantuml.FileFormat;
+import net.sourceforge.plantuml.FileFormatOption;
+import net.sourceforge.plantuml.SourceStringReader;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Transformer rendering a PUML model to an image with PlantUML, used as a library
+ * in the same process. The PlantUML code is generated in memory and rendered to
+ * an SVG or PNG file next to where the .puml file would be, so the .puml file is
+ * only written when a {@link ModelToSource} stage is also part of the pipeline.
+ * Rendering uses much more memory than the other stages, so the diagrams are
+ * rendered by a pool of renderer threads, sized independently of the number of
+ * workers running the pipeline, which wait for their images. Diagrams split into
+ * pages give one image per page.
+ */
+public class ModelToImage extends AbstractModelTransformer {
+
+    private static final String WARMUP_DIAGRAM = "@startuml\nA -> B : warm-up\n@enduml\n";
+
+    private final FileFormat format;
+    private final ExecutorService renderers;
+    private final PUMLPaginator paginator;
+    private boolean writesReports = true;
+
+    /**
+     * Constructs a ModelToImage transformer.
+     *
+     * @param format    The format of the images, SVG or PNG.
+     * @param renderers The maximum number of diagrams rendered at the same time.
+     * @param paginator The paginator splitting the diagrams over its budget, or null
+     *                  to render each diagram to a single image.
+     */
+    public ModelToImage(FileFormat format, int renderers, PUMLPaginator paginator) {
+        this.format = format;
+        ThreadFactory factory = Executors.defaultThreadFactory();
+        // The renderers must not keep the application running once the pipeline is done
+        this.renderers = Executors.newFixedThreadPool(renderers, task -> {
+            Thread thread = factory.newThread(task);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.paginator = paginator;
+    }
+
+    /**
+     * Sets whether the page index and the issues report of the members are written next
+     * to the images. A {@link ModelToSource} stage in the same pipeline already writes
+     * them next to the diagrams, so it is turned off in that case.
+     *
+     * @param writesReports True to write the page index and the issues report, the default.
+     */
+    public void setWritesReports(boolean writesReports) {
+        this.writesReports = writesReports;
+    }
+
+    /**
+     * Renders the PUML model to the image file of the member.
+     *
+     * @param model   The PUML model to be rendered.
+     * @param context The state of the file being processed, providing the output location.
+     * @return The original model.
+     * @throws Exception If the model is not a PUMLDiagram, or the image cannot be written.
+     */
+    @Override
+    public Node transform(Node model, TransformContext context) throws Exception {
+        if (model instanceof PUMLDiagram diagram) {
+            File diagramFile = ModelToSource.outputFile(context.getInputFile(), context.getOutputFile());
+            List<PUMLPage> pages = ModelToSource.pages(paginator, diagram);
+            try {
+                for (PUMLPage page : pages) {
+                    StringBuilder code = new StringBuilder();
+                    new PUMLCodeGenerator().generate(page.getDiagram(), ModelToSource.values(context, page), code);
+                    render(code.toString(), imageFile(PageIndex.pageFile(diagramFile, page.getNumber()), format));
+                }
+                if (writesReports) {
+                    FileSink sink = new FileSink(diagramFile.getAbsoluteFile().getParentFile());
+                    PageIndex.update(sink, imageFile(diagramFile, format).getName(), pages);
+                    IssuesReport.update(sink, diagramFile.getName(), context);
+                }
+            } catch (IOException e) {
+                throw new Exception(e.getMessage());
+            }
+            return model;
+        }
+        throw new Exception(String.format("Invalid input Model: %s", model.getClass().getName()));
+    }
+
+    /**
+     * Renders a small diagram, so that PlantUML loads its classes and fonts before
+     * the first real diagram.
+     *
+     * @throws IOException If the diagram cannot be rendered.
+     */
+    public void warmUp() throws IOException {
+        new SourceStringReader(WARMUP_DIAGRAM).outputImage(OutputStream.nullOutputStream(), new FileFormatOption(format));
+    }
+
+    /**
+     * Determines the image file that goes with a diagram: the diagram file with the
+     * extension of the image format instead of the .puml extension.
+     *
+     * @param diagramFile The file the PlantUML code of the member is written to.
+     * @param format      The format of the image.
+     * @return The file the image of the member is written to.
+     */
+    public static File imageFile(File diagramFile, FileFormat format) {
+        String path = diagramFile.getPath();
+        if (path.endsWith(".puml")) {
+            path = path.substring(0, path.length() - ".puml".length());
+        }
+        return new File(path + format.getFileSuffix());
+    }
+
+    /**
+     * Renders a diagram on a renderer thread and waits for the image to be written.
+     */
+    private void render(String code, File imageFile) throws IOException {
+        Future<?> image = renderers.submit(() -> {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(imageFile.toPath()))) {
+                new SourceStringReader(code).outputImage(out, new FileFormatOption(format));
+            }
+            return null;
+        });
+        try {
+            image.get();
+        } catch (InterruptedException e) {
+            image.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to render", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(String.format("Cannot render %s: %s", imageFile.getName(), e.getCause().getMessage()), e.getCause());
+        }
+    }
+}
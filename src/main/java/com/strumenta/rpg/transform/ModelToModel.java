@@ -1,14 +1,29 @@
 package com.strumenta.rpg.transform;
 
 import com.strumenta.kolasu.model.Node;
+import com.strumenta.kolasu.model.Position;
+import com.strumenta.kolasu.validation.Issue;
 import com.strumenta.puml.*;
 import com.strumenta.rpgparser.model.*;
 
 
 import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Stack;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * Transforms a RPG model into a PUML (PlantUML) diagram.
@@ -18,31 +33,396 @@ import java.util.Stack;
  */
 public class ModelToModel extends AbstractModelTransformer {
 
-    private final Stack<String> stack = new Stack<>();
+    /**
+     * The default maximum number of nested subroutine and program expansions.
+     */
+    public static final int DEFAULT_MAX_DEPTH = 64;
+
+    /**
+     * Transforms the RPG statements of one class into PUML statements.
+     */
+    private interface StatementHandler {
+        PUMLStatement transform(ModelToModel transformer, Walk walk, Statement statement);
+    }
+
+    /**
+     * Transforms the RPG expressions of one class into their string representation.
+     */
+    private interface ExpressionHandler {
+        String transform(ModelToModel transformer, Walk walk, Expression expression);
+    }
+
+    /**
+     * The condition and the body of a block, such as a loop or the WHEN of a SELECT, read through
+     * the getters of its class, found once per class. A block whose class has no such getters is
+     * walked through {@link ModelTree}, and described by its source text.
+     */
+    private static final class Block {
+        private final MethodHandle condition;
+        private final MethodHandle body;
+
+        private Block(Class<?> type) {
+            this.condition = ModelTree.getter(type, "getCondition", Expression.class);
+            this.body = ModelTree.getter(type, "getBody", List.class);
+        }
+    }
+
+    /**
+     * The shapes of the blocks by class, for the blocks met within the registered statements, declared
+     * before the registry as the registration of the loops reads them.
+     */
+    private static final ClassValue<Block> blocks = new ClassValue<>() {
+        @Override
+        protected Block computeValue(Class<?> type) {
+            return new Block(type);
+        }
+    };
+
+    private static final HashMap<Class<?>, StatementHandler> statementRegistry = new HashMap<>();
+    private static final HashMap<Class<?>, ExpressionHandler> expressionHandlers = new HashMap<>();
+    private static final EnumMap<ComparisonType, String> operators = new EnumMap<>(ComparisonType.class);
+    private static final Set<String> LOOPS = Set.of("DO", "DOU", "DOW", "DOUEQ", "DOUNE", "DOULT", "DOULE", "DOUGT", "DOUGE",
+            "DOWEQ", "DOWNE", "DOWLT", "DOWLE", "DOWGT", "DOWGE", "FOR", "FOR-EACH");
+    static {
+        statementRegistry.put(InvokeSubroutineStatement.class, (t, walk, s) -> t.transformInvoke(walk, (InvokeSubroutineStatement) s));
+        statementRegistry.put(ConditionIfStatement.class, (t, walk, s) -> t.transformIf(walk, (ConditionIfStatement) s));
+        statementRegistry.put(ConditionDoUntilStatement.class, (t, walk, s) -> t.transformDoUntil(walk, (ConditionDoUntilStatement) s));
+        statementRegistry.put(SetLowerLimitStatement.class, (t, walk, s) -> {
+            SetLowerLimitStatement stmt = (SetLowerLimitStatement) s;
+            return t.transformFileOperation(walk, "SETLL", stmt.getName(), stmt.getSearchArgument());
+        });
+        statementRegistry.put(ReadRecordStatement.class, (t, walk, s) -> t.transformFileOperation(walk, "READ", ((ReadRecordStatement) s).getName(), null));
+        statementRegistry.put(WriteRecordStatement.class, (t, walk, s) -> t.transformFileOperation(walk, "WRITE", ((WriteRecordStatement) s).getName(), null));
+        statementRegistry.put(DeleteRecordStatement.class, (t, walk, s) -> t.transformFileOperation(walk, "DELETE", ((DeleteRecordStatement) s).getName(), null));
+        statementRegistry.put(UpdateRecordStatement.class, (t, walk, s) -> t.transformFileOperation(walk, "UPDATE", ((UpdateRecordStatement) s).getName(), null));
+        // The classes of the other control-flow and file opcodes, by the names they have in the package of the model
+        for (Class<?> type : modelClasses("ConditionDoWhileStatement", "DoWhileStatement")) {
+            registerLoop(type, "WHILE");
+        }
+        for (Class<?> type : modelClasses("ForStatement", "ForLoopStatement")) {
+            registerLoop(type, "FOR");
+        }
+        for (Class<?> type : modelClasses("SelectStatement", "ConditionSelectStatement")) {
+            statementRegistry.put(type, ModelToModel::transformSelect);
+        }
+        for (Class<?> type : modelClasses("ChainStatement", "ChainRecordStatement")) {
+            registerFileOperation(type, "CHAIN");
+        }
+        for (Class<?> type : modelClasses("ReadEqualStatement", "ReadEqualKeyStatement", "ReadEqualRecordStatement")) {
+            registerFileOperation(type, "READE");
+        }
+        for (Class<?> type : modelClasses("ReadPriorStatement", "ReadPriorRecordStatement", "ReadPreviousRecordStatement")) {
+            registerFileOperation(type, "READP");
+        }
+        for (Class<?> type : modelClasses("CallPrototypeStatement", "CallPStatement", "CallProcedureStatement")) {
+            statementRegistry.put(type, ModelToModel::transformCall);
+        }
+
+        expressionHandlers.put(IntLiteral.class, (t, walk, e) -> ((IntLiteral) e).getValue());
+        expressionHandlers.put(DecLiteral.class, (t, walk, e) -> ((DecLiteral) e).getValue());
+        expressionHandlers.put(StringLiteral.class, (t, walk, e) -> ((StringLiteral) e).getValue());
+        expressionHandlers.put(FigurativeConst.class, (t, walk, e) -> ((FigurativeConst) e).getText().toUpperCase());
+        expressionHandlers.put(ReferenceExpr.class, (t, walk, e) -> ((ReferenceExpr) e).getDataDefinition().getName().toUpperCase());
+        expressionHandlers.put(ComparisonExpr.class, (t, walk, e) -> t.transformComparison(walk, (ComparisonExpr) e));
+        expressionHandlers.put(LogicalNegationExpr.class, (t, walk, e) -> String.format("NOT %s", t.transformExpression(walk, ((LogicalNegationExpr) e).getBase())));
+        expressionHandlers.put(BuiltinFunctionCall.class, (t, walk, e) -> t.transformBuiltinCall(walk, (BuiltinFunctionCall) e));
+
+        operators.put(ComparisonType.Equality, "=");
+        operators.put(ComparisonType.Inequality, "!=");
+        operators.put(ComparisonType.LessThan, "<");
+        operators.put(ComparisonType.LessEq, "<=");
+        operators.put(ComparisonType.MoreThan, ">");
+        operators.put(ComparisonType.MoreEq, ">=");
+    }
+
+    /**
+     * The handlers of the statements by class: the registered one or, for the other classes,
+     * one derived from the class the first time it is met, which reads the statement from its source text.
+     */
+    private static final ClassValue<StatementHandler> statementHandlers = new ClassValue<>() {
+        @Override
+        protected StatementHandler computeValue(Class<?> type) {
+            StatementHandler handler = statementRegistry.get(type);
+            if (handler != null) {
+                return handler;
+            }
+            if (ModelTree.CHILDREN.get(type).isEmpty()) {
+                return ModelToModel::transformOperation;
+            }
+            return ModelToModel::transformBlock;
+        }
+    };
+
+    /**
+     * Looks statement classes of the model up by name, once, when the transformer is loaded.
+     *
+     * @param names the simple names the class of an opcode can have.
+     * @return the statement classes found.
+     */
+    private static List<Class<?>> modelClasses(String... names) {
+        List<Class<?>> classes = new ArrayList<>();
+        for (String name : names) {
+            try {
+                Class<?> type = Class.forName(Statement.class.getPackageName() + "." + name, false, Statement.class.getClassLoader());
+                if (Statement.class.isAssignableFrom(type)) {
+                    classes.add(type);
+                }
+            } catch (ClassNotFoundException e) {
+                // Not a name of this version of the parser
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Registers a loop statement class: its condition and body are read through its getters,
+     * found here once for all its statements.
+     */
+    private static void registerLoop(Class<?> type, String loopType) {
+        Block block = blocks.get(type);
+        if (block.body == null) {
+            return;
+        }
+        statementRegistry.put(type, (t, walk, s) -> t.transformLoop(walk, s, loopType, block));
+    }
+
+    /**
+     * Registers a file operation class whose file is read through getName and its key, if it has one,
+     * through getSearchArgument, like {@link SetLowerLimitStatement}.
+     */
+    private static void registerFileOperation(Class<?> type, String opcode) {
+        MethodHandle name = ModelTree.getter(type, "getName", Expression.class);
+        MethodHandle key = ModelTree.getter(type, "getSearchArgument", Expression.class);
+        if (name == null) {
+            return;
+        }
+        statementRegistry.put(type, (t, walk, s) -> t.transformFileOperation(walk, opcode, (Expression) ModelTree.read(s, name),
+                key != null ? (Expression) ModelTree.read(s, key) : null));
+    }
+
+    private final SubroutineExpansion expansion;
+    private final int maxDepth;
+    private ProgramLibrary library;
+    private RecordFormatIndex recordFormats;
+    private FileAccessIndex accessIndex;
 
     /**
-     * Constructs a new ModelToModel transformer with specified input and output files.
+     * The state of a single transformation: the compilation unit being walked,
+     * the name of the module, the index of its subroutines, the call path of the
+     * subroutines being expanded and the bodies of the subroutines already
+     * transformed. Subroutines are keyed by upper case name, as RPG names are
+     * not case-sensitive.
+     * A new Walk is created for every call to {@link #transform}, which keeps
+     * the transformer itself free of per-file state.
+     * The names of the participants, the conditions and the labels repeat many times
+     * in a diagram: they are interned per walk, so that equal strings built from
+     * different parts of the source are kept once for the whole diagram.
+     * The file operations met by the walk are collected for the {@link FileAccessIndex}.
+     * The expansions cut short by a recursion or depth note are counted in the context,
+     * so that a body depending on the call path it was expanded from is not shared with other calls.
+     */
+    private static class Walk {
+        private final String module;
+        private final Map<String, Subroutine> subroutines = new HashMap<>();
+        private final Deque<String> stack = new ArrayDeque<>();
+        private final Set<String> path = new HashSet<>();
+        private final Map<String, List<PUMLStatement>> expanded = new HashMap<>();
+        private final NavigableMap<Integer, List<Issue>> issues = new TreeMap<>();
+        private final Map<String, String> strings = new HashMap<>();
+        private final Map<String, Set<String>> accesses = new TreeMap<>();
+        private final Set<Node> blocks = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final TransformContext context;
+        private Map<String, String> prototypes;
+        private int[] lineStarts;
+
+        private Walk(CompilationUnit cu, String module, TransformContext context) {
+            this.module = module;
+            this.context = context;
+            for (Subroutine sub : cu.getSubroutines()) {
+                subroutines.putIfAbsent(sub.getName().toUpperCase(), sub);
+            }
+            for (Issue issue : context.getIssues()) {
+                int line = issue.getPosition() != null ? issue.getPosition().getStart().getLine() : 0;
+                this.issues.computeIfAbsent(line, l -> new ArrayList<>()).add(issue);
+            }
+        }
+
+        private String participant() {
+            return stack.isEmpty() ? module : stack.peek();
+        }
+
+        /**
+         * Retrieves the instance of a string kept for the diagram, the string itself the first time it is met.
+         *
+         * @return the instance kept for the diagram, or null if the string is null.
+         */
+        private String intern(String value) {
+            if (value == null) {
+                return null;
+            }
+            String known = strings.putIfAbsent(value, value);
+            return known != null ? known : value;
+        }
+
+        /**
+         * Retrieves the source text of a node, from the lines it spans.
+         *
+         * @return the text of the node, or null if the source or the position is not known.
+         */
+        private CharSequence text(Node node) {
+            CharSequence source = context.getSource();
+            Position position = node.getPosition();
+            if (source == null || position == null) {
+                return null;
+            }
+            if (lineStarts == null) {
+                int lines = 1;
+                for (int i = 0; i < source.length(); i++) {
+                    if (source.charAt(i) == '\n') {
+                        lines++;
+                    }
+                }
+                lineStarts = new int[lines];
+                for (int i = 0, line = 1; i < source.length(); i++) {
+                    if (source.charAt(i) == '\n') {
+                        lineStarts[line++] = i + 1;
+                    }
+                }
+            }
+            int first = Math.max(position.getStart().getLine(), 1) - 1;
+            int last = Math.min(position.getEnd().getLine(), lineStarts.length);
+            if (first >= last) {
+                return null;
+            }
+            return source.subSequence(lineStarts[first], last < lineStarts.length ? lineStarts[last] : source.length());
+        }
+
+        /**
+         * Retrieves the exact source text of a node, from its start to its end column,
+         * with the line breaks and repeated blanks collapsed to single blanks.
+         *
+         * @return the text of the node, or null if the source or the position is not known.
+         */
+        private String exactText(Node node) {
+            CharSequence lines = text(node);
+            Position position = node.getPosition();
+            if (lines == null) {
+                return null;
+            }
+            int endLine = position.getEnd().getLine() - position.getStart().getLine();
+            int end = lines.length();
+            int lineStart = 0;
+            for (int line = 0; line < endLine; line++) {
+                int next = indexOf(lines, '\n', lineStart);
+                if (next < 0) {
+                    break;
+                }
+                lineStart = next + 1;
+            }
+            end = Math.min(end, lineStart + position.getEnd().getColumn());
+            int start = Math.min(position.getStart().getColumn(), end);
+            String text = lines.subSequence(start, end).toString().replaceAll("\\s+", " ").trim();
+            return text.isEmpty() ? null : text;
+        }
+
+        /**
+         * Reads the operation and the operands of a statement from its source text.
+         *
+         * @return the operation of the statement, or null if its text is not known.
+         */
+        private StatementText statementText(Node node) {
+            CharSequence text = text(node);
+            return text != null ? StatementText.parse(text) : null;
+        }
+
+        private static int indexOf(CharSequence text, char c, int from) {
+            for (int i = from; i < text.length(); i++) {
+                if (text.charAt(i) == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private Map<String, String> prototypes() {
+            if (prototypes == null) {
+                prototypes = context.getSource() != null ? ProgramCalls.prototypes(context.getSource()) : Map.of();
+            }
+            return prototypes;
+        }
+    }
+
+    /**
+     * Constructs a new ModelToModel transformer that shows the whole body
+     * of a subroutine at every call.
+     */
+    public ModelToModel() {
+        this(SubroutineExpansion.INLINE, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Constructs a new ModelToModel transformer with the given way of drawing subroutine calls.
      *
-     * @param inputFile  the file to be transformed.
-     * @param outputFile the file where the transformed output will be written.
+     * @param expansion how the calls to a subroutine are drawn.
+     * @param maxDepth  the maximum number of nested subroutine and program expansions; deeper calls
+     *                  are drawn without their body.
      */
-    public ModelToModel(File inputFile, File outputFile) {
-        super(inputFile, outputFile);
+    public ModelToModel(SubroutineExpansion expansion, int maxDepth) {
+        this.expansion = expansion;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Sets the library used to follow calls to other programs.
+     * When a library is set, a program call is drawn as an invocation of the called
+     * program and, if the program is in the library, shows the diagram of that program.
+     * The library must be set before the transformer is used.
+     *
+     * @param library the library of the called programs, or null to ignore program calls.
+     */
+    public void setProgramLibrary(ProgramLibrary library) {
+        this.library = library;
+    }
+
+    /**
+     * Sets the index used to resolve the record formats named by file I/O statements.
+     * When an index is set, the I/O on a record format is drawn on the lifeline of
+     * the file declaring it, so all the I/O of a file is grouped on one participant.
+     * The index must be set before the transformer is used.
+     *
+     * @param recordFormats the index of the record formats, or null to draw the names as written.
+     */
+    public void setRecordFormatIndex(RecordFormatIndex recordFormats) {
+        this.recordFormats = recordFormats;
+    }
+
+    /**
+     * Sets the index the file operations of the transformed members are recorded in.
+     * The members are recorded by the name of their file, and so are the programs
+     * transformed when following the calls, see {@link ProgramLibrary}.
+     * The index must be set before the transformer is used.
+     *
+     * @param accessIndex the index of the file accesses, or null to record nothing.
+     */
+    public void setFileAccessIndex(FileAccessIndex accessIndex) {
+        this.accessIndex = accessIndex;
     }
 
     /**
      * Transforms a given RPG model into a PUML diagram.
      *
-     * @param model the RPG model to be transformed.
+     * @param model   the RPG model to be transformed.
+     * @param context the state of the file being processed.
      * @return the AST representing the PUML diagram.
      * @throws Exception if the transformation fails.
      */
     @Override
-    public Node transform(Node model) throws Exception {
+    public Node transform(Node model, TransformContext context) throws Exception {
         PUMLDiagram target = new PUMLDiagram();
-        String file = inputFile.getName();
+        String file = context.getInputFile().getName();
         if (model instanceof CompilationUnit) {
             CompilationUnit cu = (CompilationUnit) model;
+            Walk walk = new Walk(cu, file, context);
             // RPG code contains an initialization routine it is executed first
             for (Subroutine s : cu.getSubroutines()) {
                 if (s.isInitializationSubroutine()) {
@@ -52,8 +432,15 @@ public class ModelToModel extends AbstractModelTransformer {
                 }
             }
             // Process the main statements
-            for (Statement s : cu.getMainStatements()) {
-                target.add(transformStatement(cu, s));
+            for (PUMLStatement s : transformStatements(walk, cu.getMainStatements(), 0)) {
+                target.add(s);
+            }
+            // Issues outside of the transformed statements are reported at the end
+            for (PUMLStatement s : issueNotes(walk, 0, Integer.MAX_VALUE)) {
+                target.add(s);
+            }
+            if (accessIndex != null) {
+                accessIndex.record(file, walk.accesses);
             }
             return target;
         }
@@ -62,123 +449,435 @@ public class ModelToModel extends AbstractModelTransformer {
     }
 
     /**
-     * Transforms an RPG statement into a PUML statement.
+     * Transforms a list of RPG statements into PUML statements.
+     * When the model comes from a source with parsing issues, each issue is marked
+     * with a note placed where the issue is: before the first statement that follows
+     * it, or after the statement that contains it if no nested statement does.
+     *
+     * @param walk       the state of the transformation the statements belong to.
+     * @param statements the RPG statements to be transformed.
+     * @param from       the first line of the code the statements belong to.
+     * @return the transformed PUML statements.
+     */
+    private List<PUMLStatement> transformStatements(Walk walk, List<Statement> statements, int from) {
+        List<PUMLStatement> target = new ArrayList<>(statements.size());
+        for (Statement s : statements) {
+            Position position = walk.issues.isEmpty() ? null : s.getPosition();
+            if (position != null) {
+                target.addAll(issueNotes(walk, from, position.getStart().getLine() - 1));
+            }
+            target.add(transformStatement(walk, s));
+            if (position != null) {
+                target.addAll(issueNotes(walk, position.getStart().getLine(), position.getEnd().getLine()));
+                from = position.getEnd().getLine() + 1;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Creates the notes of the issues in the given lines that were not reported yet.
+     *
+     * @param walk the state of the transformation.
+     * @param from the first line whose issues are reported.
+     * @param to   the last line whose issues are reported.
+     * @return a note for each reported issue.
+     */
+    private List<PUMLStatement> issueNotes(Walk walk, int from, int to) {
+        if (walk.issues.isEmpty() || from > to) {
+            return List.of();
+        }
+        List<PUMLStatement> notes = new ArrayList<>();
+        NavigableMap<Integer, List<Issue>> reported = walk.issues.subMap(from, true, to, true);
+        for (Map.Entry<Integer, List<Issue>> entry : reported.entrySet()) {
+            for (Issue issue : entry.getValue()) {
+                String message = String.valueOf(issue.getMessage()).replaceAll("\\s+", " ");
+                notes.add(new PUMLNote(walk.participant(), String.format("<color:red>not parsed</color> line %d: %s", entry.getKey(), message)));
+            }
+        }
+        reported.clear();
+        return notes;
+    }
+
+    /**
+     * Retrieves the first line of a node, or 0 if its position is not known.
+     */
+    private static int startLine(Node node) {
+        Position position = node.getPosition();
+        return position != null ? position.getStart().getLine() : 0;
+    }
+
+    /**
+     * Resolves the participant of a file I/O statement.
      *
-     * @param cu        the CompilationUnit associated with the statement.
+     * @param reference the file or record format named by the statement.
+     * @return the file declaring the record format, if known, or the reference itself.
+     */
+    private String recordFile(String reference) {
+        return recordFormats != null ? recordFormats.file(reference) : reference;
+    }
+
+    /**
+     * Transforms an RPG statement into a PUML statement, with the handler registered
+     * for its class or, for the classes without one, the handler derived from the
+     * structure of the class the first time one of its statements is met.
+     *
+     * @param walk      the state of the transformation the statement belongs to.
      * @param statement the RPG statement to be transformed.
      * @return the transformed PUML statement.
      */
-    private PUMLStatement transformStatement(CompilationUnit cu, Statement statement) {
-        String file = inputFile.getName();
-        if (!stack.isEmpty()) {
-            file = stack.peek();
+    private PUMLStatement transformStatement(Walk walk, Statement statement) {
+        return statementHandlers.get(statement.getClass()).transform(this, walk, statement);
+    }
+
+    private PUMLStatement transformInvoke(Walk walk, InvokeSubroutineStatement stmt) {
+        String name = walk.intern(stmt.getSubroutine().getName());
+        PUMInvoke subroutine = new PUMInvoke(walk.participant(), name, name, List.of());
+        Subroutine sub = walk.subroutines.get(name.toUpperCase());
+        if (sub != null) {
+            subroutine.addAll(expandSubroutine(walk, name, sub));
         }
-        if (statement instanceof InvokeSubroutineStatement stmt) {
-            PUMInvoke subroutine = new PUMInvoke(file, stmt.getSubroutine().getName(), stmt.getSubroutine().getName(), List.of());
+        return subroutine;
+    }
 
-            for (Subroutine sub : cu.getSubroutines()) {
-                if (stmt.getSubroutine().getName().equalsIgnoreCase(sub.getName())) {
-                    stack.push(stmt.getSubroutine().getName());
-                    for (Statement s : sub.getStatements()) {
-                        subroutine.getBody().add(transformStatement(cu, s));
-                    }
-                    stack.pop();
-                }
+    private PUMLStatement transformIf(Walk walk, ConditionIfStatement stmt) {
+        String condition = walk.intern(transformExpression(walk, stmt.getCondition()));
+        PUMLIf ifThen = new PUMLIf(condition);
+        ifThen.getBody().addAll(transformStatements(walk, stmt.getThenBody(), startLine(stmt)));
+        // ELSEIF and ELSE are found in the other blocks of the statement
+        List<Node> branches = new ArrayList<>();
+        ModelTree.forEachChild(stmt, "getThenBody", branches::add);
+        ModelTree.sort(branches);
+        List<Statement> elseBody = new ArrayList<>();
+        for (Node branch : branches) {
+            if (branch instanceof Statement s) {
+                elseBody.add(s);
+            } else {
+                ifThen.getElseBranches().add(transformClause(walk, branch, "ELSEIF", "ELSE"));
             }
-            return subroutine;
         }
+        if (!elseBody.isEmpty()) {
+            PUMLGroup group = new PUMLGroup("ELSE");
+            group.getBody().addAll(transformStatements(walk, elseBody, startLine(elseBody.get(0))));
+            ifThen.getElseBranches().add(group);
+        }
+        return ifThen;
+    }
+
+    private PUMLStatement transformDoUntil(Walk walk, ConditionDoUntilStatement stmt) {
+        String condition = walk.intern(transformExpression(walk, stmt.getCondition()));
+        PUMLoop loop = new PUMLoop("UNTIL", condition);
+        loop.getBody().addAll(transformStatements(walk, stmt.getBody(), startLine(stmt)));
+        return loop;
+    }
 
-        if (statement instanceof ConditionIfStatement stmt) {
-            String condition = transformExpression(stmt.getCondition());
-            PUMLIf ifThen = new PUMLIf(condition);
-            for (Statement body : stmt.getThenBody()) {
-                ifThen.getBody().add(transformStatement(cu, body));
+    private PUMLStatement transformLoop(Walk walk, Statement stmt, String type, Block block) {
+        Expression condition = block.condition != null ? (Expression) ModelTree.read(stmt, block.condition) : null;
+        PUMLoop loop = new PUMLoop(type, walk.intern(condition != null ? transformExpression(walk, condition) : operands(walk, stmt)));
+        loop.getBody().addAll(transformBody(walk, stmt, block));
+        return loop;
+    }
+
+    /**
+     * Transforms a SELECT into a group holding a group for each of its WHEN and its OTHER.
+     */
+    private PUMLStatement transformSelect(Walk walk, Statement stmt) {
+        List<Node> clauses = new ArrayList<>();
+        ModelTree.forEachChild(stmt, clauses::add);
+        ModelTree.sort(clauses);
+        PUMLGroup select = new PUMLGroup("SELECT");
+        List<Statement> other = new ArrayList<>();
+        for (Node clause : clauses) {
+            if (clause instanceof Statement s) {
+                other.add(s);
+            } else {
+                select.getBody().add(transformClause(walk, clause, "WHEN", "OTHER"));
             }
-            return ifThen;
         }
+        if (!other.isEmpty()) {
+            PUMLGroup group = new PUMLGroup("OTHER");
+            group.getBody().addAll(transformStatements(walk, other, startLine(other.get(0))));
+            select.getBody().add(group);
+        }
+        return select;
+    }
 
-        if (statement instanceof ConditionDoUntilStatement stmt) {
-            String condition = transformExpression(stmt.getCondition());
-            PUMLoop loop = new PUMLoop("UNTIL", condition);
-            for (Statement body : stmt.getBody()) {
-                loop.getBody().add(transformStatement(cu, body));
-            }
+    /**
+     * Transforms a clause of a statement, such as an ELSEIF or a WHEN, into a group labeled
+     * with its keyword and condition, or with the keyword for the clause without condition.
+     */
+    private PUMLGroup transformClause(Walk walk, Node clause, String conditional, String otherwise) {
+        Block block = blocks.get(clause.getClass());
+        String label;
+        if (block.condition != null) {
+            Expression condition = (Expression) ModelTree.read(clause, block.condition);
+            label = condition != null ? walk.intern(conditional + " " + transformExpression(walk, condition)) : otherwise;
+        } else if (block.body != null) {
+            label = otherwise;
+        } else {
+            label = label(walk, clause);
+        }
+        PUMLGroup group = new PUMLGroup(label);
+        group.getBody().addAll(transformBody(walk, clause, block));
+        return group;
+    }
+
+    /**
+     * Transforms the body of a block read through its getter or, if its class has none, its nested nodes.
+     */
+    @SuppressWarnings("unchecked")
+    private List<PUMLStatement> transformBody(Walk walk, Node node, Block block) {
+        if (block.body == null) {
+            return transformChildren(walk, node);
+        }
+        List<Statement> body = (List<Statement>) ModelTree.read(node, block.body);
+        return body != null ? transformStatements(walk, body, startLine(node)) : List.of();
+    }
+
+    private PUMLStatement transformFileOperation(Walk walk, String opcode, Expression name, Expression key) {
+        String reference = walk.intern(transformExpression(walk, name));
+        List<String> params = key != null ? List.of(walk.intern(transformExpression(walk, key)), reference) : List.of(reference);
+        String file = walk.intern(recordFile(reference));
+        walk.accesses.computeIfAbsent(file, f -> new TreeSet<>()).add(opcode);
+        return new PUMInvoke(walk.participant(), file, opcode, params);
+    }
+
+    /**
+     * Transforms a statement of a class without a specific handler that contains other
+     * statements, such as a loop, a SELECT or a MONITOR: the block is drawn as a loop
+     * or a group labeled with its operation, and the blocks nested in it, such as the
+     * WHEN and OTHER of a SELECT, as groups within it.
+     */
+    private PUMLStatement transformBlock(Walk walk, Statement statement) {
+        StatementText text = walk.statementText(statement);
+        List<PUMLStatement> body = transformChildren(walk, statement);
+        if (text != null && LOOPS.contains(text.opcode())) {
+            String label = text.label();
+            PUMLoop loop = new PUMLoop(walk.intern(text.opcode()), walk.intern(label.substring(text.opcode().length()).trim()));
+            loop.getBody().addAll(body);
             return loop;
         }
+        PUMLGroup group = new PUMLGroup(label(walk, statement));
+        group.getBody().addAll(body);
+        return group;
+    }
 
-        if (statement instanceof SetLowerLimitStatement stmt) {
-            String searchArg = transformExpression(stmt.getSearchArgument());
-            String reference = transformExpression(stmt.getName());
-            return new PUMInvoke(file, reference, "SETLL", List.of(searchArg, reference));
+    /**
+     * Transforms a statement of a class without a specific handler that contains no
+     * other statements: file operations and program calls are recognized from the
+     * text of the statement, everything else is left out of the diagram. Only the
+     * operations on records are recorded in the {@link FileAccessIndex}: EXFMT, OPEN,
+     * CLOSE and the other file controls are drawn but not counted as reads.
+     */
+    private PUMLStatement transformOperation(Walk walk, Statement statement) {
+        StatementText text = walk.statementText(statement);
+        String file = text != null ? text.file() : null;
+        if (file != null) {
+            String key = walk.intern(text.key());
+            String reference = walk.intern(file.toUpperCase(Locale.ROOT));
+            String recordFile = walk.intern(recordFile(reference));
+            if (text.isRecordOperation()) {
+                walk.accesses.computeIfAbsent(recordFile, f -> new TreeSet<>()).add(text.opcode());
+            }
+            return new PUMInvoke(walk.participant(), recordFile, walk.intern(text.opcode()),
+                    key != null ? List.of(key, reference) : List.of(reference));
         }
+        return transformCall(walk, statement);
+    }
 
-        if (statement instanceof ReadRecordStatement stmt) {
-            String reference = transformExpression(stmt.getName());
-            return new PUMInvoke(file, reference, "READ", List.of(reference));
+    /**
+     * Transforms a statement that can call another program, such as a CALLP: the call is drawn
+     * when a library is set and the statement calls a program, otherwise nothing is drawn.
+     */
+    private PUMLStatement transformCall(Walk walk, Statement statement) {
+        if (library != null) {
+            PUMLStatement call = transformProgramCall(walk, statement, walk.participant());
+            if (call != null) {
+                return call;
+            }
         }
+        return new PUMLEmpty();
+    }
 
-        if (statement instanceof WriteRecordStatement stmt) {
-            String reference = transformExpression(stmt.getName());
-            return new PUMInvoke(file, reference, "WRITE", List.of(reference));
+    /**
+     * Transforms the nodes nested in a node, in source order: statements are transformed
+     * as usual, the other nodes holding statements become groups labeled with their text.
+     * A node reached again through its own children, such as a property pointing back to
+     * the enclosing block, is left out instead of being walked forever.
+     */
+    private List<PUMLStatement> transformChildren(Walk walk, Node node) {
+        if (!walk.blocks.add(node)) {
+            return List.of();
         }
-        if (statement instanceof DeleteRecordStatement stmt) {
-            String reference = transformExpression(stmt.getName());
-            return new PUMInvoke(file, reference, "DELETE", List.of(reference));
+        List<Node> children = new ArrayList<>();
+        ModelTree.forEachChild(node, children::add);
+        children.removeIf(walk.blocks::contains);
+        ModelTree.sort(children);
+        List<PUMLStatement> target = new ArrayList<>();
+        List<Statement> statements = new ArrayList<>();
+        for (Node child : children) {
+            if (child instanceof Statement s) {
+                statements.add(s);
+                continue;
+            }
+            target.addAll(transformStatements(walk, statements, startLine(node)));
+            statements.clear();
+            PUMLGroup group = new PUMLGroup(label(walk, child));
+            group.getBody().addAll(transformChildren(walk, child));
+            target.add(group);
         }
-        if (statement instanceof UpdateRecordStatement stmt) {
-            String reference = transformExpression(stmt.getName());
-            return new PUMInvoke(file, reference, "UPDATE", List.of(reference));
+        target.addAll(transformStatements(walk, statements, startLine(node)));
+        walk.blocks.remove(node);
+        return target;
+    }
+
+    /**
+     * Describes the operands of a statement whose class does not tell them, such as the
+     * index and limits of a FOR, from its source text.
+     */
+    private static String operands(Walk walk, Node node) {
+        StatementText text = walk.statementText(node);
+        return text != null ? text.label().substring(text.opcode().length()).trim() : "";
+    }
+
+    /**
+     * Describes a block by the operation and operands of its first line or, if its text
+     * is not known, by the name of its class.
+     */
+    private static String label(Walk walk, Node node) {
+        StatementText text = walk.statementText(node);
+        if (text != null) {
+            return walk.intern(text.label());
         }
-        return new PUMLEmpty();
+        String name = node.getClass().getSimpleName();
+        return walk.intern(name.endsWith("Statement") ? name.substring(0, name.length() - "Statement".length()) : name);
     }
 
     /**
-     * Transforms an RPG expression into its string representation.
+     * Transforms a call to another program, if the statement is one.
+     * The call shows the diagram of the called program when it is in the library,
+     * unless the program is already on the chain of calls being expanded or the
+     * chain has reached the maximum depth.
      *
-     * @param expression the RPG expression to be transformed.
-     * @return the string representation of the expression.
+     * @param walk      the state of the transformation the statement belongs to.
+     * @param statement the RPG statement to be transformed.
+     * @param file      the participant making the call.
+     * @return the invocation of the called program, or null if the statement is not a program call.
      */
-    private String transformExpression(Expression expression) {
-        if (expression instanceof IntLiteral expr) {
-            return expr.getValue();
+    private PUMLStatement transformProgramCall(Walk walk, Statement statement, String file) {
+        CharSequence text = walk.text(statement);
+        String program = text != null ? ProgramCalls.target(text, walk.prototypes()) : null;
+        if (program == null) {
+            return null;
+        }
+        File member = library.member(program);
+        PUMInvoke call = new PUMInvoke(file, walk.intern(member != null ? member.getName() : program), "CALL", List.of());
+        if (member == null) {
+            return call;
         }
-        if (expression instanceof DecLiteral expr) {
-            return expr.getValue();
+        if (walk.context.getProgramPath().contains(program)) {
+            walk.context.addTruncation();
+            call.add(new PUMLNote(call.getReceiver(), "recursive call"));
+        } else if (depthReached(walk)) {
+            walk.context.addTruncation();
+            call.add(new PUMLNote(call.getReceiver(), String.format("expansion depth limit (%d) reached", maxDepth)));
+        } else {
+            try {
+                call.addAll(library.statements(program, walk.context));
+            } catch (Exception e) {
+                call.add(new PUMLNote(call.getReceiver(), String.format("not expanded: %s", String.valueOf(e.getMessage()).replaceAll("\\s+", " "))));
+            }
+        }
+        return call;
+    }
+
+    /**
+     * Transforms the body of a subroutine, once per compilation unit.
+     * The first call transforms the statements of the subroutine and keeps the result:
+     * the following calls share it, or get a reference to it when the expansion
+     * mode is {@link SubroutineExpansion#REFERENCE}.
+     * A call to a subroutine that is already on the call path, or beyond the maximum
+     * depth, is not expanded: its body is replaced by a note. A body containing such a
+     * note, at any depth, depends on the path it was expanded from, so it is not kept
+     * and the next call expands the subroutine again.
+     *
+     * @param walk       the state of the transformation the call belongs to.
+     * @param name       the name of the subroutine, as written in the call.
+     * @param subroutine the subroutine being called.
+     * @return the PUML statements that make up the body of the call.
+     */
+    private List<PUMLStatement> expandSubroutine(Walk walk, String name, Subroutine subroutine) {
+        String key = subroutine.getName().toUpperCase();
+        if (walk.path.contains(key)) {
+            walk.context.addTruncation();
+            return List.of(new PUMLNote(name, "recursive call"));
         }
-        if (expression instanceof StringLiteral expr) {
-            return expr.getValue();
+        List<PUMLStatement> body = walk.expanded.get(key);
+        if (body != null) {
+            if (expansion == SubroutineExpansion.REFERENCE) {
+                return List.of(new PUMLRef(name, name));
+            }
+            return body;
         }
-        if (expression instanceof FigurativeConst expr) {
-            return expr.getText().toUpperCase();
+        if (depthReached(walk)) {
+            walk.context.addTruncation();
+            return List.of(new PUMLNote(name, String.format("expansion depth limit (%d) reached", maxDepth)));
         }
-        if (expression instanceof ReferenceExpr expr) {
-            return expr.getDataDefinition().getName().toUpperCase();
+        int truncations = walk.context.getTruncations();
+        walk.stack.push(name);
+        walk.path.add(key);
+        body = transformStatements(walk, subroutine.getStatements(), startLine(subroutine));
+        walk.path.remove(key);
+        walk.stack.pop();
+        if (walk.context.getTruncations() == truncations) {
+            walk.expanded.put(key, body);
         }
+        return body;
+    }
 
-        if (expression instanceof ComparisonExpr expr) {
-            Map<ComparisonType, String> operators = Map.of(
-                    ComparisonType.Equality, "=",
-                    ComparisonType.Inequality, "!=",
-                    ComparisonType.LessThan, "<",
-                    ComparisonType.LessEq, "<=",
-                    ComparisonType.MoreThan, ">",
-                    ComparisonType.MoreEq, ">="
-            );
+    /**
+     * Tells whether one more expansion would go beyond the maximum depth. The depth counts
+     * the subroutines and the called programs being expanded together, from the entry
+     * member, so both kinds of calls stop at the same level.
+     *
+     * @param walk the state of the transformation the call belongs to.
+     * @return true if the call must be drawn without its body.
+     */
+    private boolean depthReached(Walk walk) {
+        return walk.context.getProgramPath().size() - 1 + walk.stack.size() >= maxDepth;
+    }
 
-            return String.format("%s %s %s", transformExpression(expr.getLeft()), operators.get(expr.getComparisonType()), transformExpression(expr.getRight()));
+    /**
+     * Transforms an RPG expression into its string representation, with the handler
+     * registered for its class. The expressions without a handler are shown as written
+     * in the source, or as ??? if the source is not known.
+     *
+     * @param walk       the state of the transformation the expression belongs to.
+     * @param expression the RPG expression to be transformed.
+     * @return the string representation of the expression.
+     */
+    private String transformExpression(Walk walk, Expression expression) {
+        ExpressionHandler handler = expressionHandlers.get(expression.getClass());
+        if (handler != null) {
+            return handler.transform(this, walk, expression);
         }
+        String text = walk.exactText(expression);
+        return text != null ? text : "???";
+    }
 
-        if (expression instanceof LogicalNegationExpr expr) {
-            return String.format("NOT %s", transformExpression(expr.getBase()));
-        }
+    private String transformComparison(Walk walk, ComparisonExpr expr) {
+        return String.format("%s %s %s", transformExpression(walk, expr.getLeft()), operators.get(expr.getComparisonType()), transformExpression(walk, expr.getRight()));
+    }
 
-        if (expression instanceof BuiltinFunctionCall expr) {
-            List<String> args = expr.getParams().stream()
-                    .map(this::transformExpression)
-                    .toList();
-            return String.format("%s(%s)", expr.getFunctionName().toUpperCase(), String.join(",", args));
+    private String transformBuiltinCall(Walk walk, BuiltinFunctionCall expr) {
+        StringBuilder call = new StringBuilder(expr.getFunctionName().toUpperCase()).append('(');
+        List<Expression> params = expr.getParams();
+        for (int i = 0; i < params.size(); i++) {
+            if (i > 0) {
+                call.append(',');
+            }
+            call.append(transformExpression(walk, params.get(i)));
         }
-
-        return "???";
+        return call.append(')').toString();
     }
 }
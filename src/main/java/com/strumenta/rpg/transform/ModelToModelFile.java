@@ -0,0 +1,57 @@
+package com.strumenta.rpg.transform;
+
+import com.strumenta.kolasu.model.Node;
+import com.strumenta.puml.PUMLDiagram;
+import com.strumenta.puml.PUMLModelFile;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * Transformer saving the PUML model of a member to a model file next to its diagram.
+ * The model is passed on unchanged, so this stage can be placed right before
+ * {@link ModelToSource}. The saved model can then be rendered again by a pipeline
+ * starting with {@link ModelFileToModel}, without parsing the member again.
+ */
+public class ModelToModelFile extends AbstractModelTransformer {
+
+    /**
+     * Writes the PUML model to the model file of the member.
+     *
+     * @param model   The PUML model to be saved.
+     * @param context The state of the file being processed, providing the output location.
+     * @return The original model.
+     * @throws Exception If the model is not a PUMLDiagram, or the model file cannot be written.
+     */
+    @Override
+    public Node transform(Node model, TransformContext context) throws Exception {
+        if (model instanceof PUMLDiagram diagram) {
+            File modelFile = modelFile(ModelToSource.outputFile(context.getInputFile(), context.getOutputFile()));
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(modelFile.toPath()))) {
+                PUMLModelFile.write(diagram, out);
+            } catch (IOException e) {
+                throw new Exception(e.getMessage());
+            }
+            return model;
+        }
+        throw new Exception(String.format("Invalid input Model: %s", model.getClass().getName()));
+    }
+
+    /**
+     * Determines the model file that goes with a diagram: the diagram file with
+     * the model extension instead of the .puml extension.
+     *
+     * @param diagramFile The file the PlantUML code of the member is written to.
+     * @return The file the model of the member is written to.
+     */
+    public static File modelFile(File diagramFile) {
+        String path = diagramFile.getPath();
+        if (path.endsWith(".puml")) {
+            path = path.substring(0, path.length() - ".puml".length());
+        }
+        return new File(path + PUMLModelFile.EXTENSION);
+    }
+}
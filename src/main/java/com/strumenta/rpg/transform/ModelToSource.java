@@ -1,66 +1,132 @@
 package com.strumenta.rpg.transform;
 
 import com.strumenta.kolasu.model.Node;
+import com.strumenta.puml.DiagramGenerator;
 import com.strumenta.puml.PUMLCodeGenerator;
 import com.strumenta.puml.PUMLDiagram;
+import com.strumenta.puml.PUMLModelFile;
+import com.strumenta.puml.PUMLPage;
+import com.strumenta.puml.PUMLPaginator;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 /**
  * Transformer for converting a PUML model into PlantUML source code.
  * This class extends AbstractModelTransformer and is responsible for
- * generating PlantUML code from a given PUML diagram model and writing
+ * generating PlantUML code from a given PUML diagram model and streaming
  * it to the specified output file.
+ * When the member was parsed with errors in tolerant mode, the parsing issues
+ * are written to a JSON sidecar file next to the diagram. A diagram rendered
+ * again from a model file keeps the sidecar written when the member was parsed.
+ * Members given as model files are named after the member they were built from,
+ * so the diagram replaces the one generated from the source.
+ * Diagrams exceeding the budget of the {@link PUMLPaginator}, if one is given, are
+ * written as several linked pages with an index, see {@link PageIndex}.
+ * The files are written to the output of the context or, if a {@link DiagramSink} is
+ * given, to the sink, in which case the output of the context is not used.
+ * Besides the PlantUML code, the diagrams can be written in the other formats of the
+ * given {@link DiagramGenerator}s, such as Mermaid and JSON, from the same model: the
+ * member is parsed and transformed once whatever the number of formats. The file of each
+ * format is named after the diagram with the extension of the format, see {@link #formatFile}.
  */
 public class ModelToSource extends AbstractModelTransformer {
 
-/**
- * Constructs a ModelToSource transformer with specified input and output files.
- *
- * @param inputFile The file containing the PUML model to be transformed.
- * @param outputFile The file where the generated PlantUML code will be written.
- */
-    public ModelToSource(File inputFile, File outputFile) {
-        super(inputFile, outputFile);
+    private final PUMLPaginator paginator;
+    private final DiagramSink sink;
+    private final List<DiagramGenerator> generators;
+
+    /**
+     * Constructs a ModelToSource transformer writing each diagram to a single file.
+     */
+    public ModelToSource() {
+        this(null);
+    }
+
+    /**
+     * Constructs a ModelToSource transformer splitting the diagrams into pages.
+     *
+     * @param paginator The paginator splitting the diagrams over its budget, or null
+     *                  to write each diagram to a single file.
+     */
+    public ModelToSource(PUMLPaginator paginator) {
+        this(paginator, null);
+    }
+
+    /**
+     * Constructs a ModelToSource transformer writing the diagrams to a sink.
+     *
+     * @param paginator The paginator splitting the diagrams over its budget, or null
+     *                  to write each diagram to a single file.
+     * @param sink      The sink the files of the diagrams are written to, or null to
+     *                  write them to the output of the context.
+     */
+    public ModelToSource(PUMLPaginator paginator, DiagramSink sink) {
+        this(paginator, sink, List.of(new PUMLCodeGenerator()));
+    }
+
+    /**
+     * Constructs a ModelToSource transformer writing the diagrams in several formats.
+     *
+     * @param paginator  The paginator splitting the diagrams over its budget, or null
+     *                   to write each diagram to a single file.
+     * @param sink       The sink the files of the diagrams are written to, or null to
+     *                   write them to the output of the context.
+     * @param generators The generators of the formats the diagrams are written in.
+     */
+    public ModelToSource(PUMLPaginator paginator, DiagramSink sink, List<DiagramGenerator> generators) {
+        if (generators.isEmpty()) {
+            throw new IllegalArgumentException("At least one diagram format is required");
+        }
+        this.paginator = paginator;
+        this.sink = sink;
+        this.generators = List.copyOf(generators);
     }
 
     /**
      * Performs the transformation from a PUML model to PlantUML source code.
-     * This method generates PlantUML code using the PUMLCodeGenerator and writes
+     * This method generates the code of every format with its DiagramGenerator and writes
      * the output to the specified file. The method expects the model to be an
      * instance of PUMLDiagram.
      *
-     * @param model The PUML model to be transformed into PlantUML code.
+     * @param model   The PUML model to be transformed into PlantUML code.
+     * @param context The state of the file being processed, providing the output location.
      * @return The original model after the transformation process.
      * @throws Exception If the model is not a PUMLDiagram, or if there are issues
      *                   with file writing.
      */
     @Override
-    public Node transform(Node model) throws Exception {
-        PUMLCodeGenerator generator = new PUMLCodeGenerator();
+    public Node transform(Node model, TransformContext context) throws Exception {
+        File inputFile = context.getInputFile();
 
         if (model instanceof PUMLDiagram) {
-            String filePath = null;
-            HashMap<String, String> values = new HashMap<>();
-            values.put("client", "client");
-            if(outputFile.isFile()) {
-                filePath = outputFile.getAbsolutePath();
-                values.put("module", outputFile.getName());
-            } else {
-                filePath = String.format("%s.puml",outputFile.getPath() + File.separator + inputFile.getName());
-                values.put("module", inputFile.getName());
+            DiagramSink target = sink;
+            String diagramName = memberName(inputFile) + ".puml";
+            if (target == null) {
+                File diagramFile = outputFile(inputFile, context.getOutputFile());
+                target = new FileSink(diagramFile.getParentFile());
+                diagramName = diagramFile.getName();
             }
-
-            PUMLDiagram diagram = (PUMLDiagram) model;
-            String code = generator.generateToString(diagram, values);
+            List<PUMLPage> pages = pages(paginator, (PUMLDiagram) model);
+            List<String> formatNames = new ArrayList<>(generators.size());
+            MemberFiles files = new MemberFiles(target);
             try {
-                Files.write(Paths.get(filePath), Collections.singleton(code), StandardCharsets.UTF_8);
+                for (DiagramGenerator generator : generators) {
+                    String formatName = formatFile(new File(diagramName), generator).getName();
+                    for (PUMLPage page : pages) {
+                        try (Writer writer = files.open(PageIndex.pageFile(new File(formatName), page.getNumber()).getName())) {
+                            generator.generate(page.getDiagram(), values(context, page), writer);
+                        }
+                    }
+                    formatNames.add(formatName);
+                }
+                PageIndex.update(files, formatNames, pages);
+                IssuesReport.update(files, diagramName, context);
+                target.completed(memberName(inputFile), files.names);
             } catch (IOException e) {
                 throw new Exception(e.getMessage());
             }
@@ -70,4 +136,115 @@ public class ModelToSource extends AbstractModelTransformer {
 
         throw new Exception(String.format("Invalid input Model: %s",model.getClass().getName()));
     }
+
+    /**
+     * Records the names of the files of a member written to a sink, to tell the sink
+     * when they are all written.
+     */
+    private static final class MemberFiles implements DiagramSink {
+        private final DiagramSink target;
+        private final List<String> names = new ArrayList<>();
+
+        private MemberFiles(DiagramSink target) {
+            this.target = target;
+        }
+
+        @Override
+        public Writer open(String name) throws IOException {
+            names.add(name);
+            return target.open(name);
+        }
+
+        @Override
+        public boolean remove(String name) throws IOException {
+            return target.remove(name);
+        }
+    }
+
+    /**
+     * Splits a diagram into pages.
+     *
+     * @param paginator The paginator, or null if diagrams are not split.
+     * @param diagram   The diagram to split.
+     * @return The pages of the diagram.
+     */
+    static List<PUMLPage> pages(PUMLPaginator paginator, PUMLDiagram diagram) {
+        return paginator != null ? paginator.paginate(diagram) : List.of(new PUMLPage(1, null, null, diagram));
+    }
+
+    /**
+     * Computes the values of the placeholders of the diagram template for a page of a member.
+     * The first page is entered from the client, the others from the invocation they show.
+     *
+     * @param context The state of the file being processed.
+     * @param page    The page being generated.
+     * @return The values of the client and module placeholders.
+     */
+    static HashMap<String, String> values(TransformContext context, PUMLPage page) {
+        HashMap<String, String> values = new HashMap<>();
+        if (page.getCaller() != null) {
+            values.put("client", page.getCaller());
+            values.put("module", page.getReceiver());
+            return values;
+        }
+        values.put("client", "client");
+        if(context.getOutputFile() != null && context.getOutputFile().isFile()) {
+            values.put("module", context.getOutputFile().getName());
+        } else {
+            values.put("module", memberName(context.getInputFile()));
+        }
+        return values;
+    }
+
+    /**
+     * Determines the file the PlantUML code of a member is written to.
+     * If the output is an existing file the code is written there, otherwise
+     * the output is considered a directory and the code is written to a
+     * file named after the input file with the .puml extension.
+     *
+     * @param inputFile  The source member being converted.
+     * @param outputFile The output file or directory.
+     * @return The file the PlantUML code is written to.
+     */
+    public static File outputFile(File inputFile, File outputFile) {
+        if(outputFile.isFile()) {
+            return outputFile.getAbsoluteFile();
+        }
+        return new File(String.format("%s.puml",outputFile.getPath() + File.separator + memberName(inputFile)));
+    }
+
+    /**
+     * Determines the file a diagram is written to in the format of a generator: the file
+     * of the PlantUML code for the PlantUML format, the same file with the extension of
+     * the format in place of .puml otherwise, such as {@code CUS300.rpgle.mmd}.
+     *
+     * @param diagramFile The file of the PlantUML code of the diagram.
+     * @param generator   The generator of the format.
+     * @return The file of the diagram in the format.
+     */
+    public static File formatFile(File diagramFile, DiagramGenerator generator) {
+        String path = diagramFile.getPath();
+        if (generator.getExtension().equals(".puml")) {
+            return diagramFile;
+        }
+        if (path.endsWith(".puml")) {
+            path = path.substring(0, path.length() - ".puml".length());
+        }
+        return new File(path + generator.getExtension());
+    }
+
+    /**
+     * Retrieves the name of the member a file was built from: the name of the file,
+     * without the extension if it is a model file.
+     *
+     * @param inputFile The source member or model file.
+     * @return The name of the member.
+     */
+    public static String memberName(File inputFile) {
+        String name = inputFile.getName();
+        if (name.endsWith(PUMLModelFile.EXTENSION)) {
+            return name.substring(0, name.length() - PUMLModelFile.EXTENSION.length());
+        }
+        return name;
+    }
 }
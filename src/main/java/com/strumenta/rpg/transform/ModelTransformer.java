@@ -7,6 +7,9 @@ import com.strumenta.kolasu.model.Node;
  * This interface is used in the context of processing RPG code,
  * allowing for the transformation of models at various stages
  * of the parsing and generation process.
+ * Implementations must not keep per-file state: everything specific to the
+ * file being processed is carried by the {@link TransformContext}, so that a
+ * single instance can process many files, possibly at the same time.
  */
 public interface ModelTransformer {
 
@@ -15,9 +18,10 @@ public interface ModelTransformer {
      * This method is intended to be implemented to perform specific
      * transformations, depending on the desired outcome of the transformation process.
      *
-     * @param model The model node to be transformed.
+     * @param model   The model node to be transformed.
+     * @param context The state of the file being processed.
      * @return The transformed model node.
      * @throws Exception if the transformation cannot be completed successfully.
      */
-    Node transform(Node model) throws Exception;
+    Node transform(Node model, TransformContext context) throws Exception;
 }
@@ -0,0 +1,222 @@
+package com.strumenta.rpg.transform;
+
+import com.strumenta.kolasu.model.Node;
+import com.strumenta.kolasu.model.Position;
+import com.strumenta.rpgparser.model.Expression;
+import com.strumenta.rpgparser.model.Statement;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Finds the statements nested in the nodes of the RPG model whose class
+ * {@link ModelToModel} has no specific handler for, such as the body of a loop or
+ * the WHEN blocks of a SELECT. The properties holding statements, directly or
+ * through other nodes, are found by reflection once per class and cached as method
+ * handles, so visiting a node costs a direct call per property.
+ * {@link com.strumenta.rpg.NodeCounter} walks the model the same way to count its statements.
+ */
+public final class ModelTree {
+
+    /**
+     * A property of a node class: the name of its getter and the handle reading it.
+     */
+    static final class Property {
+        private final String name;
+        private final MethodHandle getter;
+
+        private Property(String name, MethodHandle getter) {
+            this.name = name;
+            this.getter = getter;
+        }
+    }
+
+    /**
+     * The properties of a node class that hold statements, sorted by name.
+     */
+    static final ClassValue<List<Property>> CHILDREN = new ClassValue<>() {
+        @Override
+        protected List<Property> computeValue(Class<?> type) {
+            List<Method> children = new ArrayList<>();
+            for (Method getter : getters(type)) {
+                Class<?> element = elementType(getter);
+                if (element != null && (Statement.class.isAssignableFrom(element)
+                        || holdsStatements(element, new HashSet<>(Set.of(type))))) {
+                    children.add(getter);
+                }
+            }
+            children.sort(Comparator.comparing(Method::getName));
+            List<Property> properties = new ArrayList<>(children.size());
+            for (Method getter : children) {
+                properties.add(new Property(getter.getName(), handle(getter)));
+            }
+            return List.copyOf(properties);
+        }
+    };
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Node.class);
+
+    private static final Comparator<Node> SOURCE_ORDER = Comparator.comparing(Node::getPosition,
+            Comparator.nullsLast(Comparator.<Position, Integer>comparing(p -> p.getStart().getLine())
+                    .thenComparing(p -> p.getStart().getColumn())));
+
+    private ModelTree() {
+    }
+
+    /**
+     * Visits the nodes holding statements that are children of a node, property by
+     * property in the order of {@link #CHILDREN}, without collecting them first.
+     *
+     * @param node   The node.
+     * @param action The action run on every child.
+     */
+    public static void forEachChild(Node node, Consumer<? super Node> action) {
+        forEachChild(node, null, action);
+    }
+
+    /**
+     * Visits the nodes holding statements that are children of a node, but the ones of
+     * a property already handled by the caller.
+     *
+     * @param node   The node.
+     * @param except The name of the getter of the property left out, or null to visit them all.
+     * @param action The action run on every child.
+     */
+    static void forEachChild(Node node, String except, Consumer<? super Node> action) {
+        for (Property property : CHILDREN.get(node.getClass())) {
+            if (property.name.equals(except)) {
+                continue;
+            }
+            Object value = read(node, property.getter);
+            if (value instanceof Node child) {
+                action.accept(child);
+            } else if (value instanceof Collection<?> children) {
+                for (Object child : children) {
+                    if (child instanceof Node n) {
+                        action.accept(n);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts nodes by their position in the source; the nodes without a position keep their order, at the end.
+     *
+     * @param nodes The nodes to sort.
+     */
+    static void sort(List<Node> nodes) {
+        nodes.sort(SOURCE_ORDER);
+    }
+
+    /**
+     * Finds the getter of a property of a node class, to read the property of its nodes
+     * with {@link #read} without going through reflection at every node.
+     *
+     * @param type       The node class.
+     * @param name       The name of the getter, such as getCondition.
+     * @param returnType The type the property must have, such as Expression or List.
+     * @return The handle of the getter, or null if the class has no such public getter.
+     */
+    static MethodHandle getter(Class<?> type, String name, Class<?> returnType) {
+        try {
+            Method getter = type.getMethod(name);
+            return returnType.isAssignableFrom(getter.getReturnType()) ? handle(getter) : null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a property of a node through the handle of its getter.
+     *
+     * @param node   The node.
+     * @param getter The handle of the getter, found for the class of the node.
+     * @return The value of the property.
+     */
+    static Object read(Node node, MethodHandle getter) {
+        try {
+            return (Object) getter.invokeExact(node);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(String.format("Cannot read a property of %s", node.getClass().getName()), e);
+        }
+    }
+
+    /**
+     * Turns a public getter into a handle taking any node and returning an object.
+     */
+    private static MethodHandle handle(Method getter) {
+        try {
+            return MethodHandles.publicLookup().unreflect(getter).asType(GETTER);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(String.format("Cannot read %s of %s", getter.getName(), getter.getDeclaringClass().getName()), e);
+        }
+    }
+
+    /**
+     * Tells whether a node class holds statements through one of its properties,
+     * expressions aside.
+     */
+    private static boolean holdsStatements(Class<?> type, Set<Class<?>> visiting) {
+        if (!Node.class.isAssignableFrom(type) || Expression.class.isAssignableFrom(type) || !visiting.add(type)) {
+            return false;
+        }
+        for (Method getter : getters(type)) {
+            Class<?> element = elementType(getter);
+            if (element != null && (Statement.class.isAssignableFrom(element) || holdsStatements(element, visiting))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lists the public property getters of a node class, leaving out the ones of the base node class.
+     */
+    private static List<Method> getters(Class<?> type) {
+        List<Method> getters = new ArrayList<>();
+        for (Method method : type.getMethods()) {
+            if (method.getName().startsWith("get") && method.getParameterCount() == 0
+                    && !Modifier.isStatic(method.getModifiers()) && !method.isSynthetic()
+                    && !method.getDeclaringClass().isAssignableFrom(Node.class)) {
+                getters.add(method);
+            }
+        }
+        return getters;
+    }
+
+    /**
+     * Retrieves the node type a getter returns, directly or as the elements of a collection.
+     *
+     * @return The node type, or null if the getter does not return nodes.
+     */
+    private static Class<?> elementType(Method getter) {
+        Class<?> type = getter.getReturnType();
+        if (Collection.class.isAssignableFrom(type) && getter.getGenericReturnType() instanceof ParameterizedType generic) {
+            Type argument = generic.getActualTypeArguments()[0];
+            if (argument instanceof WildcardType wildcard) {
+                argument = wildcard.getUpperBounds()[0];
+            }
+            if (argument instanceof ParameterizedType parameterized) {
+                argument = parameterized.getRawType();
+            }
+            type = argument instanceof Class<?> c ? c : Object.class;
+        }
+        return Node.class.isAssignableFrom(type) && !Expression.class.isAssignableFrom(type) ? type : null;
+    }
+}
@@ -0,0 +1,98 @@
+package com.strumenta.rpg.transform;
+
+import com.strumenta.puml.Json;
+import com.strumenta.puml.PUMLPage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Names the files of the pages of a split diagram and writes their index.
+ * The first page is written to the file of the diagram, the following ones to
+ * files with the page number before the extension, such as {@code CUS300.rpgle.p2.puml}.
+ * The index is a JSON file next to the diagram, with one object per page giving
+ * its number, the name of its files without extension and the invocation it shows.
+ * The files are written to a {@link DiagramSink}.
+ */
+public final class PageIndex {
+
+    private PageIndex() {
+    }
+
+    /**
+     * Determines the file a page of a diagram is written to.
+     *
+     * @param diagramFile The file of the whole diagram.
+     * @param number      The number of the page, starting from 1.
+     * @return The file of the page.
+     */
+    public static File pageFile(File diagramFile, int number) {
+        if (number == 1) {
+            return diagramFile;
+        }
+        String path = diagramFile.getPath();
+        int extension = path.lastIndexOf('.');
+        if (extension <= path.lastIndexOf(File.separatorChar)) {
+            extension = path.length();
+        }
+        return new File(String.format("%s.p%d%s", path.substring(0, extension), number, path.substring(extension)));
+    }
+
+    /**
+     * Brings the index and the page files of a diagram up to date: writes the index when
+     * the diagram has more than one page, removes it otherwise, and removes the files of
+     * the pages a previous run produced beyond the current last page.
+     *
+     * @param sink        The sink the files of the diagram are written to.
+     * @param diagramName The name of the file of the whole diagram, with the extension of the files written.
+     * @param pages       The pages of the diagram.
+     * @throws IOException If the index cannot be written or a stale file cannot be removed.
+     */
+    public static void update(DiagramSink sink, String diagramName, List<PUMLPage> pages) throws IOException {
+        update(sink, List.of(diagramName), pages);
+    }
+
+    /**
+     * Brings the index and the page files of a diagram written in several formats up to date.
+     * The names of the pages in the index have no extension, so a single index, named after
+     * the first file, serves every format; the stale pages are removed in every format.
+     *
+     * @param sink         The sink the files of the diagram are written to.
+     * @param diagramNames The names of the files of the whole diagram, one per format written.
+     * @param pages        The pages of the diagram.
+     * @throws IOException If the index cannot be written or a stale file cannot be removed.
+     */
+    public static void update(DiagramSink sink, List<String> diagramNames, List<PUMLPage> pages) throws IOException {
+        File diagramFile = new File(diagramNames.get(0));
+        String index = baseName(diagramFile) + ".pages.json";
+        if (pages.size() > 1) {
+            try (Writer writer = sink.open(index)) {
+                writer.write("[\n");
+                for (int i = 0; i < pages.size(); i++) {
+                    PUMLPage page = pages.get(i);
+                    writer.write(String.format("  {\"page\": %d, \"name\": %s, \"caller\": %s, \"receiver\": %s}%s\n",
+                            page.getNumber(), Json.quote(baseName(pageFile(diagramFile, page.getNumber()))),
+                            Json.quote(page.getCaller()), Json.quote(page.getReceiver()),
+                            i < pages.size() - 1 ? "," : ""));
+                }
+                writer.write("]\n");
+            }
+        } else {
+            sink.remove(index);
+        }
+        for (String diagramName : diagramNames) {
+            int stale = pages.size() + 1;
+            while (sink.remove(pageFile(new File(diagramName), stale).getName())) {
+                stale++;
+            }
+        }
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        int extension = name.lastIndexOf('.');
+        return extension > 0 ? name.substring(0, extension) : name;
+    }
+}
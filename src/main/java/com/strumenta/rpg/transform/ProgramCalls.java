@@ -0,0 +1,64 @@
+package com.strumenta.rpg.transform;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recognizes calls to other programs in the text of RPG statements.
+ * Fixed-form CALL, free-form CALLP and calls through a prototype declared with
+ * EXTPGM are recognized. The text is used because the calls must be found both
+ * in the AST, for statements the model does not describe, and in plain source
+ * members, when looking for the dependencies of a member.
+ */
+public final class ProgramCalls {
+    private static final String NAME = "[A-Z0-9#@$_]+";
+    private static final Pattern CALL = Pattern.compile("\\bCALLP?(?:\\([A-Z ]*\\))?\\s+('?)(" + NAME + ")\\1", Pattern.CASE_INSENSITIVE);
+    private static final Pattern PROTOTYPE_CALL = Pattern.compile("^\\s*(" + NAME + ")\\s*\\(", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FIXED_PROTOTYPE = Pattern.compile("^.{5}D\\s*(" + NAME + ")\\s+PR\\b[^\\n]*?\\bEXTPGM\\b(?:\\(\\s*'([^']+)'\\s*\\))?", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+    private static final Pattern FREE_PROTOTYPE = Pattern.compile("\\bDCL-PR\\s+(" + NAME + ")[^;]*?\\bEXTPGM\\b(?:\\(\\s*'([^']+)'\\s*\\))?", Pattern.CASE_INSENSITIVE);
+
+    private ProgramCalls() {
+    }
+
+    /**
+     * Collects the prototypes of external programs declared in a source member.
+     *
+     * @param source The text of the source member.
+     * @return A map from the upper case prototype names to the upper case names of the programs they call.
+     */
+    public static Map<String, String> prototypes(CharSequence source) {
+        Map<String, String> prototypes = new HashMap<>();
+        for (Pattern pattern : new Pattern[]{FIXED_PROTOTYPE, FREE_PROTOTYPE}) {
+            Matcher matcher = pattern.matcher(source);
+            while (matcher.find()) {
+                String prototype = matcher.group(1).toUpperCase(Locale.ROOT);
+                String program = matcher.group(2) != null ? matcher.group(2).trim() : prototype;
+                prototypes.put(prototype, program.toUpperCase(Locale.ROOT));
+            }
+        }
+        return prototypes;
+    }
+
+    /**
+     * Retrieves the program called by a statement, if the statement is a program call.
+     *
+     * @param statement  The text of the statement.
+     * @param prototypes The prototypes declared by the member, as returned by {@link #prototypes}.
+     * @return The upper case name of the called program, or null if the statement does not call a program.
+     */
+    public static String target(CharSequence statement, Map<String, String> prototypes) {
+        Matcher call = CALL.matcher(statement);
+        if (call.find()) {
+            String name = call.group(2).toUpperCase(Locale.ROOT);
+            return prototypes.getOrDefault(name, name);
+        }
+        Matcher prototypeCall = PROTOTYPE_CALL.matcher(statement);
+        if (prototypeCall.find()) {
+            return prototypes.get(prototypeCall.group(1).toUpperCase(Locale.ROOT));
+        }
+        return null;
+    }
+}
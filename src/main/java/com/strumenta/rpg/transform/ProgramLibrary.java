@@ -0,0 +1,160 @@
+package com.strumenta.rpg.transform;
+
+import com.strumenta.kolasu.model.Node;
+import com.strumenta.puml.PUMLDiagram;
+import com.strumenta.puml.PUMLStatement;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The members of a source library, used to follow calls to other programs.
+ * A called program is located by name in the library directories, parsed and
+ * transformed into PUML statements, which are kept in a bounded LRU cache: a call
+ * chain that visits the same utility programs again reuses the cached statements
+ * instead of parsing them once more. Only complete diagrams are cached: a diagram cut
+ * short by a recursion or depth note depends on the chain of calls it was reached from,
+ * so it is transformed again for every caller, and makes the diagram of the caller
+ * depend on its path too. The library is shared by all the workers of a
+ * batch run; two workers reaching an uncached program at the same time may both
+ * transform it, and the first result stored is kept.
+ * As the diagram of a program embeds the diagrams of the programs it calls, the library
+ * remembers which cached programs call each program, so that a changed member is evicted
+ * together with the programs showing it, see {@link #refresh}.
+ */
+public class ProgramLibrary {
+    private final List<File> dirs;
+    private final Map<String, File> members = new HashMap<>();
+    private final Map<String, Set<String>> callers = new HashMap<>();
+    private final SourceToModel sourceToModel;
+    private final ModelToModel modelToModel;
+    private final Map<String, List<PUMLStatement>> cache;
+
+    /**
+     * Constructs a ProgramLibrary over the given directories.
+     * When a program is found in more than one directory, the first directory wins.
+     *
+     * @param dirs          The directories containing the source members of the library.
+     * @param sourceToModel The transformer used to parse the called programs.
+     * @param modelToModel  The transformer used to transform the called programs.
+     * @param capacity      The maximum number of transformed programs kept in memory.
+     * @throws IOException If a directory cannot be read.
+     */
+    public ProgramLibrary(List<File> dirs, SourceToModel sourceToModel, ModelToModel modelToModel, int capacity) throws IOException {
+        this.dirs = List.copyOf(dirs);
+        this.sourceToModel = sourceToModel;
+        this.modelToModel = modelToModel;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<PUMLStatement>> eldest) {
+                return size() > capacity;
+            }
+        };
+        list();
+    }
+
+    /**
+     * Lists the members of the library directories.
+     */
+    private void list() throws IOException {
+        for (File dir : dirs) {
+            try (Stream<Path> files = Files.list(dir.toPath())) {
+                files.filter(Files::isRegularFile).sorted()
+                        .forEach(file -> members.putIfAbsent(TransformContext.programName(file.toFile()), file.toFile()));
+            }
+        }
+    }
+
+    /**
+     * Takes changed files into account: the members of the library are listed again, and
+     * the programs of the changed files are evicted from the cache, together with the
+     * cached programs calling them, directly or not. The library must not be in use while
+     * it is refreshed, for example between two runs of a {@link com.strumenta.rpg.SourceWatcher}.
+     *
+     * @param changed The files created, modified or deleted.
+     * @throws IOException If a directory of the library cannot be read.
+     */
+    public void refresh(Collection<File> changed) throws IOException {
+        members.clear();
+        list();
+        Deque<String> evicted = new ArrayDeque<>();
+        changed.forEach(file -> evicted.add(TransformContext.programName(file)));
+        synchronized (cache) {
+            Set<String> done = new HashSet<>();
+            while (!evicted.isEmpty()) {
+                String program = evicted.pop();
+                if (done.add(program)) {
+                    cache.remove(program);
+                    evicted.addAll(callers.getOrDefault(program, Set.of()));
+                }
+            }
+            callers.keySet().removeAll(done);
+        }
+    }
+
+    /**
+     * Evicts all the cached programs, for example when a copybook they may include changed.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+            callers.clear();
+        }
+    }
+
+    /**
+     * Retrieves the source member of a program.
+     *
+     * @param program The name of the program, not case-sensitive.
+     * @return The source member, or null if the library does not contain the program.
+     */
+    public File member(String program) {
+        return members.get(program.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Retrieves the PUML statements of a called program, transforming it if it is not cached.
+     * When the statements are cut short by a recursion or depth note, they are not cached
+     * and the truncation is recorded in the context of the caller.
+     *
+     * @param program The name of the called program, which must be in the library.
+     * @param caller  The context of the calling program.
+     * @return The statements of the diagram of the called program.
+     * @throws Exception If the called program cannot be parsed or transformed.
+     */
+    public List<PUMLStatement> statements(String program, TransformContext caller) throws Exception {
+        String key = program.toUpperCase(Locale.ROOT);
+        List<String> path = caller.getProgramPath();
+        synchronized (cache) {
+            callers.computeIfAbsent(key, k -> new HashSet<>()).add(path.get(path.size() - 1));
+            List<PUMLStatement> statements = cache.get(key);
+            if (statements != null) {
+                return statements;
+            }
+        }
+        TransformContext context = new TransformContext(member(key), caller);
+        Node model = sourceToModel.transform(null, context);
+        List<PUMLStatement> statements = ((PUMLDiagram) modelToModel.transform(model, context)).getStatements();
+        if (context.getTruncations() > 0) {
+            caller.addTruncation();
+            return statements;
+        }
+        synchronized (cache) {
+            List<PUMLStatement> cached = cache.putIfAbsent(key, statements);
+            return cached != null ? cached : statements;
+        }
+    }
+}
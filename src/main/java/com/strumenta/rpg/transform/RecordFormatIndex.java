@@ -0,0 +1,189 @@
+package com.strumenta.rpg.transform;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * An index of the record formats declared in the DDS of a library, mapping each
+ * record format to the file that declares it. The file I/O statements of RPG can
+ * name either the file or one of its record formats, so {@link ModelToModel} looks
+ * the name up here to draw all the I/O of a file on a single lifeline.
+ * The index is built once per library by scanning the DDS members and can be
+ * saved to a properties file, together with the size and modification time of
+ * every member scanned, so that later runs only scan again when the DDS changed.
+ * Once built the index is read-only and can be shared by concurrent transformations.
+ */
+public class RecordFormatIndex {
+    private static final String FORMAT = "format.";
+    private static final String MEMBER = "member.";
+
+    private final Map<String, String> files;
+    private final Map<String, String> members;
+
+    private RecordFormatIndex(Map<String, String> files, Map<String, String> members) {
+        this.files = files;
+        this.members = members;
+    }
+
+    /**
+     * Builds the index by scanning the DDS members of the given directories.
+     * A record format declared by more than one file is assigned to the first
+     * physical file declaring it, as logical files usually share the format of
+     * the physical file they are built over.
+     *
+     * @param ddsDirs The directories holding the DDS members.
+     * @return The index of the record formats.
+     * @throws IOException If a directory or a member cannot be read.
+     */
+    public static RecordFormatIndex scan(List<File> ddsDirs) throws IOException {
+        Map<String, String> files = new HashMap<>();
+        Map<String, Boolean> physical = new HashMap<>();
+        for (Path member : members(ddsDirs)) {
+            String file = memberName(member);
+            boolean isPhysical = true;
+            List<String> formats = new ArrayList<>();
+            for (String line : Files.readAllLines(member, StandardCharsets.ISO_8859_1)) {
+                String format = recordFormat(line);
+                if (format != null) {
+                    formats.add(format);
+                }
+                String upper = line.toUpperCase();
+                if (upper.contains("PFILE(") || upper.contains("JFILE(")) {
+                    isPhysical = false;
+                }
+            }
+            for (String format : formats) {
+                if (!files.containsKey(format) || (isPhysical && !physical.get(format))) {
+                    files.put(format, file);
+                    physical.put(format, isPhysical);
+                }
+            }
+        }
+        return new RecordFormatIndex(files, stamps(ddsDirs));
+    }
+
+    /**
+     * Loads the index saved in a file if the DDS members did not change since it was
+     * saved, or scans the members and saves the new index otherwise.
+     *
+     * @param indexFile The file the index is stored in.
+     * @param ddsDirs   The directories holding the DDS members.
+     * @return The index of the record formats.
+     * @throws IOException If the index or the DDS members cannot be read, or the index cannot be written.
+     */
+    public static RecordFormatIndex load(Path indexFile, List<File> ddsDirs) throws IOException {
+        if (Files.isRegularFile(indexFile)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(indexFile)) {
+                properties.load(in);
+            }
+            Map<String, String> files = new HashMap<>();
+            Map<String, String> members = new HashMap<>();
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith(FORMAT)) {
+                    files.put(key.substring(FORMAT.length()), properties.getProperty(key));
+                } else if (key.startsWith(MEMBER)) {
+                    members.put(key.substring(MEMBER.length()), properties.getProperty(key));
+                }
+            }
+            if (members.equals(stamps(ddsDirs))) {
+                return new RecordFormatIndex(files, members);
+            }
+        }
+        RecordFormatIndex index = scan(ddsDirs);
+        index.save(indexFile);
+        return index;
+    }
+
+    /**
+     * Writes the index to a file, replacing the previous one.
+     *
+     * @param indexFile The file the index is stored in.
+     * @throws IOException If the index cannot be written.
+     */
+    public void save(Path indexFile) throws IOException {
+        Properties properties = new Properties();
+        files.forEach((format, file) -> properties.setProperty(FORMAT + format, file));
+        members.forEach((member, stamp) -> properties.setProperty(MEMBER + member, stamp));
+        Path parent = indexFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "RPGtoPUML record format index");
+        }
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Retrieves the file a name used by a file I/O statement refers to.
+     *
+     * @param name The name of a file or of a record format.
+     * @return The name of the file declaring the record format, or the name itself
+     * if it is not a known record format.
+     */
+    public String file(String name) {
+        return files.getOrDefault(name.toUpperCase(), name);
+    }
+
+    /**
+     * @return The number of record formats in the index.
+     */
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Extracts the name of the record format declared by a DDS line: an A spec
+     * with R in the name type column (17) and the name in columns 19 to 28.
+     */
+    private static String recordFormat(String line) {
+        if (line.length() < 19 || Character.toUpperCase(line.charAt(5)) != 'A' || line.charAt(6) == '*'
+                || Character.toUpperCase(line.charAt(16)) != 'R') {
+            return null;
+        }
+        String name = line.substring(18, Math.min(line.length(), 28)).trim();
+        return name.isEmpty() ? null : name.toUpperCase();
+    }
+
+    private static List<Path> members(List<File> ddsDirs) throws IOException {
+        List<Path> members = new ArrayList<>();
+        for (File dir : ddsDirs) {
+            if (dir.isDirectory()) {
+                try (Stream<Path> files = Files.list(dir.toPath())) {
+                    files.filter(Files::isRegularFile).sorted().forEach(members::add);
+                }
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Describes the DDS members scanned by their path, size and modification time.
+     */
+    private static Map<String, String> stamps(List<File> ddsDirs) throws IOException {
+        Map<String, String> stamps = new HashMap<>();
+        for (Path member : members(ddsDirs)) {
+            stamps.put(member.toAbsolutePath().toString(),
+                    Files.size(member) + ":" + Files.getLastModifiedTime(member).toMillis());
+        }
+        return stamps;
+    }
+
+    private static String memberName(Path member) {
+        String name = member.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        return (extension > 0 ? name.substring(0, extension) : name).toUpperCase();
+    }
+}
@@ -0,0 +1,268 @@
+package com.strumenta.rpg.transform;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads the text of a source member through NIO.
+ * Small members are read into a heap buffer, large ones are memory-mapped, and the
+ * bytes are decoded into a CharBuffer. The parser takes the text as a String, a copy
+ * of that buffer, which ANTLR copies again into its own stream of code points: the
+ * loader saves the copies of reading and decoding, not those of parsing.
+ * The charset can be given or detected: byte order marks are honored, valid UTF-8 is
+ * decoded as UTF-8, EBCDIC is recognized by its blanks, anything else is decoded with
+ * a fallback single-byte charset, and the EBCDIC newlines are turned into line feeds.
+ * Members exported from source physical files with their sequence number and date
+ * columns can have those columns stripped in place.
+ * A SourceLoader holds no state, so it can be shared by all the workers of a run.
+ */
+public class SourceLoader {
+
+    /**
+     * The layout of the records of a source member.
+     */
+    public enum RecordFormat {
+        /**
+         * The records only contain source code.
+         */
+        PLAIN,
+        /**
+         * Every record starts with the 6 digits of the sequence number and the 6 digits of the date.
+         */
+        SEQUENCED,
+        /**
+         * The format is detected from the first records of the member.
+         */
+        AUTO
+    }
+
+    private static final int SEQUENCE_COLUMNS = 12;
+    private static final int DETECTION_LINES = 20;
+    private static final long MAPPING_THRESHOLD = 1024 * 1024;
+    private static final Charset FALLBACK = Charset.forName("windows-1252");
+    private static final String EBCDIC = "IBM037";
+
+    private final Charset charset;
+    private final RecordFormat recordFormat;
+
+    /**
+     * Constructs a SourceLoader that detects both the charset and the record format.
+     */
+    public SourceLoader() {
+        this(null, RecordFormat.AUTO);
+    }
+
+    /**
+     * Constructs a SourceLoader with the given charset and record format.
+     *
+     * @param charset      The charset of the members, or null to detect it for every member.
+     * @param recordFormat The layout of the records of the members.
+     */
+    public SourceLoader(Charset charset, RecordFormat recordFormat) {
+        this.charset = charset;
+        this.recordFormat = recordFormat;
+    }
+
+    /**
+     * Loads the text of a source member.
+     *
+     * @param path The source member.
+     * @return The decoded text, without sequence number columns.
+     * @throws IOException If the member cannot be read or decoded.
+     */
+    public CharBuffer load(Path path) throws IOException {
+        ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Source member '%s' is too large", path));
+            }
+            if (size >= MAPPING_THRESHOLD) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+                    // Keep reading until the whole member is in the buffer
+                }
+                bytes.flip();
+            }
+        }
+        return text(bytes);
+    }
+
+    /**
+     * Loads the text of a source member from a stream, such as the content of a member
+     * fetched from a repository, with the same charset and record format detection.
+     *
+     * @param in The content of the source member, read to the end but not closed.
+     * @return The decoded text, without sequence number columns.
+     * @throws IOException If the stream cannot be read or the member cannot be decoded.
+     */
+    public CharBuffer load(InputStream in) throws IOException {
+        return text(ByteBuffer.wrap(in.readAllBytes()));
+    }
+
+    /**
+     * Decodes the bytes of a member, turns its EBCDIC newlines into line feeds and removes
+     * its sequence number columns.
+     */
+    private CharBuffer text(ByteBuffer bytes) throws IOException {
+        CharBuffer text = decode(bytes);
+        normalizeNewLines(text);
+        if (recordFormat == RecordFormat.SEQUENCED
+                || (recordFormat == RecordFormat.AUTO && isSequenced(text))) {
+            stripSequenceColumns(text);
+        }
+        return text;
+    }
+
+    /**
+     * Decodes the bytes of a member with the configured charset, or with the detected one.
+     */
+    private CharBuffer decode(ByteBuffer bytes) throws CharacterCodingException {
+        if (charset != null) {
+            return charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(bytes);
+        }
+        if (startsWith(bytes, 0xEF, 0xBB, 0xBF)) {
+            bytes.position(3);
+            return StandardCharsets.UTF_8.decode(bytes);
+        }
+        if (startsWith(bytes, 0xFE, 0xFF)) {
+            bytes.position(2);
+            return StandardCharsets.UTF_16BE.decode(bytes);
+        }
+        if (startsWith(bytes, 0xFF, 0xFE)) {
+            bytes.position(2);
+            return StandardCharsets.UTF_16LE.decode(bytes);
+        }
+        if (isEbcdic(bytes) && Charset.isSupported(EBCDIC)) {
+            return Charset.forName(EBCDIC).decode(bytes);
+        }
+        CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        try {
+            return utf8.decode(bytes.duplicate());
+        } catch (CharacterCodingException e) {
+            return FALLBACK.decode(bytes);
+        }
+    }
+
+    private static boolean startsWith(ByteBuffer bytes, int... prefix) {
+        if (bytes.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes.get(bytes.position() + i) & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tells whether a member looks like EBCDIC: blanks are 0x40 there, while ASCII text
+     * is full of 0x20 blanks and has no EBCDIC newlines.
+     */
+    private static boolean isEbcdic(ByteBuffer bytes) {
+        int ebcdicBlanks = 0;
+        int asciiBlanks = 0;
+        int limit = Math.min(bytes.limit(), bytes.position() + 4096);
+        for (int i = bytes.position(); i < limit; i++) {
+            int b = bytes.get(i) & 0xFF;
+            if (b == 0x40) {
+                ebcdicBlanks++;
+            } else if (b == 0x20 || b == 0x0A) {
+                asciiBlanks++;
+            }
+        }
+        return ebcdicBlanks > 0 && asciiBlanks == 0;
+    }
+
+    /**
+     * Tells whether the first records of a member all start with sequence number and date columns.
+     */
+    private static boolean isSequenced(CharBuffer text) {
+        int lines = 0;
+        int start = text.position();
+        while (start < text.limit() && lines < DETECTION_LINES) {
+            int end = lineEnd(text, start);
+            if (end > start) {
+                if (end - start < SEQUENCE_COLUMNS) {
+                    return false;
+                }
+                for (int i = start; i < start + SEQUENCE_COLUMNS; i++) {
+                    char c = text.get(i);
+                    if (!Character.isDigit(c) && !(c == ' ' && i >= start + 6)) {
+                        return false;
+                    }
+                }
+                lines++;
+            }
+            start = nextLine(text, end);
+        }
+        return lines > 0;
+    }
+
+    /**
+     * Removes the sequence number and date columns from every record, compacting
+     * the text inside its own buffer instead of copying it.
+     */
+    private static void stripSequenceColumns(CharBuffer text) {
+        int read = text.position();
+        int write = text.position();
+        while (read < text.limit()) {
+            int end = lineEnd(text, read);
+            int next = nextLine(text, end);
+            int from = Math.min(read + SEQUENCE_COLUMNS, end);
+            for (int i = from; i < next; i++) {
+                text.put(write++, text.get(i));
+            }
+            read = next;
+        }
+        text.limit(write);
+    }
+
+    /**
+     * Replaces the next line characters (NEL, U+0085), which EBCDIC members decode their
+     * newlines to, with line feeds in place, so that the parser sees the records as lines.
+     */
+    private static void normalizeNewLines(CharBuffer text) {
+        for (int i = text.position(); i < text.limit(); i++) {
+            if (text.get(i) == '\u0085') {
+                text.put(i, '\n');
+            }
+        }
+    }
+
+    private static int lineEnd(CharBuffer text, int start) {
+        int end = start;
+        while (end < text.limit() && text.get(end) != '\n' && text.get(end) != '\r') {
+            end++;
+        }
+        return end;
+    }
+
+    private static int nextLine(CharBuffer text, int end) {
+        if (end < text.limit() && text.get(end) == '\r') {
+            end++;
+        }
+        if (end < text.limit() && text.get(end) == '\n') {
+            end++;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,43 @@
+package com.strumenta.rpg.transform;
+
+import com.strumenta.kolasu.model.Node;
+
+import java.io.File;
+
+/**
+ * Transformer reading the source text of a member into the {@link TransformContext},
+ * where {@link SourceToModel} finds it instead of reading the file itself.
+ * It lets the staged runs read the members, possibly from a slow network share,
+ * in a stage of their own that overlaps with the parsing of the members already read.
+ */
+public class SourceReader extends AbstractModelTransformer {
+
+    private final SourceLoader loader;
+
+    /**
+     * Constructs a SourceReader.
+     *
+     * @param loader The loader decoding the members, the one of the SourceToModel parsing them.
+     */
+    public SourceReader(SourceLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Reads the source text of the input file into the context.
+     *
+     * @param model   Returned unchanged, as the member is not parsed yet.
+     * @param context The state of the file being processed, providing the input file.
+     * @return The given model.
+     * @throws Exception If the input file does not exist or cannot be read.
+     */
+    @Override
+    public Node transform(Node model, TransformContext context) throws Exception {
+        File inputFile = context.getInputFile();
+        if (!inputFile.isFile()) {
+            throw new Exception(String.format("Invalid input file '%s'", inputFile.toPath()));
+        }
+        context.setSource(loader.load(inputFile.toPath()).toString());
+        return model;
+    }
+}
@@ -5,42 +5,147 @@ import com.strumenta.kolasu.parsing.ParsingResult;
 import com.strumenta.rpgparser.RPGKolasuParser;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Transforms RPG source code into an Abstract Syntax Tree (AST).
  * This class extends AbstractModelTransformer to convert RPG code from
  * a source file into a structured model that can be further processed or analyzed.
+ * Parsers are created once per thread and file extension and reused for all the
+ * files that thread processes, and can be warmed up on a bundled sample member
+ * before the real work begins.
+ * The source is loaded by a {@link SourceLoader}, which takes care of the charset and
+ * record format of the member, and the parser receives the decoded text. A context
+ * that already holds the text of the member, such as the unsaved buffer of an editor,
+ * is parsed as is: the input file then only selects the parser by its extension.
  */
 public class SourceToModel extends AbstractModelTransformer {
 
+    private static final String WARMUP_SAMPLE = "/warmup/CUS300.rpgle";
+
+    private final ThreadLocal<Map<String, RPGKolasuParser>> parsers = ThreadLocal.withInitial(HashMap::new);
+    private final SourceLoader loader;
+    private final boolean tolerant;
+    private String warmUpSample;
+
+    /**
+     * Constructs a SourceToModel transformer that detects the charset and record format of each member.
+     */
+    public SourceToModel() {
+        this(new SourceLoader(), false);
+    }
+
+    /**
+     * Constructs a SourceToModel transformer that loads the members with the given loader.
+     * In tolerant mode a member with parsing errors is not rejected: the partial AST
+     * the parser returns is passed on, and the issues are recorded in the context.
+     *
+     * @param loader   The loader of the source members.
+     * @param tolerant Whether members with parsing errors produce a partial model.
+     */
+    public SourceToModel(SourceLoader loader, boolean tolerant) {
+        this.loader = loader;
+        this.tolerant = tolerant;
+    }
+
     /**
-     * Constructs a SourceToModel transformer with specified input and output files.
+     * Retrieves the loader decoding the source members.
      *
-     * @param inputFile  The file containing the RPG source code to be transformed.
-     * @param outputFile The file where the transformed output will be written (not used in this transformer).
+     * @return The loader of the source members.
      */
-    public SourceToModel(File inputFile, File outputFile) {
-        super(inputFile, outputFile);
+    public SourceLoader getLoader() {
+        return loader;
     }
 
     /**
      * Performs the transformation of RPG source code into an AST.
-     * Reads the source code from the input file, parses it using RPGKolasuParser,
-     * and returns the resulting AST.
+     * Loads the source code from the input file, unless the context already holds it,
+     * parses it using RPGKolasuParser, and returns the resulting AST.
      *
-     * @param model Not used in this implementation as the transformation is from source code to AST.
+     * @param model   Not used in this implementation as the transformation is from source code to AST.
+     * @param context The state of the file being processed, providing the input file.
      * @return The root node of the generated AST representing the parsed RPG code.
-     * @throws Exception if the input file is invalid or the parsing fails.
+     * @throws Exception if the input file is invalid or the parsing fails, unless in tolerant
+     *                   mode the parser still returned an AST.
      */
     @Override
-    public Node transform(Node model) throws Exception {
-        if (inputFile.isFile() && inputFile.exists()) {
-            RPGKolasuParser rpgParser = RPGKolasuParser.parserFromExtension(inputFile);
-            ParsingResult result = rpgParser.parse(inputFile);
+    public Node transform(Node model, TransformContext context) throws Exception {
+        File inputFile = context.getInputFile();
+        if (context.getSource() != null || (inputFile.isFile() && inputFile.exists())) {
+            RPGKolasuParser rpgParser = parser(inputFile);
+            // The parser takes a String, which ANTLR copies into its own buffer; the String is kept in the context
+            String source;
+            if (context.getSource() == null) {
+                source = loader.load(inputFile.toPath()).toString();
+                context.setSource(source);
+            } else {
+                source = context.getSource().toString();
+            }
+            ParsingResult<?> result = rpgParser.parse(source);
             if(result.getCorrect()) {
                 return result.getRoot();
             }
+            if(tolerant && result.getRoot() != null) {
+                context.getIssues().addAll(result.getIssues());
+                return result.getRoot();
+            }
         }
         throw new Exception(String.format("Invalid input file '%s'", inputFile.toPath()));
     }
+
+    /**
+     * Warms up the parser of the calling thread and the JIT by parsing a sample member
+     * bundled with the tool a number of times, so that the first real files do not pay
+     * for class loading and interpretation. The sample is decoded by the loader of the
+     * members and parsed from memory, without a temporary file. As the parsers belong
+     * to the threads, every worker of a batch run warms up its own, see
+     * {@link com.strumenta.rpg.BatchRunner#setWarmUp}.
+     *
+     * @param iterations The number of times the sample is parsed.
+     * @throws Exception If the sample cannot be read or parsed.
+     */
+    public void warmUp(int iterations) throws Exception {
+        TransformContext context = new TransformContext(new File(WARMUP_SAMPLE), (File) null);
+        context.setSource(warmUpSample());
+        for (int i = 0; i < iterations; i++) {
+            transform(null, context);
+        }
+    }
+
+    /**
+     * Retrieves the text of the warm-up sample, reading it from the resources the first time.
+     */
+    private synchronized String warmUpSample() throws IOException {
+        if (warmUpSample == null) {
+            try (InputStream in = SourceToModel.class.getResourceAsStream(WARMUP_SAMPLE)) {
+                if (in == null) {
+                    throw new IOException(String.format("Missing warm-up sample '%s'", WARMUP_SAMPLE));
+                }
+                warmUpSample = loader.load(in).toString();
+            }
+        }
+        return warmUpSample;
+    }
+
+    /**
+     * Retrieves the parser of the current thread for the extension of the given file,
+     * creating it the first time that extension is met.
+     *
+     * @param inputFile The file to be parsed.
+     * @return The parser for the file.
+     */
+    private RPGKolasuParser parser(File inputFile) {
+        String name = inputFile.getName();
+        String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        Map<String, RPGKolasuParser> threadParsers = parsers.get();
+        RPGKolasuParser parser = threadParsers.get(extension);
+        if (parser == null) {
+            parser = RPGKolasuParser.parserFromExtension(inputFile);
+            threadParsers.put(extension, parser);
+        }
+        return parser;
+    }
 }
@@ -0,0 +1,221 @@
+package com.strumenta.rpg.transform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the operation code and the operands of an RPG statement from its source text.
+ * It is used for the statements the model has no specific class for: their text
+ * still tells which operation they perform, in fixed form from the factor 1,
+ * operation and factor 2 columns of the C spec, in free form from the words of
+ * the statement.
+ */
+final class StatementText {
+
+    /**
+     * The file operations whose first operand is a key or a relative record number, followed by the file.
+     */
+    private static final Set<String> KEYED = Set.of("CHAIN", "READE", "READPE", "SETGT", "SETLL", "DELETE");
+
+    /**
+     * The keyed file operations whose key can be left out, the file then being their only operand.
+     */
+    private static final Set<String> OPTIONAL_KEY = Set.of("READE", "READPE", "DELETE");
+
+    /**
+     * The file operations whose first operand is the file.
+     */
+    private static final Set<String> UNKEYED = Set.of("READ", "READC", "READP", "WRITE", "UPDATE", "EXFMT",
+            "OPEN", "CLOSE", "UNLOCK", "FEOD", "POST", "ACQ", "REL");
+
+    /**
+     * The file operations that do not read or change records, such as the display of a
+     * screen or the opening of a file.
+     */
+    private static final Set<String> FILE_CONTROLS = Set.of("EXFMT", "OPEN", "CLOSE", "UNLOCK", "FEOD", "POST", "ACQ", "REL");
+
+    /**
+     * The control level or conditioning indicator continuation of columns 7 and 8 of a C spec.
+     */
+    private static final Pattern LEVEL = Pattern.compile("L[0-9R]|SR|AN|OR");
+
+    private final String opcode;
+    private final List<String> operands;
+    private final boolean fixed;
+
+    private StatementText(String opcode, List<String> operands, boolean fixed) {
+        this.opcode = opcode;
+        this.operands = operands;
+        this.fixed = fixed;
+    }
+
+    /**
+     * Reads the first line of a statement.
+     *
+     * @param text The source text of the statement.
+     * @return The operation and operands of the statement, or null if the line has no operation.
+     */
+    static StatementText parse(CharSequence text) {
+        String line = firstLine(text);
+        if (isFixed(line)) {
+            String opcode = columns(line, 25, 35);
+            if (opcode.isEmpty()) {
+                return null;
+            }
+            List<String> operands = new ArrayList<>();
+            operands.add(columns(line, 11, 25));
+            operands.add(columns(line, 35, 49));
+            operands.add(columns(line, 49, 63));
+            return new StatementText(operation(opcode), operands, true);
+        }
+        List<String> words = words(line.strip());
+        if (words.isEmpty()) {
+            return null;
+        }
+        String opcode = operation(words.get(0));
+        if (!opcode.chars().allMatch(Character::isLetter)) {
+            return null;
+        }
+        return new StatementText(opcode, words.subList(1, words.size()), false);
+    }
+
+    /**
+     * Retrieves the operation code, in upper case and without its extender.
+     *
+     * @return The operation code.
+     */
+    String opcode() {
+        return opcode;
+    }
+
+    /**
+     * Describes the statement as its operation followed by its operands.
+     *
+     * @return The description of the statement.
+     */
+    String label() {
+        StringBuilder label = new StringBuilder(opcode);
+        for (String operand : operands) {
+            if (!operand.isEmpty()) {
+                label.append(' ').append(operand);
+            }
+        }
+        return label.toString();
+    }
+
+    /**
+     * Retrieves the file, or record format, a file operation works on.
+     *
+     * @return The name of the file, or null if the statement is not a file operation.
+     */
+    String file() {
+        if (fixed) {
+            return KEYED.contains(opcode) || UNKEYED.contains(opcode) ? nonEmpty(operands.get(1)) : null;
+        }
+        if (KEYED.contains(opcode)) {
+            if (operands.size() == 1 && OPTIONAL_KEY.contains(opcode)) {
+                return operands.get(0);
+            }
+            return operands.size() > 1 ? operands.get(1) : null;
+        }
+        if (UNKEYED.contains(opcode)) {
+            return operands.isEmpty() ? null : operands.get(0);
+        }
+        return null;
+    }
+
+    /**
+     * Tells whether the statement is a file operation reading or changing records, as
+     * opposed to the ones controlling the file, such as EXFMT, OPEN or CLOSE.
+     *
+     * @return True if the statement reads, writes, updates or deletes records.
+     */
+    boolean isRecordOperation() {
+        return file() != null && !FILE_CONTROLS.contains(opcode);
+    }
+
+    /**
+     * Retrieves the key a keyed file operation positions the file with.
+     *
+     * @return The key, or null if the operation has none.
+     */
+    String key() {
+        if (!KEYED.contains(opcode)) {
+            return null;
+        }
+        return fixed ? nonEmpty(operands.get(0)) : operands.size() > 1 ? operands.get(0) : null;
+    }
+
+    /**
+     * Tells whether a line is a fixed-form C spec: C in column 6, and blank or a
+     * control level or conditioning indicator continuation (L0 to L9, LR, SR, AN, OR)
+     * in columns 7 and 8. Columns 1 to 5 are not looked at, as they can hold a sequence
+     * number or a comment.
+     */
+    private static boolean isFixed(String line) {
+        if (line.length() < 26 || Character.toUpperCase(line.charAt(5)) != 'C') {
+            return false;
+        }
+        String level = line.substring(6, 8).toUpperCase(Locale.ROOT);
+        return level.isBlank() || LEVEL.matcher(level).matches();
+    }
+
+    private static String firstLine(CharSequence text) {
+        String line = text.toString();
+        int end = line.indexOf('\n');
+        return (end >= 0 ? line.substring(0, end) : line).replace("\r", "");
+    }
+
+    private static String columns(String line, int from, int to) {
+        return from >= line.length() ? "" : line.substring(from, Math.min(to, line.length())).trim();
+    }
+
+    private static String nonEmpty(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Removes the operation extender, such as (E) or (N), and converts the code to upper case.
+     */
+    private static String operation(String word) {
+        int extender = word.indexOf('(');
+        return (extender >= 0 ? word.substring(0, extender) : word).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Splits a free-form statement into words, keeping parenthesized and quoted parts
+     * together and dropping the final semicolon.
+     */
+    private static List<String> words(String statement) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = 0; i < statement.length(); i++) {
+            char c = statement.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                depth++;
+            } else if (!quoted && c == ')') {
+                depth = Math.max(0, depth - 1);
+            } else if (!quoted && depth == 0 && c == ';') {
+                break;
+            } else if (!quoted && depth == 0 && Character.isWhitespace(c)) {
+                if (word.length() > 0) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                }
+                continue;
+            }
+            word.append(c);
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+}
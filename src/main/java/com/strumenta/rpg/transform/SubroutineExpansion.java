@@ -0,0 +1,19 @@
+package com.strumenta.rpg.transform;
+
+/**
+ * Defines how ModelToModel draws the calls to a subroutine.
+ */
+public enum SubroutineExpansion {
+    /**
+     * Every call shows the whole body of the subroutine. The body is built once and
+     * shared by the calls in the model, but the generated code, the model files and the
+     * pages repeat it at every call, so their size grows with the product of the calls
+     * at each level of nesting: REFERENCE keeps it linear.
+     */
+    INLINE,
+    /**
+     * The first call shows the body of the subroutine, the following calls
+     * show a reference to it.
+     */
+    REFERENCE
+}
@@ -0,0 +1,140 @@
+package com.strumenta.rpg.transform;
+
+import com.strumenta.kolasu.validation.Issue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Holds the per-file state of a single pipeline run.
+ * Transformers are shared across files (and across threads in batch mode),
+ * so everything that belongs to one member, such as its input and output
+ * locations, travels through the pipeline in a TransformContext instead of
+ * being stored in the transformers themselves.
+ */
+public class TransformContext {
+
+    private final File inputFile;
+    private final File outputFile;
+    private final List<Issue> issues = new ArrayList<>();
+    private final List<String> programPath;
+    private CharSequence source;
+    private int truncations;
+
+    /**
+     * Constructs a TransformContext for the given input and output files.
+     *
+     * @param inputFile  The RPG source file being processed.
+     * @param outputFile The file, or directory, where the generated output is written, or null
+     *                   if the output is not written to files, see {@link DiagramSink}.
+     */
+    public TransformContext(File inputFile, File outputFile) {
+        this.inputFile = inputFile;
+        this.outputFile = outputFile;
+        this.programPath = List.of(programName(inputFile));
+    }
+
+    /**
+     * Constructs a TransformContext for a program called by the program of another context,
+     * used when program calls are followed into other members.
+     *
+     * @param inputFile The RPG source file of the called program.
+     * @param caller    The context of the calling program.
+     */
+    public TransformContext(File inputFile, TransformContext caller) {
+        this.inputFile = inputFile;
+        this.outputFile = caller.outputFile;
+        List<String> path = new ArrayList<>(caller.programPath);
+        path.add(programName(inputFile));
+        this.programPath = Collections.unmodifiableList(path);
+    }
+
+    /**
+     * Retrieves the RPG source file being processed.
+     *
+     * @return The input file.
+     */
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    /**
+     * Retrieves the file, or directory, where the generated output is written.
+     *
+     * @return The output file, or null if the output is not written to files.
+     */
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * Retrieves the issues found while parsing the input file.
+     * The list is only filled when a source with errors is transformed in tolerant mode.
+     *
+     * @return The parsing issues, in the order they were reported.
+     */
+    public List<Issue> getIssues() {
+        return issues;
+    }
+
+    /**
+     * Retrieves the text of the input file, as loaded by SourceToModel.
+     *
+     * @return The source text, or null if the source has not been loaded.
+     */
+    public CharSequence getSource() {
+        return source;
+    }
+
+    /**
+     * Sets the text of the input file.
+     *
+     * @param source The source text.
+     */
+    public void setSource(CharSequence source) {
+        this.source = source;
+    }
+
+    /**
+     * Retrieves the chain of program calls that led to this file, from the entry member
+     * to this one. Program names are the upper case names of the members without extension.
+     *
+     * @return The program names, the last one being the program of this context.
+     */
+    public List<String> getProgramPath() {
+        return programPath;
+    }
+
+    /**
+     * Records an expansion cut short by a recursion or depth note, in this file or in a
+     * program it calls. A diagram with such notes depends on the call path it was reached
+     * from, so it is not shared with other callers.
+     */
+    public void addTruncation() {
+        truncations++;
+    }
+
+    /**
+     * Retrieves the number of expansions cut short by a recursion or depth note so far.
+     *
+     * @return The number of truncated expansions, 0 if the diagram is complete.
+     */
+    public int getTruncations() {
+        return truncations;
+    }
+
+    /**
+     * Retrieves the program name of a source member: its upper case name without extension.
+     *
+     * @param inputFile The source member.
+     * @return The program name.
+     */
+    public static String programName(File inputFile) {
+        String name = inputFile.getName();
+        int extension = name.lastIndexOf('.');
+        return (extension > 0 ? name.substring(0, extension) : name).toUpperCase(Locale.ROOT);
+    }
+}
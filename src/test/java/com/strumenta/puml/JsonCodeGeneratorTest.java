@@ -0,0 +1,65 @@
+package com.strumenta.puml;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the JSON documents written by {@link JsonCodeGenerator}.
+ */
+class JsonCodeGeneratorTest {
+
+    @Test
+    void statementsAreNestedInTheirBodies() throws IOException {
+        PUMLDiagram diagram = new PUMLDiagram();
+        PUMInvoke invoke = new PUMInvoke("CUS300.rpgle", "CALCTOT", "CALCTOT", List.of());
+        PUMLoop loop = new PUMLoop("DOW", null);
+        loop.getBody().add(new PUMInvoke("CALCTOT", "ORDERS", "READ", List.of("ORDREC")));
+        invoke.add(loop);
+        diagram.add(invoke);
+        diagram.add(new PUMLEmpty());
+
+        assertEquals("{\"client\": \"client\", \"module\": \"CUS300.rpgle\", \"statements\": ["
+                + "{\"type\": \"invoke\", \"caller\": \"CUS300.rpgle\", \"receiver\": \"CALCTOT\", \"method\": \"CALCTOT\", \"params\": [], \"body\": ["
+                + "{\"type\": \"loop\", \"kind\": \"DOW\", \"condition\": null, \"body\": ["
+                + "{\"type\": \"invoke\", \"caller\": \"CALCTOT\", \"receiver\": \"ORDERS\", \"method\": \"READ\", \"params\": [\"ORDREC\"], \"body\": []}"
+                + "]}]}]}\n", generate(diagram));
+    }
+
+    @Test
+    void elseBranchesAreListedInTheIf() throws IOException {
+        PUMLDiagram diagram = new PUMLDiagram();
+        PUMLIf ifThen = new PUMLIf("X = 1");
+        PUMLGroup otherwise = new PUMLGroup("ELSE");
+        otherwise.getBody().add(new PUMLRef("CUS300.rpgle", "CALCTOT"));
+        ifThen.getElseBranches().add(otherwise);
+        diagram.add(ifThen);
+        diagram.add(new PUMLNote("CUS300.rpgle", "done"));
+
+        assertEquals("{\"client\": \"client\", \"module\": \"CUS300.rpgle\", \"statements\": ["
+                + "{\"type\": \"if\", \"condition\": \"X = 1\", \"body\": [], \"else\": ["
+                + "{\"type\": \"group\", \"label\": \"ELSE\", \"body\": [{\"type\": \"ref\", \"participant\": \"CUS300.rpgle\", \"label\": \"CALCTOT\"}]}]}, "
+                + "{\"type\": \"note\", \"participant\": \"CUS300.rpgle\", \"text\": \"done\"}]}\n", generate(diagram));
+    }
+
+    @Test
+    void stringsAreEscaped() throws IOException {
+        PUMLDiagram diagram = new PUMLDiagram();
+        diagram.add(new PUMLNote("CUS300.rpgle", "say \"hi\"\\\n\t"));
+
+        String json = generate(diagram);
+
+        assertTrue(json.contains("\"text\": \"say \\\"hi\\\"\\\\\\n\\t\""), json);
+    }
+
+    private static String generate(PUMLDiagram diagram) throws IOException {
+        StringBuilder out = new StringBuilder();
+        new JsonCodeGenerator().generate(diagram, Map.of("client", "client", "module", "CUS300.rpgle"), out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,89 @@
+package com.strumenta.puml;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the Mermaid sequence diagrams written by {@link MermaidCodeGenerator}.
+ */
+class MermaidCodeGeneratorTest {
+
+    @Test
+    void participantsAreDeclaredWithTheirLabels() throws IOException {
+        PUMLDiagram diagram = new PUMLDiagram();
+        diagram.add(new PUMInvoke("CUS300.rpgle", "CUSTMAST", "CHAIN", List.of("custId")));
+
+        assertEquals("sequenceDiagram\n"
+                + "participant client\n"
+                + "participant CUS300_rpgle as CUS300.rpgle\n"
+                + "participant CUSTMAST\n"
+                + "client->>CUS300_rpgle: \n"
+                + "CUS300_rpgle->>CUSTMAST: CHAIN custId\n", generate(diagram));
+    }
+
+    @Test
+    void participantsWithTheSameIdentifierAreToldApart() throws IOException {
+        PUMLDiagram diagram = new PUMLDiagram();
+        diagram.add(new PUMInvoke("CUS300.rpgle", "FILE-A", "READ", List.of()));
+        diagram.add(new PUMInvoke("CUS300.rpgle", "FILE_A", "READ", List.of()));
+
+        assertEquals("sequenceDiagram\n"
+                + "participant client\n"
+                + "participant CUS300_rpgle as CUS300.rpgle\n"
+                + "participant FILE_A as FILE-A\n"
+                + "participant FILE_A_2 as FILE_A\n"
+                + "client->>CUS300_rpgle: \n"
+                + "CUS300_rpgle->>FILE_A: READ\n"
+                + "CUS300_rpgle->>FILE_A_2: READ\n", generate(diagram));
+    }
+
+    @Test
+    void blocksAreOpenedAndClosed() throws IOException {
+        PUMLDiagram diagram = new PUMLDiagram();
+        PUMLIf ifThen = new PUMLIf("X = 1");
+        ifThen.getBody().add(new PUMInvoke("CUS300.rpgle", "ORDERS", "WRITE", List.of()));
+        PUMLGroup otherwise = new PUMLGroup("ELSE");
+        otherwise.getBody().add(new PUMLNote("CUS300.rpgle", "nothing to write"));
+        ifThen.getElseBranches().add(otherwise);
+        PUMLoop loop = new PUMLoop("DOW", "NOT %EOF");
+        loop.getBody().add(new PUMLRef("CUS300.rpgle", "CALCTOT"));
+        loop.getBody().add(new PUMLEmpty());
+        diagram.add(ifThen);
+        diagram.add(loop);
+
+        assertEquals("sequenceDiagram\n"
+                + "participant client\n"
+                + "participant CUS300_rpgle as CUS300.rpgle\n"
+                + "participant ORDERS\n"
+                + "client->>CUS300_rpgle: \n"
+                + "alt IF X = 1\n"
+                + "CUS300_rpgle->>ORDERS: WRITE\n"
+                + "else ELSE\n"
+                + "Note over CUS300_rpgle: nothing to write\n"
+                + "end\n"
+                + "loop DOW NOT %EOF\n"
+                + "Note over CUS300_rpgle: ref CALCTOT\n"
+                + "end\n", generate(diagram));
+    }
+
+    @Test
+    void statementEndsAndLineBreaksAreEscaped() throws IOException {
+        PUMLDiagram diagram = new PUMLDiagram();
+        diagram.add(new PUMLNote("CUS300.rpgle", "A; #1\nB"));
+
+        String code = generate(diagram);
+
+        assertEquals("Note over CUS300_rpgle: A#59; #35;1<br/>B", code.lines().reduce((first, second) -> second).orElseThrow());
+    }
+
+    private static String generate(PUMLDiagram diagram) throws IOException {
+        StringBuilder out = new StringBuilder();
+        new MermaidCodeGenerator().generate(diagram, Map.of("client", "client", "module", "CUS300.rpgle"), out);
+        return out.toString();
+    }
+}
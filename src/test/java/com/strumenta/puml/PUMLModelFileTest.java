@@ -0,0 +1,219 @@
+package com.strumenta.puml;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the binary format of {@link PUMLModelFile}: a diagram read back is the one written,
+ * and the files that are not diagrams in the current version of the format are rejected.
+ */
+class PUMLModelFileTest {
+
+    @Test
+    void roundTripKeepsEveryStatement() throws IOException {
+        PUMLDiagram diagram = new PUMLDiagram();
+        PUMInvoke invoke = new PUMInvoke("CUS300", "CUSTMAST", "CHAIN", List.of("custId", "'A'"));
+        PUMLoop loop = new PUMLoop("DOW", "NOT %EOF(CUSTMAST)");
+        loop.getBody().add(new PUMLNote("CUS300", "Total: 0"));
+        loop.getBody().add(new PUMLEmpty());
+        invoke.add(loop);
+        diagram.add(invoke);
+        PUMLGroup group = new PUMLGroup("SELECT");
+        group.getBody().add(new PUMLRef("CUS300", "CALCTOT, see page 2"));
+        diagram.add(group);
+
+        PUMLDiagram read = roundTrip(diagram);
+
+        assertEquals(describe(diagram.getStatements()), describe(read.getStatements()));
+    }
+
+    @Test
+    void roundTripKeepsTheElseBranches() throws IOException {
+        PUMLDiagram diagram = new PUMLDiagram();
+        PUMLIf ifThen = new PUMLIf("X = 1");
+        ifThen.getBody().add(new PUMInvoke("CUS300", "ORDERS", "WRITE", List.of()));
+        PUMLGroup elseIf = new PUMLGroup("ELSEIF X = 2");
+        elseIf.getBody().add(new PUMInvoke("CUS300", "ORDERS", "UPDATE", List.of()));
+        ifThen.getElseBranches().add(elseIf);
+        PUMLGroup otherwise = new PUMLGroup("ELSE");
+        otherwise.getBody().add(new PUMInvoke("CUS300", "ORDERS", "DELETE", List.of()));
+        ifThen.getElseBranches().add(otherwise);
+        diagram.add(ifThen);
+
+        PUMLDiagram read = roundTrip(diagram);
+
+        PUMLIf readIf = (PUMLIf) read.getStatements().get(0);
+        assertEquals(2, readIf.getElseBranches().size());
+        assertEquals("ELSEIF X = 2", readIf.getElseBranches().get(0).getLabel());
+        assertEquals("ELSE", readIf.getElseBranches().get(1).getLabel());
+        assertEquals(describe(diagram.getStatements()), describe(read.getStatements()));
+    }
+
+    @Test
+    void roundTripKeepsNullStrings() throws IOException {
+        PUMLDiagram diagram = new PUMLDiagram();
+        diagram.add(new PUMLoop("DO", null));
+
+        PUMLoop loop = (PUMLoop) roundTrip(diagram).getStatements().get(0);
+
+        assertEquals("DO", loop.getType());
+        assertNull(loop.getCondition());
+    }
+
+    @Test
+    void roundTripKeepsLargeCounts() throws IOException {
+        List<String> params = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            params.add("P" + i);
+        }
+        PUMLDiagram diagram = new PUMLDiagram();
+        diagram.add(new PUMInvoke("CUS300", "CALCTOT", "CALCTOT", params));
+
+        PUMInvoke invoke = (PUMInvoke) roundTrip(diagram).getStatements().get(0);
+
+        assertEquals(params, invoke.getParams());
+    }
+
+    @Test
+    void repeatedStringsAreWrittenOnce() throws IOException {
+        PUMLDiagram diagram = new PUMLDiagram();
+        for (int i = 0; i < 50; i++) {
+            diagram.add(new PUMInvoke("CUS300", "CUSTMAST", "CHAIN", List.of("custId")));
+        }
+
+        byte[] bytes = write(diagram);
+
+        String content = new String(bytes, StandardCharsets.ISO_8859_1);
+        assertEquals(content.indexOf("CUSTMAST"), content.lastIndexOf("CUSTMAST"));
+        assertEquals(50, PUMLModelFile.read(new ByteArrayInputStream(bytes)).getStatements().size());
+    }
+
+    @Test
+    void rejectsAFileThatIsNotAModel() {
+        byte[] bytes = "@startuml\n@enduml\n".getBytes(StandardCharsets.UTF_8);
+
+        IOException e = assertThrows(IOException.class, () -> PUMLModelFile.read(new ByteArrayInputStream(bytes)));
+
+        assertEquals("Not a PUML model file", e.getMessage());
+    }
+
+    @Test
+    void rejectsAnotherVersion() throws IOException {
+        byte[] bytes = write(new PUMLDiagram());
+        bytes[7] = 1;
+
+        IOException e = assertThrows(IOException.class, () -> PUMLModelFile.read(new ByteArrayInputStream(bytes)));
+
+        assertEquals("Unsupported PUML model file version 1", e.getMessage());
+    }
+
+    @Test
+    void rejectsAReferenceToAnUnknownString() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(write(new PUMLDiagram()), 0, 8);
+        out.writeByte(1);   // One statement
+        out.writeByte(4);   // A note
+        out.writeByte(5);   // Referring to the fourth string, while none was read
+
+        IOException e = assertThrows(IOException.class, () -> PUMLModelFile.read(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertTrue(e.getMessage().startsWith("Invalid string reference"));
+    }
+
+    @Test
+    void rejectsANegativeCount() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(write(new PUMLDiagram()), 0, 8);
+        bytes.write(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+
+        IOException e = assertThrows(IOException.class, () -> PUMLModelFile.read(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals("Corrupt model file: invalid count -1", e.getMessage());
+    }
+
+    @Test
+    void rejectsATruncatedFile() throws IOException {
+        PUMLDiagram diagram = new PUMLDiagram();
+        diagram.add(new PUMInvoke("CUS300", "CUSTMAST", "CHAIN", List.of("custId")));
+        byte[] bytes = write(diagram);
+
+        for (int length = 8; length < bytes.length; length++) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+
+            IOException e = assertThrows(IOException.class, () -> PUMLModelFile.read(new ByteArrayInputStream(truncated)));
+
+            assertTrue(e.getMessage().startsWith("Corrupt model file"), e.getMessage());
+        }
+    }
+
+    @Test
+    void rejectsAStringLongerThanTheFile() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(write(new PUMLDiagram()), 0, 8);
+        bytes.write(new byte[]{1, 4, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'A'});
+
+        IOException e = assertThrows(IOException.class, () -> PUMLModelFile.read(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertTrue(e.getMessage().startsWith("Corrupt model file"));
+    }
+
+    private static byte[] write(PUMLDiagram diagram) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PUMLModelFile.write(diagram, out);
+        return out.toByteArray();
+    }
+
+    private static PUMLDiagram roundTrip(PUMLDiagram diagram) throws IOException {
+        return PUMLModelFile.read(new ByteArrayInputStream(write(diagram)));
+    }
+
+    /**
+     * Describes statements with all their strings and bodies, one per line, indented by depth.
+     */
+    private static String describe(List<? extends PUMLStatement> statements) {
+        StringBuilder out = new StringBuilder();
+        describe(statements, 0, out);
+        return out.toString();
+    }
+
+    private static void describe(List<? extends PUMLStatement> statements, int depth, StringBuilder out) {
+        for (PUMLStatement statement : statements) {
+            out.append(String.join("", Collections.nCopies(depth, "  ")));
+            if (statement instanceof PUMInvoke s) {
+                out.append(String.format("invoke %s %s %s %s%n", s.getCaller(), s.getReceiver(), s.getMethod(), s.getParams()));
+                describe(s.getBody(), depth + 1, out);
+            } else if (statement instanceof PUMLIf s) {
+                out.append(String.format("if %s%n", s.getCondition()));
+                describe(s.getBody(), depth + 1, out);
+                describe(s.getElseBranches(), depth, out);
+            } else if (statement instanceof PUMLoop s) {
+                out.append(String.format("loop %s %s%n", s.getType(), s.getCondition()));
+                describe(s.getBody(), depth + 1, out);
+            } else if (statement instanceof PUMLGroup s) {
+                out.append(String.format("group %s%n", s.getLabel()));
+                describe(s.getBody(), depth + 1, out);
+            } else if (statement instanceof PUMLNote s) {
+                out.append(String.format("note %s %s%n", s.getParticipant(), s.getText()));
+            } else if (statement instanceof PUMLRef s) {
+                out.append(String.format("ref %s %s%n", s.getParticipant(), s.getLabel()));
+            } else {
+                out.append(String.format("%s%n", statement.getClass().getSimpleName()));
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.strumenta.puml;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the split of the diagrams into pages by {@link PUMLPaginator}.
+ */
+class PUMLPaginatorTest {
+
+    @Test
+    void diagramWithinTheBudgetIsASinglePage() {
+        PUMLDiagram diagram = calls(5);
+
+        List<PUMLPage> pages = new PUMLPaginator(10, 3).paginate(diagram);
+
+        assertEquals(1, pages.size());
+        assertSame(diagram, pages.get(0).getDiagram());
+    }
+
+    @Test
+    void topLevelContinuesOnNewPages() {
+        PUMLDiagram diagram = calls(25);
+
+        List<PUMLPage> pages = new PUMLPaginator(10, 3).paginate(diagram);
+
+        assertTrue(pages.size() > 2);
+        long invokes = 0;
+        for (PUMLPage page : pages) {
+            long messages = page.getDiagram().getStatements().stream().filter(PUMInvoke.class::isInstance).count();
+            assertTrue(messages <= 10);
+            invokes += messages;
+        }
+        assertEquals(25, invokes);
+        PUMLStatement last = pages.get(0).getDiagram().getStatements().get(pages.get(0).getDiagram().getStatements().size() - 1);
+        assertEquals("continued on page 2", ((PUMLRef) last).getLabel());
+    }
+
+    @Test
+    void largeBodyMovesToItsOwnPage() {
+        PUMInvoke subroutine = new PUMInvoke("CUS300", "CALCTOT", "CALCTOT", List.of());
+        for (int i = 0; i < 8; i++) {
+            subroutine.add(new PUMInvoke("CALCTOT", "ORDERS", "READ", List.of()));
+        }
+        PUMLDiagram diagram = new PUMLDiagram();
+        diagram.add(subroutine);
+
+        List<PUMLPage> pages = new PUMLPaginator(5, 3).paginate(diagram);
+
+        assertEquals(3, pages.size());
+        List<PUMLStatement> first = pages.get(0).getDiagram().getStatements();
+        assertEquals(2, first.size());
+        assertTrue(((PUMInvoke) first.get(0)).getBody().isEmpty());
+        assertEquals("CALCTOT, see page 2", ((PUMLRef) first.get(1)).getLabel());
+        PUMLPage second = pages.get(1);
+        assertEquals("CUS300", second.getCaller());
+        assertEquals("CALCTOT", second.getReceiver());
+        List<PUMLStatement> body = second.getDiagram().getStatements();
+        assertEquals(6, body.size());
+        assertEquals("continued on page 3", ((PUMLRef) body.get(5)).getLabel());
+        assertEquals(3, pages.get(2).getDiagram().getStatements().size());
+        assertEquals(8, subroutine.getBody().size());
+    }
+
+    @Test
+    void rejectsAnEmptyBudget() {
+        assertThrows(IllegalArgumentException.class, () -> new PUMLPaginator(1, 3));
+        assertThrows(IllegalArgumentException.class, () -> new PUMLPaginator(10, 0));
+    }
+
+    private static PUMLDiagram calls(int count) {
+        PUMLDiagram diagram = new PUMLDiagram();
+        for (int i = 0; i < count; i++) {
+            diagram.add(new PUMInvoke("CUS300", "CUSTMAST", "CHAIN", List.of("K" + i)));
+        }
+        return diagram;
+    }
+}
@@ -0,0 +1,79 @@
+package com.strumenta.rpg;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the selection of the members of a batch run by {@link BatchRunner#collectInputs}.
+ */
+class BatchRunnerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void directorySelectsItsFiles() throws IOException {
+        createMembers();
+
+        assertEquals(List.of(file("CUS300.rpgle"), file("ORD100.rpgle"), file("README.txt")),
+                BatchRunner.collectInputs(dir.toString()));
+    }
+
+    @Test
+    void globSelectsTheMatchingFiles() throws IOException {
+        createMembers();
+
+        assertEquals(List.of(file("CUS300.rpgle"), file("ORD100.rpgle")),
+                BatchRunner.collectInputs(dir.resolve("*.rpgle").toString()));
+    }
+
+    @Test
+    void doubleStarGlobSelectsTheFilesBelow() throws IOException {
+        createMembers();
+
+        assertEquals(List.of(file("CUS300.rpgle"), file("ORD100.rpgle"), file("sub/INV200.rpgle")),
+                BatchRunner.collectInputs(dir.resolve("**.rpgle").toString()));
+    }
+
+    @Test
+    void membersWithTheSameOutputNameAreRejected() throws IOException {
+        createMembers();
+        Files.createDirectories(dir.resolve("other"));
+        Files.writeString(dir.resolve("other/cus300.rpgle"), "**FREE\n");
+
+        IOException e = assertThrows(IOException.class, () -> BatchRunner.collectInputs(dir.resolve("**.rpgle").toString()));
+        assertTrue(e.getMessage().contains("CUS300.rpgle"));
+        assertTrue(e.getMessage().contains("cus300.rpgle"));
+    }
+
+    @Test
+    void batchInputsAreDirectoriesAndGlobs() throws IOException {
+        createMembers();
+
+        assertTrue(BatchRunner.isBatchInput(dir.toString()));
+        assertTrue(BatchRunner.isBatchInput(dir.resolve("*.rpgle").toString()));
+        assertFalse(BatchRunner.isBatchInput(dir.resolve("CUS300.rpgle").toString()));
+    }
+
+    private void createMembers() throws IOException {
+        Files.createDirectories(dir.resolve("sub"));
+        for (String name : List.of("ORD100.rpgle", "CUS300.rpgle", "README.txt", "sub/INV200.rpgle")) {
+            Files.writeString(dir.resolve(name), "**FREE\n");
+        }
+    }
+
+    private File file(String name) {
+        return dir.resolve(name).toFile();
+    }
+}
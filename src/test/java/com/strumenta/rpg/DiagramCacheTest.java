@@ -0,0 +1,107 @@
+package com.strumenta.rpg;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the keys of the members in {@link DiagramCache} and the freshness of their diagrams.
+ */
+class DiagramCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void keyDependsOnTheSourceAndTheOptions() throws IOException {
+        File member = write("src/CUS300.rpgle", "**FREE\nDSPLY 'A';\n");
+        DiagramCache cache = cache("expansion=inline");
+
+        String key = cache.key(member);
+
+        assertEquals(key, cache.key(member));
+        assertNotEquals(key, cache("expansion=ref").key(member));
+        write("src/CUS300.rpgle", "**FREE\nDSPLY 'B';\n");
+        assertNotEquals(key, cache.key(member));
+    }
+
+    @Test
+    void keyDependsOnTheCopybooks() throws IOException {
+        File member = write("src/CUS300.rpgle", "**FREE\n/COPY QCPYSRC,CUSTDS\n");
+        write("copy/CUSTDS.rpgleinc", "DCL-DS CUST;\n");
+        String key = cache("").key(member);
+
+        write("copy/CUSTDS.rpgleinc", "DCL-DS CUST QUALIFIED;\n");
+
+        assertNotEquals(key, cache("").key(member));
+    }
+
+    @Test
+    void sameCacheSeesTheChangedCopybooks() throws IOException {
+        File member = write("src/CUS300.rpgle", "**FREE\n/COPY QCPYSRC,CUSTDS\n");
+        File copybook = write("copy/CUSTDS.rpgleinc", "DCL-DS CUST;\n");
+        DiagramCache cache = cache("");
+        String key = cache.key(member);
+
+        write("copy/CUSTDS.rpgleinc", "DCL-DS CUST QUALIFIED;\n");
+        Files.setLastModifiedTime(copybook.toPath(), FileTime.fromMillis(copybook.lastModified() + 2000));
+
+        assertNotEquals(key, cache.key(member));
+        assertEquals(cache("").key(member), cache.key(member));
+    }
+
+    @Test
+    void storedMemberIsFreshWhileItsDiagramExists() throws IOException {
+        File member = write("src/CUS300.rpgle", "**FREE\n");
+        File output = Files.createDirectories(dir.resolve("out")).toFile();
+        DiagramCache cache = cache("");
+        String key = cache.key(member);
+        cache.store(member, key);
+
+        assertFalse(cache.isFresh(member, output, key));
+        File diagram = write("out/CUS300.rpgle.puml", "@startuml\n@enduml\n");
+        assertTrue(cache.isFresh(member, output, key));
+        assertFalse(cache.isFresh(member, output, "another key"));
+
+        cache.invalidate(member);
+        assertFalse(cache.isFresh(member, output, key));
+        assertTrue(diagram.isFile());
+    }
+
+    @Test
+    void savedIndexIsLoadedBack() throws IOException {
+        File member = write("src/CUS300.rpgle", "**FREE\n");
+        File output = Files.createDirectories(dir.resolve("out")).toFile();
+        write("out/CUS300.rpgle.puml", "@startuml\n@enduml\n");
+        DiagramCache cache = cache("");
+        String key = cache.key(member);
+        cache.store(member, key);
+
+        cache.save();
+
+        assertTrue(cache("").isFresh(member, output, key));
+    }
+
+    private DiagramCache cache(String options) throws IOException {
+        SourceDependencies dependencies = new SourceDependencies(null, List.of(dir.resolve("copy").toFile()), List.of());
+        return new DiagramCache(dir.resolve("cache.properties"), dependencies, options);
+    }
+
+    private File write(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        return file.toFile();
+    }
+}
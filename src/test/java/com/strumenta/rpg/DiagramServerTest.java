@@ -0,0 +1,111 @@
+package com.strumenta.rpg;
+
+import com.strumenta.rpg.transform.ModelToModel;
+import com.strumenta.rpg.transform.SourceToModel;
+import com.strumenta.rpg.transform.SubroutineExpansion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the checks of the requests made by {@link DiagramServer} before a member is converted.
+ * The factory of the transformers fails, so a request reaching the conversion is answered with 422.
+ */
+class DiagramServerTest {
+
+    @TempDir
+    Path dir;
+
+    private DiagramServer server;
+    private HttpClient client;
+    private int port;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new DiagramServer(new SourceToModel(), (expansion, maxDepth) -> {
+            throw new IOException(String.format("Converting with %s/%d", expansion, maxDepth));
+        }, SubroutineExpansion.INLINE, ModelToModel.DEFAULT_MAX_DEPTH);
+        Files.createDirectories(dir.resolve("root"));
+        Files.writeString(dir.resolve("root/CUS300.rpgle"), "**FREE\n");
+        Files.writeString(dir.resolve("SECRET.rpgle"), "**FREE\n");
+        server.setRoot(dir.resolve("root").toFile());
+        port = server.start(0, 1);
+        client = HttpClient.newHttpClient();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop();
+    }
+
+    @Test
+    void memberIsReadBelowTheRoot() throws Exception {
+        HttpResponse<String> response = get("/diagram?path=CUS300.rpgle&subroutine-refs");
+
+        assertEquals(422, response.statusCode());
+        assertEquals("Converting with REFERENCE/" + ModelToModel.DEFAULT_MAX_DEPTH, response.body());
+    }
+
+    @Test
+    void pathsOutsideTheRootAreForbidden() throws Exception {
+        assertEquals(403, get("/diagram?path=../SECRET.rpgle").statusCode());
+        assertEquals(400, get("/diagram?path=MISSING.rpgle").statusCode());
+        assertEquals(400, get("/diagram").statusCode());
+    }
+
+    @Test
+    void pathsAreForbiddenWithoutRoot() throws Exception {
+        server.setRoot(null);
+
+        assertEquals(403, get("/diagram?path=CUS300.rpgle").statusCode());
+    }
+
+    @Test
+    void depthMustBeWithinTheLimit() throws Exception {
+        assertEquals(400, post("/diagram?name=CUS300.rpgle&max-depth=-1", "**FREE\n").statusCode());
+        assertEquals(400, post("/diagram?name=CUS300.rpgle&max-depth=" + (ModelToModel.DEFAULT_MAX_DEPTH + 1), "**FREE\n").statusCode());
+        assertEquals(400, post("/diagram?name=CUS300.rpgle&max-depth=deep", "**FREE\n").statusCode());
+
+        HttpResponse<String> response = post("/diagram?name=CUS300.rpgle&max-depth=0", "**FREE\n");
+        assertEquals(422, response.statusCode());
+        assertEquals("Converting with INLINE/0", response.body());
+    }
+
+    @Test
+    void largeBodiesAreRejected() throws Exception {
+        assertEquals(413, post("/diagram?name=CUS300.rpgle", "*".repeat(DiagramServer.MAX_BODY_SIZE + 1)).statusCode());
+        assertEquals(400, post("/diagram", "**FREE\n").statusCode());
+    }
+
+    @Test
+    void otherMethodsAreNotAllowed() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri("/diagram?name=CUS300.rpgle"))
+                .PUT(HttpRequest.BodyPublishers.ofString("**FREE\n")).build();
+
+        assertEquals(405, client.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri(path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> post(String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri(path)).POST(HttpRequest.BodyPublishers.ofString(body)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create(String.format("http://127.0.0.1:%d%s", port, path));
+    }
+}
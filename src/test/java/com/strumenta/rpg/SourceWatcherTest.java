@@ -0,0 +1,124 @@
+package com.strumenta.rpg;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the members {@link SourceWatcher} converts again after a change, with a pipeline
+ * recording the members instead of converting them.
+ */
+@Timeout(60)
+class SourceWatcherTest {
+
+    @TempDir
+    Path dir;
+
+    private final BlockingQueue<Set<Path>> changes = new LinkedBlockingQueue<>();
+    private final BlockingQueue<BatchResult> results = new LinkedBlockingQueue<>();
+    private Thread watcher;
+
+    @BeforeEach
+    void start() throws Exception {
+        write("src/CUS300.rpgle", "**FREE\n/COPY QCPYSRC,CUSTDS\n");
+        write("src/ORD100.rpgle", "**FREE\nDSPLY 'A';\n");
+        write("copy/CUSTDS.rpgleinc", "DCL-DS CUST;\n");
+        Files.createDirectories(dir.resolve("out"));
+        SourceWatcher sourceWatcher = new SourceWatcher(new Pipeline((model, context) -> model), 1,
+                dir.resolve("src").toFile(), dir.resolve("out").toFile(), null, List.of(dir.resolve("copy").toFile()), List.of(), 100);
+        sourceWatcher.addListener(new SourceWatcher.Listener() {
+            @Override
+            public void changed(Set<Path> changed) {
+                changes.add(changed);
+            }
+
+            @Override
+            public void converted(BatchResult result) {
+                results.add(result);
+            }
+        });
+        // The watcher prints its first line once the directories are watched
+        CountDownLatch watching = new CountDownLatch(1);
+        PrintStream out = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                watching.countDown();
+            }
+        }, true);
+        watcher = new Thread(() -> {
+            try {
+                sourceWatcher.watch(out);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        watcher.start();
+        assertTrue(watching.await(10, TimeUnit.SECONDS));
+    }
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        watcher.interrupt();
+        watcher.join();
+    }
+
+    @Test
+    void changedMemberIsConvertedAgain() throws Exception {
+        write("src/ORD100.rpgle", "**FREE\nDSPLY 'B';\n");
+
+        assertEquals(List.of(member("ORD100.rpgle")), nextResult().getSuccesses());
+    }
+
+    @Test
+    void membersIncludingAChangedCopybookAreConvertedAgain() throws Exception {
+        write("copy/CUSTDS.rpgleinc", "DCL-DS CUST QUALIFIED;\n");
+
+        assertEquals(List.of(member("CUS300.rpgle")), nextResult().getSuccesses());
+        assertTrue(changes.take().contains(dir.resolve("copy/CUSTDS.rpgleinc").toAbsolutePath().normalize()));
+    }
+
+    @Test
+    void newMemberIsConvertedAndItsCopybooksAreFollowed() throws Exception {
+        write("src/INV200.rpgle", "**FREE\n/COPY QCPYSRC,INVDS\n");
+        assertEquals(List.of(member("INV200.rpgle")), nextResult().getSuccesses());
+
+        write("copy/INVDS.rpgleinc", "DCL-DS INV;\n");
+
+        assertEquals(List.of(member("INV200.rpgle")), nextResult().getSuccesses());
+    }
+
+    private BatchResult nextResult() throws InterruptedException {
+        BatchResult result = results.poll(20, TimeUnit.SECONDS);
+        assertNotNull(result);
+        return result;
+    }
+
+    private File member(String name) {
+        return dir.resolve("src").resolve(name).toAbsolutePath().normalize().toFile();
+    }
+
+    private void write(String name, String content) throws IOException {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+}
@@ -0,0 +1,139 @@
+package com.strumenta.rpg;
+
+import com.strumenta.rpg.transform.ModelTransformer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the hand-over of the members between the stages of a {@link StagedRunner}, with
+ * transformers recording the members they see instead of converting them.
+ */
+@Timeout(30)
+class StagedRunnerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void everyMemberGoesThroughEveryStage() throws Exception {
+        Set<String> read = ConcurrentHashMap.newKeySet();
+        Set<String> written = ConcurrentHashMap.newKeySet();
+        StagedRunner runner = new StagedRunner(List.of(
+                stage("read", 2, record(read)),
+                stage("write", 3, record(written))), 1);
+
+        BatchResult result = runner.run(members(20), dir.toFile());
+
+        assertEquals(20, result.getSuccesses().size());
+        assertEquals(20, read.size());
+        assertEquals(read, written);
+        assertEquals(20, runner.getStages().get(0).getMembers());
+        assertEquals(20, runner.getStages().get(1).getMembers());
+    }
+
+    @Test
+    void failedMemberStopsAtItsStage() throws Exception {
+        Set<String> written = ConcurrentHashMap.newKeySet();
+        StagedRunner runner = new StagedRunner(List.of(
+                stage("parse", 2, (model, context) -> {
+                    if (context.getInputFile().getName().equals("M3.rpgle")) {
+                        throw new IllegalStateException("Cannot parse M3");
+                    }
+                    return model;
+                }),
+                stage("write", 1, record(written))), 4);
+
+        BatchResult result = runner.run(members(5), dir.toFile());
+
+        assertEquals(4, result.getSuccesses().size());
+        assertEquals(Map.of(dir.resolve("M3.rpgle").toFile(), "Cannot parse M3"), result.getFailures());
+        assertEquals(4, written.size());
+    }
+
+    @Test
+    void failedWarmUpLeavesTheWorkerConverting() throws Exception {
+        StagedRunner.Stage parse = stage("parse", 2, (model, context) -> model);
+        parse.setWarmUp(() -> {
+            throw new IllegalStateException("No sample");
+        });
+        StagedRunner runner = new StagedRunner(List.of(parse), 2);
+
+        BatchResult result = runner.run(members(10), dir.toFile());
+
+        assertEquals(10, result.getSuccesses().size());
+    }
+
+    @Test
+    void interruptedRunStopsTheWorkers() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch stopped = new CountDownLatch(1);
+        StagedRunner runner = new StagedRunner(List.of(stage("parse", 1, (model, context) -> {
+            blocked.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                stopped.countDown();
+                throw e;
+            }
+            return model;
+        })), 1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread producer = new Thread(() -> {
+            try {
+                runner.run(members(10), dir.toFile());
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+
+        producer.start();
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        producer.interrupt();
+        producer.join();
+
+        assertTrue(failure.get() instanceof InterruptedException);
+        assertTrue(stopped.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void rejectsInvalidStages() {
+        assertThrows(IllegalArgumentException.class, () -> new StagedRunner(List.of(), 1));
+        assertThrows(IllegalArgumentException.class, () -> new StagedRunner(List.of(stage("read", 1)), 0));
+        assertThrows(IllegalArgumentException.class, () -> stage("read", 0));
+    }
+
+    private static StagedRunner.Stage stage(String name, int threads, ModelTransformer... transformers) {
+        return new StagedRunner.Stage(name, threads, List.of(transformers));
+    }
+
+    private static ModelTransformer record(Set<String> names) {
+        return (model, context) -> {
+            names.add(context.getInputFile().getName());
+            return model;
+        };
+    }
+
+    private List<File> members(int count) {
+        List<File> members = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            members.add(dir.resolve(String.format("M%d.rpgle", i)).toFile());
+        }
+        return members;
+    }
+}
@@ -0,0 +1,175 @@
+package com.strumenta.rpg.transform;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the archives written by {@link ArchiveSink}, and their update by the following runs.
+ */
+class ArchiveSinkTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void commitWritesTheEntriesAndTheManifest() throws IOException {
+        Path archive = dir.resolve("diagrams.zip");
+
+        try (ArchiveSink sink = new ArchiveSink(archive.toFile())) {
+            write(sink, "CUS300.rpgle.puml", "@startuml");
+            write(sink, "CUS300.rpgle.mmd", "sequenceDiagram");
+            sink.completed("CUS300.rpgle", List.of("CUS300.rpgle.puml", "CUS300.rpgle.mmd"));
+            sink.commit();
+        }
+
+        Map<String, String> entries = entries(archive);
+        assertEquals(Set.of("CUS300.rpgle.puml", "CUS300.rpgle.mmd", ArchiveSink.MANIFEST), entries.keySet());
+        assertEquals("@startuml", entries.get("CUS300.rpgle.puml"));
+        assertEquals("CUS300.rpgle.mmd,CUS300.rpgle.puml", manifest(archive).getProperty("CUS300.rpgle"));
+        assertFalse(Files.exists(dir.resolve("diagrams.zip.tmp")));
+    }
+
+    @Test
+    void updateKeepsTheEntriesNotWrittenAgain() throws IOException {
+        Path archive = dir.resolve("diagrams.zip");
+        try (ArchiveSink sink = new ArchiveSink(archive.toFile())) {
+            write(sink, "A.rpgle.puml", "A1");
+            write(sink, "B.rpgle.puml", "B1");
+            sink.completed("A.rpgle", List.of("A.rpgle.puml"));
+            sink.completed("B.rpgle", List.of("B.rpgle.puml"));
+            sink.commit();
+        }
+
+        try (ArchiveSink sink = new ArchiveSink(archive.toFile())) {
+            assertTrue(sink.contains("B.rpgle.puml"));
+            write(sink, "A.rpgle.puml", "A2");
+            sink.completed("A.rpgle", List.of("A.rpgle.puml"));
+            sink.commit();
+        }
+
+        Map<String, String> entries = entries(archive);
+        assertEquals("A2", entries.get("A.rpgle.puml"));
+        assertEquals("B1", entries.get("B.rpgle.puml"));
+        assertEquals("B.rpgle.puml", manifest(archive).getProperty("B.rpgle"));
+    }
+
+    @Test
+    void removedEntriesAreLeftOut() throws IOException {
+        Path archive = dir.resolve("diagrams.zip");
+        try (ArchiveSink sink = new ArchiveSink(archive.toFile())) {
+            write(sink, "A.rpgle.puml", "A1");
+            write(sink, "A.rpgle_2.puml", "A1 page 2");
+            sink.completed("A.rpgle", List.of("A.rpgle.puml", "A.rpgle_2.puml"));
+            sink.commit();
+        }
+
+        try (ArchiveSink sink = new ArchiveSink(archive.toFile())) {
+            assertTrue(sink.remove("A.rpgle_2.puml"));
+            assertFalse(sink.remove("A.rpgle_2.puml"));
+            assertFalse(sink.remove("UNKNOWN.puml"));
+            assertFalse(sink.contains("A.rpgle_2.puml"));
+            sink.commit();
+        }
+
+        assertEquals(Set.of("A.rpgle.puml", ArchiveSink.MANIFEST), entries(archive).keySet());
+        assertEquals("A.rpgle.puml", manifest(archive).getProperty("A.rpgle"));
+    }
+
+    @Test
+    void entriesWrittenByTheRunAreNotRemoved() throws IOException {
+        Path archive = dir.resolve("diagrams.zip");
+        try (ArchiveSink sink = new ArchiveSink(archive.toFile())) {
+            write(sink, "A.rpgle.puml", "A1");
+            sink.commit();
+        }
+
+        try (ArchiveSink sink = new ArchiveSink(archive.toFile())) {
+            write(sink, "A.rpgle.puml", "A2");
+            assertFalse(sink.remove("A.rpgle.puml"));
+            assertTrue(sink.contains("A.rpgle.puml"));
+        }
+    }
+
+    @Test
+    void entryWrittenTwiceFails() throws IOException {
+        try (ArchiveSink sink = new ArchiveSink(dir.resolve("diagrams.zip").toFile())) {
+            write(sink, "A.rpgle.puml", "A1");
+
+            assertThrows(IOException.class, () -> write(sink, "A.rpgle.puml", "A2"));
+        }
+    }
+
+    @Test
+    void closeWithoutCommitKeepsThePreviousArchive() throws IOException {
+        Path archive = dir.resolve("diagrams.zip");
+        try (ArchiveSink sink = new ArchiveSink(archive.toFile())) {
+            write(sink, "A.rpgle.puml", "A1");
+            sink.commit();
+        }
+        byte[] previous = Files.readAllBytes(archive);
+
+        try (ArchiveSink sink = new ArchiveSink(archive.toFile())) {
+            write(sink, "A.rpgle.puml", "A2");
+            write(sink, "B.rpgle.puml", "B1");
+        }
+
+        assertArrayEquals(previous, Files.readAllBytes(archive));
+        assertFalse(Files.exists(dir.resolve("diagrams.zip.tmp")));
+    }
+
+    @Test
+    void nothingCanBeWrittenOnceCommitted() throws IOException {
+        try (ArchiveSink sink = new ArchiveSink(dir.resolve("diagrams.zip").toFile())) {
+            sink.commit();
+
+            assertThrows(IOException.class, () -> write(sink, "A.rpgle.puml", "A1"));
+        }
+    }
+
+    private static void write(ArchiveSink sink, String name, String content) throws IOException {
+        try (Writer writer = sink.open(name)) {
+            writer.write(content);
+        }
+    }
+
+    private static Map<String, String> entries(Path archive) throws IOException {
+        Map<String, String> entries = new TreeMap<>();
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            for (ZipEntry entry : zip.stream().toList()) {
+                try (InputStream in = zip.getInputStream(entry)) {
+                    entries.put(entry.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static Properties manifest(Path archive) throws IOException {
+        Properties manifest = new Properties();
+        try (ZipFile zip = new ZipFile(archive.toFile());
+             InputStream in = zip.getInputStream(zip.getEntry(ArchiveSink.MANIFEST))) {
+            manifest.load(in);
+        }
+        return manifest;
+    }
+}
@@ -0,0 +1,80 @@
+package com.strumenta.rpg.transform;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the file access index built by {@link FileAccessIndex}, in both directions and once saved.
+ */
+class FileAccessIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void accessesAreIndexedByProgramAndByFile() {
+        FileAccessIndex index = new FileAccessIndex();
+
+        index.record("CUS300.rpgle", Map.of("CUSTMAST", Set.of("CHAIN", "READ"), "ORDERS", Set.of("WRITE")));
+        index.record("ORD100.rpgle", Map.of("ORDERS", Set.of("UPDATE")));
+
+        assertEquals(Map.of("CUSTMAST", Set.of("CHAIN", "READ"), "ORDERS", Set.of("WRITE")), index.filesOf("cus300.RPGLE"));
+        assertEquals(Map.of("CUS300.rpgle", Set.of("WRITE"), "ORD100.rpgle", Set.of("UPDATE")), index.programsOf("orders"));
+        assertTrue(index.programsOf("UNKNOWN").isEmpty());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void recordingAProgramAgainReplacesItsAccesses() {
+        FileAccessIndex index = new FileAccessIndex();
+        index.record("CUS300.rpgle", Map.of("CUSTMAST", Set.of("CHAIN")));
+
+        index.record("CUS300.rpgle", Map.of("ORDERS", Set.of("READ")));
+
+        assertEquals(Map.of("ORDERS", Set.of("READ")), index.filesOf("CUS300.rpgle"));
+        assertTrue(index.programsOf("CUSTMAST").isEmpty());
+    }
+
+    @Test
+    void savedIndexIsLoadedBack() throws IOException {
+        Path indexFile = dir.resolve("crud.properties");
+        FileAccessIndex index = new FileAccessIndex();
+        index.record("CUS300.rpgle", Map.of("CUSTMAST", Set.of("CHAIN", "READ"), "ORDERS", Set.of("WRITE")));
+
+        index.save(indexFile);
+        FileAccessIndex loaded = FileAccessIndex.load(indexFile);
+
+        assertEquals(index.filesOf("CUS300.rpgle"), loaded.filesOf("CUS300.rpgle"));
+        assertEquals(Map.of("CUS300.rpgle", Set.of("WRITE")), loaded.programsOf("ORDERS"));
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(indexFile)) {
+            properties.load(in);
+        }
+        assertEquals("CUSTMAST:CHAIN+READ,ORDERS:WRITE", properties.getProperty("program.CUS300.rpgle"));
+        assertEquals("CUS300.rpgle:WRITE", properties.getProperty("file.ORDERS"));
+    }
+
+    @Test
+    void missingIndexIsEmpty() throws IOException {
+        assertEquals(0, FileAccessIndex.load(dir.resolve("missing.properties")).size());
+    }
+
+    @Test
+    void operationsAreClassified() {
+        assertEquals('C', FileAccessIndex.crud("write"));
+        assertEquals('U', FileAccessIndex.crud("UPDATE"));
+        assertEquals('D', FileAccessIndex.crud("DELETE"));
+        assertEquals('R', FileAccessIndex.crud("CHAIN"));
+    }
+}
@@ -0,0 +1,157 @@
+package com.strumenta.rpg.transform;
+
+import com.strumenta.kolasu.model.Node;
+import com.strumenta.puml.PUMLDiagram;
+import com.strumenta.puml.PUMLNote;
+import com.strumenta.puml.PUMLStatement;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests the lookup of the called programs by {@link ProgramLibrary} and the cache of their
+ * statements, with transformers drawing every program as a note instead of parsing it.
+ */
+class ProgramLibraryTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<String> transformed = new ArrayList<>();
+    private final Set<String> truncated = new HashSet<>();
+
+    @BeforeEach
+    void createMembers() throws IOException {
+        write("lib1/UTIL01.rpgle");
+        write("lib1/ORD100.rpgle");
+        write("lib2/util01.sqlrpgle");
+        write("lib2/INV200.rpgle");
+    }
+
+    @Test
+    void programsAreFoundByNameInTheFirstDirectory() throws IOException {
+        ProgramLibrary library = library(10);
+
+        assertEquals(dir.resolve("lib1/UTIL01.rpgle").toFile(), library.member("util01"));
+        assertEquals(dir.resolve("lib2/INV200.rpgle").toFile(), library.member("INV200"));
+        assertNull(library.member("CUS300"));
+    }
+
+    @Test
+    void statementsAreTransformedOnce() throws Exception {
+        ProgramLibrary library = library(10);
+
+        List<PUMLStatement> first = library.statements("UTIL01", caller("CUS300"));
+        List<PUMLStatement> second = library.statements("util01", caller("ORD100"));
+
+        assertSame(first, second);
+        assertEquals(List.of("UTIL01"), transformed);
+        assertEquals("UTIL01", ((PUMLNote) first.get(0)).getText());
+    }
+
+    @Test
+    void truncatedStatementsAreNotCached() throws Exception {
+        truncated.add("UTIL01");
+        ProgramLibrary library = library(10);
+        TransformContext caller = caller("CUS300");
+
+        library.statements("UTIL01", caller);
+        library.statements("UTIL01", caller);
+
+        assertEquals(List.of("UTIL01", "UTIL01"), transformed);
+        assertEquals(2, caller.getTruncations());
+    }
+
+    @Test
+    void leastRecentlyUsedProgramIsEvicted() throws Exception {
+        ProgramLibrary library = library(2);
+        TransformContext caller = caller("CUS300");
+
+        library.statements("UTIL01", caller);
+        library.statements("ORD100", caller);
+        library.statements("UTIL01", caller);
+        library.statements("INV200", caller);
+        library.statements("UTIL01", caller);
+        library.statements("ORD100", caller);
+
+        assertEquals(List.of("UTIL01", "ORD100", "INV200", "ORD100"), transformed);
+    }
+
+    @Test
+    void refreshEvictsTheChangedProgramsAndTheirCallers() throws Exception {
+        ProgramLibrary library = library(10);
+        TransformContext caller = caller("CUS300");
+        library.statements("ORD100", caller);
+        library.statements("INV200", caller);
+        // UTIL01 is called by ORD100
+        library.statements("UTIL01", new TransformContext(library.member("ORD100"), caller));
+        transformed.clear();
+
+        write("lib1/NEW300.rpgle");
+        library.refresh(List.of(dir.resolve("lib1/UTIL01.rpgle").toFile()));
+        library.statements("UTIL01", caller);
+        library.statements("ORD100", caller);
+        library.statements("INV200", caller);
+
+        assertEquals(List.of("UTIL01", "ORD100"), transformed);
+        assertEquals(dir.resolve("lib1/NEW300.rpgle").toFile(), library.member("NEW300"));
+    }
+
+    @Test
+    void clearEvictsEveryProgram() throws Exception {
+        ProgramLibrary library = library(10);
+        TransformContext caller = caller("CUS300");
+        library.statements("ORD100", caller);
+
+        library.clear();
+        library.statements("ORD100", caller);
+
+        assertEquals(List.of("ORD100", "ORD100"), transformed);
+    }
+
+    private ProgramLibrary library(int capacity) throws IOException {
+        SourceToModel sourceToModel = new SourceToModel() {
+            @Override
+            public Node transform(Node model, TransformContext context) {
+                return new PUMLDiagram();
+            }
+        };
+        ModelToModel modelToModel = new ModelToModel() {
+            @Override
+            public Node transform(Node model, TransformContext context) {
+                String program = TransformContext.programName(context.getInputFile());
+                transformed.add(program);
+                if (truncated.contains(program)) {
+                    context.addTruncation();
+                }
+                PUMLDiagram diagram = new PUMLDiagram();
+                diagram.add(new PUMLNote(program, program));
+                return diagram;
+            }
+        };
+        return new ProgramLibrary(List.of(dir.resolve("lib1").toFile(), dir.resolve("lib2").toFile()), sourceToModel, modelToModel, capacity);
+    }
+
+    private TransformContext caller(String program) {
+        return new TransformContext(new File(program + ".rpgle"), dir.toFile());
+    }
+
+    private void write(String name) throws IOException {
+        Path file = dir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "**FREE\n");
+    }
+}
@@ -0,0 +1,119 @@
+package com.strumenta.rpg.transform;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Tests the charset detection and the record format handling of {@link SourceLoader}.
+ */
+class SourceLoaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void utf8ByteOrderMarkIsDropped() throws IOException {
+        byte[] bytes = concat(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, "DSPLY '\u00e9';\n".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("DSPLY '\u00e9';\n", load(new SourceLoader(), bytes));
+    }
+
+    @Test
+    void utf16ByteOrderMarksAreHonored() throws IOException {
+        byte[] littleEndian = concat(new byte[]{(byte) 0xFF, (byte) 0xFE}, "DSPLY X;\n".getBytes(StandardCharsets.UTF_16LE));
+        byte[] bigEndian = concat(new byte[]{(byte) 0xFE, (byte) 0xFF}, "DSPLY X;\n".getBytes(StandardCharsets.UTF_16BE));
+
+        assertEquals("DSPLY X;\n", load(new SourceLoader(), littleEndian));
+        assertEquals("DSPLY X;\n", load(new SourceLoader(), bigEndian));
+    }
+
+    @Test
+    void validUtf8IsDecodedAsUtf8() throws IOException {
+        assertEquals("DSPLY 'Gr\u00f6\u00dfe';\n", load(new SourceLoader(), "DSPLY 'Gr\u00f6\u00dfe';\n".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void invalidUtf8FallsBackToASingleByteCharset() throws IOException {
+        assertEquals("DSPLY '\u00e9';\n", load(new SourceLoader(), "DSPLY '\u00e9';\n".getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    void ebcdicIsRecognizedAndItsNewLinesBecomeLineFeeds() throws IOException {
+        assumeTrue(Charset.isSupported("IBM037"));
+        byte[] bytes = "DCL-S X INT(10);\u0085DSPLY X;\u0085".getBytes(Charset.forName("IBM037"));
+
+        assertEquals("DCL-S X INT(10);\nDSPLY X;\n", load(new SourceLoader(), bytes));
+    }
+
+    @Test
+    void givenCharsetIsNotDetected() throws IOException {
+        byte[] bytes = "DSPLY '\u00e9';\n".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals("DSPLY '\u00c3\u00a9';\n", load(new SourceLoader(StandardCharsets.ISO_8859_1, SourceLoader.RecordFormat.PLAIN), bytes));
+    }
+
+    @Test
+    void sequenceColumnsAreDetectedAndStripped() throws IOException {
+        String member = "000100240101     C                   EVAL      X = 1\r\n"
+                + "000200240101\r\n"
+                + "\r\n"
+                + "000300      " + "     C                   RETURN\n";
+
+        assertEquals("     C                   EVAL      X = 1\r\n\r\n\r\n     C                   RETURN\n",
+                load(new SourceLoader(), member.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void membersWithoutSequenceColumnsAreKept() throws IOException {
+        String member = "000100240101     C                   EVAL      X = 1\n"
+                + "     C                   RETURN\n";
+
+        assertEquals(member, load(new SourceLoader(), member.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void recordFormatOverridesTheDetection() throws IOException {
+        String member = "000100240101     C                   RETURN\n";
+        byte[] bytes = member.getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(member, load(new SourceLoader(null, SourceLoader.RecordFormat.PLAIN), bytes));
+        assertEquals("ABC\n", load(new SourceLoader(null, SourceLoader.RecordFormat.SEQUENCED), "XXXXXXXXXXXXABC\n".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void largeMembersAreMappedAndStripped() throws IOException {
+        StringBuilder member = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; member.length() < 2 * 1024 * 1024; i++) {
+            String record = String.format("     C                   EVAL      X = %d\n", i);
+            member.append(String.format("%06d240101", i)).append(record);
+            expected.append(record);
+        }
+        Path file = dir.resolve("LARGE.rpgle");
+        Files.writeString(file, member, StandardCharsets.US_ASCII);
+
+        assertEquals(expected.toString(), new SourceLoader().load(file).toString());
+    }
+
+    private static String load(SourceLoader loader, byte[] bytes) throws IOException {
+        return loader.load(new ByteArrayInputStream(bytes)).toString();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(first);
+        out.writeBytes(second);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,109 @@
+package com.strumenta.rpg.transform;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the reading of the operation and operands of fixed-form and free-form statements by {@link StatementText}.
+ */
+class StatementTextTest {
+
+    @Test
+    void fixedFormKeyedOperation() {
+        StatementText text = StatementText.parse(fixed("CUSTID", "CHAIN(N)", "CUSTMAST"));
+
+        assertEquals("CHAIN", text.opcode());
+        assertEquals("CUSTMAST", text.file());
+        assertEquals("CUSTID", text.key());
+        assertEquals("CHAIN CUSTID CUSTMAST", text.label());
+        assertTrue(text.isRecordOperation());
+    }
+
+    @Test
+    void fixedFormWithControlLevel() {
+        StatementText text = StatementText.parse("     CL1" + fixed("", "WRITE", "TOTALS").substring(8));
+
+        assertEquals("WRITE", text.opcode());
+        assertEquals("TOTALS", text.file());
+        assertNull(text.key());
+    }
+
+    @Test
+    void fixedFormWithSequenceNumberOrComment() {
+        StatementText numbered = StatementText.parse("01234" + fixed("CUSTID", "CHAIN", "CUSTMAST").substring(5));
+        StatementText commented = StatementText.parse("TODO " + fixed("", "READ", "ORDERS").substring(5));
+
+        assertEquals("CHAIN", numbered.opcode());
+        assertEquals("CUSTMAST", numbered.file());
+        assertEquals("CUSTID", numbered.key());
+        assertEquals("READ", commented.opcode());
+        assertEquals("ORDERS", commented.file());
+    }
+
+    @Test
+    void freeFormStartingWithC() {
+        StatementText text = StatementText.parse("     chain custId CUSTMAST;              ");
+
+        assertEquals("CHAIN", text.opcode());
+        assertEquals("CUSTMAST", text.file());
+    }
+
+    @Test
+    void fixedFormWithoutOperation() {
+        assertNull(StatementText.parse(fixed("", "", "")));
+    }
+
+    @Test
+    void freeFormKeyedOperation() {
+        StatementText text = StatementText.parse("chain(e) (custId: 'A') CUSTMAST;\n// next line");
+
+        assertEquals("CHAIN", text.opcode());
+        assertEquals("CUSTMAST", text.file());
+        assertEquals("(custId: 'A')", text.key());
+        assertTrue(text.isRecordOperation());
+    }
+
+    @Test
+    void freeFormKeyCanBeLeftOut() {
+        StatementText reade = StatementText.parse("READE ORDERS;");
+        StatementText chain = StatementText.parse("CHAIN CUSTMAST;");
+
+        assertEquals("ORDERS", reade.file());
+        assertNull(reade.key());
+        assertNull(chain.file());
+        assertFalse(chain.isRecordOperation());
+    }
+
+    @Test
+    void fileControlsAreNotRecordOperations() {
+        StatementText exfmt = StatementText.parse("EXFMT SCREEN1;");
+        StatementText close = StatementText.parse("close *ALL;");
+
+        assertEquals("SCREEN1", exfmt.file());
+        assertFalse(exfmt.isRecordOperation());
+        assertFalse(close.isRecordOperation());
+    }
+
+    @Test
+    void otherStatementsHaveNoFile() {
+        StatementText eval = StatementText.parse("EVAL X = 'READ ORDERS';");
+
+        assertEquals("EVAL", eval.opcode());
+        assertNull(eval.file());
+        assertNull(eval.key());
+        assertFalse(eval.isRecordOperation());
+        assertNull(StatementText.parse("*INLR = *ON;"));
+        assertNull(StatementText.parse("   "));
+    }
+
+    /**
+     * Builds a fixed-form C spec with the given factor 1, operation and factor 2.
+     */
+    private static String fixed(String factor1, String opcode, String factor2) {
+        return String.format("     C     %-14s%-10s%-14s", factor1, opcode, factor2);
+    }
+}